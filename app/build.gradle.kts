@@ -14,6 +14,15 @@ android {
         versionName = "1.0"
 
         testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
+
+        // Catalog store, a PhotoStorage.Mode name: ./gradlew assembleDebug -PphotoNote.storage=JOURNAL.
+        // Stores do not share data, so switching starts from that store's own (possibly empty) catalog.
+        val storageMode = (project.findProperty("photoNote.storage") as String?) ?: "ROOM"
+        buildConfigField("String", "STORAGE_MODE", "\"$storageMode\"")
+        // Hashes every imported image to catch copies under other URIs: -PphotoNote.detectDuplicateContent=true.
+        // The library is hashed once in the background after it loads, then cached per photo.
+        val detectDuplicateContent = (project.findProperty("photoNote.detectDuplicateContent") as String?) ?: "false"
+        buildConfigField("boolean", "DETECT_DUPLICATE_CONTENT", detectDuplicateContent.toBoolean().toString())
     }
 
     buildTypes {
@@ -36,6 +45,7 @@ android {
 }
 
 dependencies {
+    implementation(project(":core"))
     implementation(libs.appcompat)
     implementation(libs.material)
     implementation(libs.activity)
@@ -65,6 +75,9 @@ dependencies {
     implementation("com.google.android.material:material:1.11.0")
     implementation("androidx.constraintlayout:constraintlayout:2.1.4")
     implementation("com.github.bumptech.glide:glide:4.16.0")
+    implementation("com.github.bumptech.glide:recyclerview-integration:4.16.0") {
+        isTransitive = false
+    }
     implementation("com.google.code.gson:gson:2.10.1")
     testImplementation("junit:junit:4.13.2")
     androidTestImplementation("androidx.test.ext:junit:1.1.5")
@@ -1,6 +1,5 @@
 package com.alp2.photonote;
 
-import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.view.MenuItem;
@@ -9,12 +8,15 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 
 import com.alp2.photonote.adapter.NotesAdapter;
 import com.alp2.photonote.databinding.ActivityAddNoteBinding;
+import com.alp2.photonote.model.PhotoItem;
 import com.alp2.photonote.model.PhotoNote;
-import com.alp2.photonote.view.NoteMarkerView;
+import com.alp2.photonote.view.FitCenter;
+import com.alp2.photonote.viewmodel.PhotoViewModel;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.request.RequestOptions;
 
@@ -22,11 +24,15 @@ import java.util.ArrayList;
 import java.util.Objects;
 
 public class AddNoteActivity extends AppCompatActivity implements NotesAdapter.OnNoteClickListener, NotesAdapter.OnNoteDeleteListener {
+    public static final String EXTRA_PHOTO_ID = "PHOTO_ID";
     private ActivityAddNoteBinding binding;
     private NotesAdapter notesAdapter;
-    private ArrayList<PhotoNote> notes;
+    private final ArrayList<PhotoNote> notes = new ArrayList<>();
+    private PhotoViewModel viewModel;
+    private Uri photoUri;
     private float lastTouchX;
     private float lastTouchY;
+    private final float[] touchPoint = new float[2];
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -38,80 +44,67 @@ public class AddNoteActivity extends AppCompatActivity implements NotesAdapter.O
         Objects.requireNonNull(getSupportActionBar()).setDisplayHomeAsUpEnabled(true);
         getSupportActionBar().setTitle("Add Notes");
 
-        // Setup back press handling
-        getOnBackPressedDispatcher().addCallback(this, new androidx.activity.OnBackPressedCallback(true) {
-            @Override
-            public void handleOnBackPressed() {
-                returnToPhotoDetail();
-            }
-        });
-
-        String photoUriString = getIntent().getStringExtra("photo_uri");
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.TIRAMISU) {
-            notes = getIntent().getParcelableArrayListExtra("notes", PhotoNote.class);
-        } else {
-            notes = getIntent().getParcelableArrayListExtra("notes");
-        }
-        if (notes == null) {
-            notes = new ArrayList<>();
+        String photoId = getIntent().getStringExtra(EXTRA_PHOTO_ID);
+        if (photoId == null) {
+            Toast.makeText(this, "Error loading photo", Toast.LENGTH_SHORT).show();
+            finish();
+            return;
         }
+        // Notes are saved to the shared repository as they are made; PhotoDetailActivity observes it
+        viewModel = new ViewModelProvider(this).get(PhotoViewModel.class);
+        viewModel.setPhotoId(photoId);
 
-        if (photoUriString != null) {
-            Uri photoUri = Uri.parse(photoUriString);
-            setupUI(photoUri);
-        } else {
+        setupUI();
+        viewModel.getPhoto().observe(this, this::showPhoto);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        viewModel.flushInBackground();
+    }
+
+    private void showPhoto(PhotoItem photo) {
+        if (photo == null || photo.getPhotoUri() == null) {
             Toast.makeText(this, "Error loading photo", Toast.LENGTH_SHORT).show();
             finish();
+            return;
+        }
+        if (photoUri == null) {
+            photoUri = photo.getPhotoUri();
+            RequestOptions options = new RequestOptions()
+                .fitCenter()
+                .error(android.R.drawable.ic_menu_gallery);
+
+            Glide.with(this)
+                    .load(photoUri)
+                    .apply(options)
+                    .into(binding.photoImageView);
         }
+
+        notes.clear();
+        notes.addAll(photo.getNotes());
+        notesAdapter.updateNotes(notes);
+        binding.markerView.setMarkers(PhotoNote.packPositions(notes), notes.size());
     }
 
-    private void setupUI(Uri photoUri) {
+    private void setupUI() {
         binding.photoImageView.setScaleType(android.widget.ImageView.ScaleType.FIT_CENTER);
-        
-        RequestOptions options = new RequestOptions()
-            .fitCenter()
-            .error(android.R.drawable.ic_menu_gallery);
-
-        Glide.with(this)
-                .load(photoUri)
-                .apply(options)
-                .into(binding.photoImageView);
 
         binding.notesRecyclerView.setLayoutManager(new LinearLayoutManager(this));
         notesAdapter = new NotesAdapter(notes, this, this);
         binding.notesRecyclerView.setAdapter(notesAdapter);
 
-        binding.markerView.clearMarkers();
-        for (PhotoNote note : notes) {
-            binding.markerView.addMarker(note.getX(), note.getY());
-        }
-
         binding.markerView.setOnMarkerTouchListener((x, y) -> {
-            // Get the image and view dimensions
-            int viewWidth = binding.markerView.getWidth();
-            int viewHeight = binding.markerView.getHeight();
-            int imageWidth = binding.photoImageView.getDrawable().getIntrinsicWidth();
-            int imageHeight = binding.photoImageView.getDrawable().getIntrinsicHeight();
-
-            // Calculate scaling factors
-            float scaleX = (float) viewWidth / imageWidth;
-            float scaleY = (float) viewHeight / imageHeight;
-            float scale = Math.min(scaleX, scaleY);
-
-            // Calculate image bounds within the view
-            float scaledImageWidth = imageWidth * scale;
-            float scaledImageHeight = imageHeight * scale;
-            float leftOffset = (viewWidth - scaledImageWidth) / 2;
-            float topOffset = (viewHeight - scaledImageHeight) / 2;
-
-            // Adjust touch coordinates relative to the image
-            float touchX = (x * viewWidth - leftOffset) / scaledImageWidth;
-            float touchY = (y * viewHeight - topOffset) / scaledImageHeight;
-
-            // Ensure coordinates are within bounds
-            if (touchX >= 0 && touchX <= 1 && touchY >= 0 && touchY <= 1) {
-                lastTouchX = touchX;
-                lastTouchY = touchY;
+            // The marker view spans the whole ImageView; only touches on the image itself count
+            if (binding.photoImageView.getDrawable() == null) {
+                return;
+            }
+            if (FitCenter.viewToImage(x, y, binding.markerView.getWidth(), binding.markerView.getHeight(),
+                    binding.photoImageView.getDrawable().getIntrinsicWidth(),
+                    binding.photoImageView.getDrawable().getIntrinsicHeight(), touchPoint)) {
+                lastTouchX = touchPoint[0];
+                lastTouchY = touchPoint[1];
                 showNoteInput();
             }
         });
@@ -133,36 +126,19 @@ public class AddNoteActivity extends AppCompatActivity implements NotesAdapter.O
             notes.add(note);
             binding.markerView.addMarker(lastTouchX, lastTouchY);
             notesAdapter.addNote(note);
+            viewModel.addNote(note);
             
             binding.noteEditText.setText("");
             binding.noteInputLayout.setVisibility(View.GONE);
             binding.saveFab.setVisibility(View.GONE);
             binding.addNoteInstructions.setVisibility(View.VISIBLE);
-            
-            // Notları PhotoDetailActivity'ye gönder ama aktiviteyi kapatma
-            Intent resultIntent = new Intent();
-            resultIntent.putParcelableArrayListExtra("notes", new ArrayList<>(notes));
-            setResult(RESULT_OK, resultIntent);
         }
     }
 
-    @Override
-    public void onBackPressed() {
-        returnToPhotoDetail();
-        super.onBackPressed();
-    }
-
-    private void returnToPhotoDetail() {
-        Intent resultIntent = new Intent();
-        resultIntent.putParcelableArrayListExtra("notes", new ArrayList<>(notes));
-        setResult(RESULT_OK, resultIntent);
-        finish();
-    }
-
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
-            returnToPhotoDetail();
+            finish();
             return true;
         }
         return super.onOptionsItemSelected(item);
@@ -178,6 +154,7 @@ public class AddNoteActivity extends AppCompatActivity implements NotesAdapter.O
         notes.remove(position);
         binding.markerView.removeMarker(position);
         notesAdapter.removeNote(position);
-        returnToPhotoDetail();
+        viewModel.removeNote(note);
+        finish();
     }
 } 
\ No newline at end of file
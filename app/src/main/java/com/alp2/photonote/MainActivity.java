@@ -1,18 +1,26 @@
 package com.alp2.photonote;
 
 import android.Manifest;
-import android.annotation.SuppressLint;
+import android.content.ClipData;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.ViewTreeObserver;
 import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.core.content.ContextCompat;
 import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
@@ -21,20 +29,57 @@ import androidx.recyclerview.widget.GridLayoutManager;
 
 import com.alp2.photonote.adapter.GalleryAdapter;
 import com.alp2.photonote.databinding.ActivityMainBinding;
+import com.alp2.photonote.metrics.Histogram;
+import com.alp2.photonote.metrics.Metrics;
 import com.alp2.photonote.model.PhotoItem;
-import com.alp2.photonote.model.PhotoNote;
-import com.alp2.photonote.storage.PhotoStorage;
+import com.alp2.photonote.repository.ContentHashIndex;
+import com.alp2.photonote.repository.NoteSearchIndex;
+import com.alp2.photonote.repository.PhotoImporter;
+import com.alp2.photonote.repository.PhotoPager;
+import com.alp2.photonote.repository.PhotoRepository;
+import com.alp2.photonote.storage.FirstScreenCache;
+import com.alp2.photonote.storage.ThumbnailStore;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity implements GalleryAdapter.OnPhotoClickListener {
+    // About three screens of the two-column grid
+    private static final int PAGE_SIZE = 60;
+    private static final int GRID_SPAN_COUNT = 2;
+    // Two rows ahead of the scroll position
+    private static final int PRELOAD_AHEAD = 2 * GRID_SPAN_COUNT;
+    private static final int MAX_SEARCH_RESULTS = 50;
+    private static final String TAG = "PhotoNote";
+    // Measured from the process start; one value per cold start
+    private static final Histogram FIRST_FRAME_TIME = Metrics.histogram("startup.first_frame", "ms");
+    private static final Histogram CATALOG_LOADED_TIME = Metrics.histogram("startup.catalog_loaded", "ms");
+    // Only the first activity of a process measures the cold start
+    private static boolean startupMeasured;
     private ActivityMainBinding binding;
-    private ArrayList<PhotoItem> photos;
     private GalleryAdapter galleryAdapter;
-    private PhotoStorage photoStorage;
+    private PhotoRepository photoRepository;
+    private PhotoPager photoPager;
+    private ContentHashIndex contentHashIndex;
+    private ThumbnailStore thumbnailStore;
+    private PhotoImporter photoImporter;
+    private FirstScreenCache firstScreenCache;
+    private final PhotoRepository.Listener catalogListener = (snapshot, change) -> {
+        if (photoPager != null) {
+            photoPager.apply(change);
+        } else {
+            galleryAdapter.applyChange(snapshot, change);
+        }
+    };
     private ActivityResultLauncher<String> permissionLauncher;
     private ActivityResultLauncher<Intent> addNoteLauncher;
-    private ActivityResultLauncher<Intent> photoDetailLauncher;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -59,12 +104,49 @@ public class MainActivity extends AppCompatActivity implements GalleryAdapter.On
             return WindowInsetsCompat.CONSUMED;
         });
 
-        photoStorage = new PhotoStorage(this);
-        photos = photoStorage.loadPhotos();
+        // Shared with the detail screens; it outlives this activity and is never closed
+        photoRepository = PhotoRepository.getInstance(this);
+        thumbnailStore = ThumbnailStore.getInstance(this);
+        photoImporter = new PhotoImporter(this);
+        firstScreenCache = new FirstScreenCache(this, thumbnailStore);
+        if (photoRepository.isPaged()) {
+            photoPager = photoRepository.createPager(PAGE_SIZE);
+        }
+        if (BuildConfig.DETECT_DUPLICATE_CONTENT) {
+            contentHashIndex = new ContentHashIndex(this);
+            photoRepository.setContentHashIndex(contentHashIndex);
+        }
 
         setupLaunchers();
         setupRecyclerView();
         setupAddPhotoButton();
+        setupSearch();
+        setupMetricsMenu();
+
+        photoRepository.addListener(catalogListener);
+        photoRepository.setFirstScreenCache(firstScreenCache);
+        photoRepository.setThumbnailStore(thumbnailStore);
+        if (photoPager != null) {
+            photoPager.refresh();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        photoRepository.saveFirstScreen();
+        // Pushes queued writes to disk without waiting for them, like SharedPreferences.apply()
+        photoRepository.flushInBackground();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        photoRepository.removeListener(catalogListener);
+        photoImporter.close();
+        if (photoPager != null) {
+            photoPager.close();
+        }
     }
 
     private void setupLaunchers() {
@@ -83,92 +165,256 @@ public class MainActivity extends AppCompatActivity implements GalleryAdapter.On
             new ActivityResultContracts.StartActivityForResult(),
             result -> {
                 if (result.getResultCode() == RESULT_OK && result.getData() != null) {
-                    Uri selectedImageUri = result.getData().getData();
-                    if (selectedImageUri == null) {
+                    List<Uri> selectedUris = selectedUris(result.getData());
+                    if (selectedUris.isEmpty()) {
                         Toast.makeText(this, "Error: Could not load photo", Toast.LENGTH_SHORT).show();
                         return;
                     }
-
-                    try {
-                        getContentResolver().takePersistableUriPermission(selectedImageUri,
-                            Intent.FLAG_GRANT_READ_URI_PERMISSION);
-
-                        boolean exists = false;
-                        for (PhotoItem photo : photos) {
-                            if (photo.getPhotoUri() != null &&
-                                photo.getPhotoUri().toString().equals(selectedImageUri.toString())) {
-                                exists = true;
-                                break;
-                            }
-                        }
-
-                        if (!exists) {
-                            PhotoItem newPhoto = new PhotoItem(selectedImageUri);
-                            photos.add(newPhoto);
-                            galleryAdapter.notifyItemInserted(photos.size() - 1);
-                            photoStorage.savePhotos(photos);
-                        } else {
-                            Toast.makeText(MainActivity.this, "This photo already exists in the gallery", Toast.LENGTH_SHORT).show();
+                    if (contentHashIndex != null) {
+                        // Content hashing checks one image at a time, against the catalog and the picks before it
+                        for (Uri uri : selectedUris) {
+                            importWithContentCheck(uri);
                         }
-                    } catch (SecurityException e) {
-                        Toast.makeText(this, "Error: Could not access photo", Toast.LENGTH_SHORT).show();
-                        e.printStackTrace();
-                    } catch (Exception e) {
-                        Toast.makeText(this, "Error: Could not process photo", Toast.LENGTH_SHORT).show();
-                        e.printStackTrace();
+                    } else {
+                        importPhotos(selectedUris);
                     }
                 }
             }
         );
+    }
 
-        photoDetailLauncher = registerForActivityResult(
-            new ActivityResultContracts.StartActivityForResult(),
-            result -> {
-                if (result.getResultCode() == RESULT_OK && result.getData() != null) {
-                    Intent data = result.getData();
-                    boolean deletePhoto = data.getBooleanExtra("DELETE_PHOTO", false);
-                    int position = data.getIntExtra("PHOTO_POSITION", -1);
-                    
-                    if (deletePhoto && position != -1) {
-                        photos.remove(position);
-                        photoStorage.savePhotos(photos);
-                        galleryAdapter.notifyItemRemoved(position);
-                    } else {
-                        ArrayList<PhotoNote> updatedNotes;
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                            updatedNotes = data.getParcelableArrayListExtra("UPDATED_NOTES", PhotoNote.class);
-                        } else {
-                            updatedNotes = data.getParcelableArrayListExtra("UPDATED_NOTES");
-                        }
-                        
-                        if (updatedNotes != null && position != -1) {
-                            PhotoItem photo = photos.get(position);
-                            photo.setNotes(new ArrayList<>(updatedNotes));
-                            photoStorage.savePhotos(photos);
-                            galleryAdapter.notifyItemChanged(position);
-                        }
-                    }
+    // A multi-select picker returns ClipData; a single pick may only set the data URI
+    private static List<Uri> selectedUris(Intent data) {
+        List<Uri> uris = new ArrayList<>();
+        ClipData clipData = data.getClipData();
+        if (clipData != null) {
+            for (int i = 0; i < clipData.getItemCount(); i++) {
+                if (clipData.getItemAt(i).getUri() != null) {
+                    uris.add(clipData.getItemAt(i).getUri());
                 }
             }
-        );
+        } else if (data.getData() != null) {
+            uris.add(data.getData());
+        }
+        return uris;
     }
 
-    @Override
-    protected void onPause() {
-        super.onPause();
-        photoStorage.savePhotos(photos);
+    // Grants and probes run on the importer's pool; the photos then go in as one batch
+    private void importPhotos(List<Uri> uris) {
+        binding.toolbar.setSubtitle("Importing 0 / " + uris.size());
+        photoImporter.prepare(uris, new PhotoImporter.Callback() {
+            @Override
+            public void onProgress(int done, int total) {
+                binding.toolbar.setSubtitle("Importing " + done + " / " + total);
+            }
+
+            @Override
+            public void onFinished(List<Uri> accepted, int rejected) {
+                binding.toolbar.setSubtitle(null);
+                List<PhotoItem> photos = new ArrayList<>(accepted.size());
+                for (Uri uri : accepted) {
+                    photos.add(new PhotoItem(uri));
+                    thumbnailStore.request(uri);
+                }
+                photoRepository.addPhotos(photos,
+                    (added, duplicates) -> showImportResult(uris.size(), added, duplicates, rejected));
+            }
+        });
+    }
+
+    private void showImportResult(int selected, int added, int duplicates, int rejected) {
+        if (selected == 1) {
+            if (rejected > 0) {
+                Toast.makeText(this, "Error: Could not access photo", Toast.LENGTH_SHORT).show();
+            } else if (duplicates > 0) {
+                showDuplicatePhotoMessage();
+            }
+            return;
+        }
+        StringBuilder message = new StringBuilder("Added ").append(added).append(" photos");
+        if (duplicates > 0) {
+            message.append(", ").append(duplicates).append(" already in the gallery");
+        }
+        if (rejected > 0) {
+            message.append(", ").append(rejected).append(" could not be opened");
+        }
+        Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+    }
+
+    private void importWithContentCheck(Uri selectedImageUri) {
+        try {
+            getContentResolver().takePersistableUriPermission(selectedImageUri,
+                Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            // Start on the thumbnail while the duplicate checks run; a duplicate maps to the same file
+            thumbnailStore.request(selectedImageUri);
+
+            photoRepository.findByUri(selectedImageUri, existingId -> {
+                if (existingId != null) {
+                    showDuplicatePhotoMessage();
+                    return;
+                }
+                PhotoItem newPhoto = new PhotoItem(selectedImageUri);
+                String photoId = newPhoto.getId();
+                contentHashIndex.check(selectedImageUri, photoId, photoRepository.contentSource(), (hash, duplicateOf) -> {
+                    if (duplicateOf != null) {
+                        showDuplicatePhotoMessage();
+                    } else if (photoRepository.addPhoto(newPhoto)) {
+                        contentHashIndex.remember(photoId, hash);
+                    } else {
+                        contentHashIndex.release(photoId, hash);
+                        showDuplicatePhotoMessage();
+                    }
+                });
+            });
+        } catch (SecurityException e) {
+            Toast.makeText(this, "Error: Could not access photo", Toast.LENGTH_SHORT).show();
+            e.printStackTrace();
+        } catch (Exception e) {
+            Toast.makeText(this, "Error: Could not process photo", Toast.LENGTH_SHORT).show();
+            e.printStackTrace();
+        }
+    }
+
+    private void showDuplicatePhotoMessage() {
+        Toast.makeText(this, "This photo already exists in the gallery", Toast.LENGTH_SHORT).show();
     }
 
     private void setupRecyclerView() {
-        binding.galleryRecyclerView.setLayoutManager(new GridLayoutManager(this, 2));
-        galleryAdapter = new GalleryAdapter(photos, this);
+        binding.galleryRecyclerView.setLayoutManager(new GridLayoutManager(this, GRID_SPAN_COUNT));
+        galleryAdapter = photoPager != null
+            ? new GalleryAdapter(photoPager, this)
+            : new GalleryAdapter(photoRepository.getSnapshot(), this);
+        // On a cold start the catalog is still loading; draw what the last session had in front.
+        // The pager shows it as its first page until the store's first page replaces it. A pager
+        // is new with every activity, so only the first one of the process counts as a cold start.
+        boolean preview = photoPager != null
+            ? !startupMeasured
+            : !photoRepository.isLoaded() && photoRepository.getSnapshot().isEmpty();
+        if (preview && photoPager != null) {
+            photoPager.showPreview(firstScreenCache.read());
+        } else if (preview) {
+            galleryAdapter.showPreview(firstScreenCache.read());
+        }
+
+        // Cells are a fixed height and split the screen width, so their size is known before layout
+        int margin = getResources().getDimensionPixelSize(R.dimen.gallery_cell_margin);
+        int cellWidth = getResources().getDisplayMetrics().widthPixels / GRID_SPAN_COUNT - 2 * margin;
+        int cellHeight = getResources().getDimensionPixelSize(R.dimen.gallery_cell_height);
+        galleryAdapter.setThumbnailSize(cellWidth, cellHeight);
+        galleryAdapter.setThumbnailStore(thumbnailStore);
+
+        RequestManager glide = Glide.with(this);
+        binding.galleryRecyclerView.addOnScrollListener(new RecyclerViewPreloader<>(glide,
+            galleryAdapter.preloadModelProvider(glide),
+            new FixedPreloadSizeProvider<>(cellWidth, cellHeight),
+            PRELOAD_AHEAD));
         binding.galleryRecyclerView.setAdapter(galleryAdapter);
+        if (!startupMeasured) {
+            startupMeasured = true;
+            measureStartup(preview);
+        }
+    }
+
+    // Logs the first grid frame and the full catalog, in ms since the process started
+    private void measureStartup(boolean fromPreview) {
+        ViewTreeObserver observer = binding.galleryRecyclerView.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                binding.galleryRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                long firstFrame = sinceProcessStart();
+                FIRST_FRAME_TIME.record(firstFrame);
+                Log.i(TAG, "Cold start: first frame with " + galleryAdapter.getItemCount() + " cells"
+                    + (fromPreview ? " from the first-screen snapshot" : "") + " at " + firstFrame + " ms");
+                return true;
+            }
+        });
+        photoRepository.whenLoaded(() -> {
+            long catalogLoaded = sinceProcessStart();
+            CATALOG_LOADED_TIME.record(catalogLoaded);
+            Log.i(TAG, "Cold start: catalog loaded at " + catalogLoaded + " ms");
+            if (!isDestroyed()) {
+                reportFullyDrawn();
+            }
+        });
+    }
+
+    private static long sinceProcessStart() {
+        return SystemClock.uptimeMillis() - Process.getStartUptimeMillis();
     }
 
     private void setupAddPhotoButton() {
         binding.addPhotoFab.setOnClickListener(v -> checkAndRequestPermission());
     }
 
+    private void setupSearch() {
+        binding.toolbar.inflateMenu(R.menu.menu_main);
+        SearchView searchView = (SearchView) binding.toolbar.getMenu().findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint("Search notes");
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                photoRepository.searchNotes(query, MAX_SEARCH_RESULTS, MainActivity.this::showSearchResults);
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                return false;
+            }
+        });
+    }
+
+    private void setupMetricsMenu() {
+        binding.toolbar.setOnMenuItemClickListener(item -> {
+            if (item.getItemId() == R.id.action_metrics) {
+                startActivity(new Intent(this, MetricsActivity.class));
+                return true;
+            }
+            return false;
+        });
+    }
+
+    // adb shell dumpsys activity com.alp2.photonote/.MainActivity [--reset-metrics]
+    @Override
+    public void dump(@NonNull String prefix, @Nullable FileDescriptor fd, @NonNull PrintWriter writer,
+                     @Nullable String[] args) {
+        super.dump(prefix, fd, writer, args);
+        Metrics.dump(prefix, writer);
+        if (args != null && Arrays.asList(args).contains("--reset-metrics")) {
+            Metrics.reset();
+            writer.println(prefix + "Metrics reset");
+        }
+    }
+
+    private void showSearchResults(String query, List<NoteSearchIndex.Hit> hits) {
+        if (isFinishing()) {
+            return;
+        }
+        if (hits.isEmpty()) {
+            Toast.makeText(this, "No notes match \"" + query + "\"", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] labels = new String[hits.size()];
+        for (int i = 0; i < hits.size(); i++) {
+            NoteSearchIndex.Hit hit = hits.get(i);
+            labels[i] = hit.notePositions.length > 1
+                ? hit.snippet + " (+" + (hit.notePositions.length - 1) + ")"
+                : hit.snippet;
+        }
+        new AlertDialog.Builder(this)
+            .setTitle(query)
+            .setItems(labels, (dialog, which) -> {
+                NoteSearchIndex.Hit hit = hits.get(which);
+                Intent intent = new Intent(this, PhotoDetailActivity.class);
+                intent.putExtra(PhotoDetailActivity.EXTRA_PHOTO_ID, hit.photoId);
+                intent.putExtra(PhotoDetailActivity.EXTRA_MATCHED_NOTES, hit.notePositions);
+                startActivity(intent);
+            })
+            .show();
+    }
+
     private void checkAndRequestPermission() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_MEDIA_IMAGES)
@@ -191,25 +437,22 @@ public class MainActivity extends AppCompatActivity implements GalleryAdapter.On
         Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
         intent.addCategory(Intent.CATEGORY_OPENABLE);
         intent.setType("image/*");
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
         addNoteLauncher.launch(intent);
     }
 
-    @SuppressLint("NotifyDataSetChanged")
     @Override
     public void onPhotoClick(PhotoItem photo) {
         if (photo != null && photo.getPhotoUri() != null) {
+            // The detail screen reads the photo and its notes from the shared repository
             Intent intent = new Intent(this, PhotoDetailActivity.class);
-            intent.putExtra("photo_uri", photo.getPhotoUri().toString());
-            intent.putExtra("PHOTO_POSITION", photos.indexOf(photo));
-            
-            ArrayList<PhotoNote> notes = new ArrayList<>(photo.getNotes() != null ? photo.getNotes() : new ArrayList<>());
-            intent.putParcelableArrayListExtra("notes", notes);
-            
-            photoDetailLauncher.launch(intent);
+            intent.putExtra(PhotoDetailActivity.EXTRA_PHOTO_ID, photo.getId());
+            startActivity(intent);
         } else {
             Toast.makeText(this, "Error loading photo", Toast.LENGTH_SHORT).show();
-            photos.remove(photo);
-            galleryAdapter.notifyDataSetChanged();
+            if (photo != null) {
+                photoRepository.removePhoto(photo.getId());
+            }
         }
     }
 }
\ No newline at end of file
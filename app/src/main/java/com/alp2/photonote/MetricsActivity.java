@@ -0,0 +1,79 @@
+package com.alp2.photonote;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Menu;
+import android.view.MenuItem;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import com.alp2.photonote.databinding.ActivityMetricsBinding;
+import com.alp2.photonote.metrics.Metrics;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Objects;
+
+// The same report as `adb shell dumpsys activity com.alp2.photonote/.MainActivity`, refreshed
+// while the screen is visible
+public class MetricsActivity extends AppCompatActivity {
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    private ActivityMetricsBinding binding;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            showMetrics();
+            mainHandler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        binding = ActivityMetricsBinding.inflate(getLayoutInflater());
+        setContentView(binding.getRoot());
+
+        setSupportActionBar(binding.toolbar);
+        Objects.requireNonNull(getSupportActionBar()).setDisplayHomeAsUpEnabled(true);
+        getSupportActionBar().setTitle("Performance");
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        refresh.run();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mainHandler.removeCallbacks(refresh);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            finish();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_reset_metrics) {
+            Metrics.reset();
+            showMetrics();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void showMetrics() {
+        StringWriter text = new StringWriter();
+        Metrics.dump("", new PrintWriter(text));
+        binding.metricsText.setText(text.toString());
+    }
+}
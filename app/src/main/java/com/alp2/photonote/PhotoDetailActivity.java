@@ -2,31 +2,38 @@ package com.alp2.photonote;
 
 import android.content.Intent;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Bundle;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Toast;
-import androidx.activity.result.ActivityResultLauncher;
-import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import com.alp2.photonote.adapter.NotesAdapter;
 import com.alp2.photonote.databinding.ActivityPhotoDetailBinding;
+import com.alp2.photonote.model.PhotoItem;
 import com.alp2.photonote.model.PhotoNote;
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.RequestOptions;
+import com.alp2.photonote.viewmodel.PhotoViewModel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Objects;
+import java.util.Set;
 
 public class PhotoDetailActivity extends AppCompatActivity implements NotesAdapter.OnNoteClickListener, NotesAdapter.OnNoteDeleteListener {
+    // The only extra; the photo and its notes are read from the shared repository
+    public static final String EXTRA_PHOTO_ID = "PHOTO_ID";
+    // Optional int[] of note positions to ring on the photo, from a note search
+    public static final String EXTRA_MATCHED_NOTES = "MATCHED_NOTES";
     private ActivityPhotoDetailBinding binding;
-    private ArrayList<PhotoNote> notes;
+    private final ArrayList<PhotoNote> notes = new ArrayList<>();
     private NotesAdapter notesAdapter;
     private Uri photoUri;
-    private int position = -1;
-    private ActivityResultLauncher<Intent> addNoteLauncher;
+    private String photoId;
+    private PhotoViewModel viewModel;
+    // Kept by id so the rings follow their notes through later edits
+    private Set<String> matchedNoteIds;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -56,101 +63,74 @@ public class PhotoDetailActivity extends AppCompatActivity implements NotesAdapt
         Objects.requireNonNull(getSupportActionBar()).setDisplayHomeAsUpEnabled(true);
         getSupportActionBar().setTitle("Fotoğraf Detayları");
 
-        setupAddNoteLauncher();
-        getIntentData();
+        photoId = getIntent().getStringExtra(EXTRA_PHOTO_ID);
+        if (photoId == null) {
+            Toast.makeText(this, "Error loading photo", Toast.LENGTH_SHORT).show();
+            finish();
+            return;
+        }
+        viewModel = new ViewModelProvider(this).get(PhotoViewModel.class);
+        viewModel.setPhotoId(photoId);
+
         setupUI();
         setupRecyclerView();
         updateNotesVisibility();
+        // Also brings back the notes added in AddNoteActivity when this screen resumes
+        viewModel.getPhoto().observe(this, this::showPhoto);
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        if (notes != null) {
-            notesAdapter.updateNotes(notes);
-            updateNotesVisibility();
-            
-            binding.markerView.clearMarkers();
-            for (PhotoNote note : notes) {
-                binding.markerView.addMarker(note.getX(), note.getY());
-            }
+    protected void onStop() {
+        super.onStop();
+        viewModel.flushInBackground();
+    }
+
+    private void showPhoto(PhotoItem photo) {
+        if (photo == null || photo.getPhotoUri() == null) {
+            Toast.makeText(this, "Error loading photo", Toast.LENGTH_SHORT).show();
+            finish();
+            return;
+        }
+        if (photoUri == null) {
+            photoUri = photo.getPhotoUri();
+            // Decodes a screen-sized base image, then only the visible tiles when zoomed in
+            binding.photoImageView.setImageUri(photoUri);
         }
+
+        notes.clear();
+        notes.addAll(photo.getNotes());
+        notesAdapter.updateNotes(notes);
+        updateNotesVisibility();
+        binding.markerView.setMarkers(PhotoNote.packPositions(notes), notes.size());
+        showSearchMatches();
     }
 
-    private void setupAddNoteLauncher() {
-        addNoteLauncher = registerForActivityResult(
-            new ActivityResultContracts.StartActivityForResult(),
-            result -> {
-                if (result.getResultCode() == RESULT_OK && result.getData() != null) {
-                    ArrayList<PhotoNote> updatedNotes;
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-                        updatedNotes = result.getData().getParcelableArrayListExtra("notes", PhotoNote.class);
-                    } else {
-                        updatedNotes = result.getData().getParcelableArrayListExtra("notes");
-                    }
-                    
-                    if (updatedNotes != null) {
-                        notes.clear();
-                        notes.addAll(updatedNotes);
-                        notesAdapter.updateNotes(notes);
-                        updateNotesVisibility();
-                        
-                        binding.markerView.clearMarkers();
-                        for (PhotoNote note : notes) {
-                            binding.markerView.addMarker(note.getX(), note.getY());
-                        }
-                        
-                        Intent resultIntent = new Intent();
-                        resultIntent.putExtra("PHOTO_POSITION", position);
-                        resultIntent.putParcelableArrayListExtra("UPDATED_NOTES", new ArrayList<>(notes));
-                        setResult(RESULT_OK, resultIntent);
-                    }
+    private void showSearchMatches() {
+        if (matchedNoteIds == null) {
+            int[] positions = getIntent().getIntArrayExtra(EXTRA_MATCHED_NOTES);
+            if (positions == null) {
+                return;
+            }
+            matchedNoteIds = new HashSet<>();
+            for (int position : positions) {
+                if (position < notes.size()) {
+                    matchedNoteIds.add(notes.get(position).getId());
                 }
             }
-        );
-    }
-
-    private void getIntentData() {
-        String uriString = getIntent().getStringExtra("photo_uri");
-        if (uriString != null) {
-            photoUri = Uri.parse(uriString);
         }
-        
-        position = getIntent().getIntExtra("PHOTO_POSITION", -1);
-        
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            notes = getIntent().getParcelableArrayListExtra("notes", PhotoNote.class);
-        } else {
-            notes = getIntent().getParcelableArrayListExtra("notes");
-        }
-        
-        if (notes == null) {
-            notes = new ArrayList<>();
+        int[] positions = new int[matchedNoteIds.size()];
+        int count = 0;
+        for (int i = 0; i < notes.size(); i++) {
+            if (matchedNoteIds.contains(notes.get(i).getId())) {
+                positions[count++] = i;
+            }
         }
+        binding.markerView.setSearchMatches(Arrays.copyOf(positions, count));
     }
 
     private void setupUI() {
-        if (photoUri != null) {
-            binding.photoImageView.setScaleType(android.widget.ImageView.ScaleType.FIT_CENTER);
-            binding.photoImageView.setAdjustViewBounds(true);
-
-            RequestOptions options = new RequestOptions()
-                .fitCenter()
-                .override(com.bumptech.glide.request.target.Target.SIZE_ORIGINAL)
-                .error(android.R.drawable.ic_menu_gallery);
-
-            Glide.with(this)
-                    .load(photoUri)
-                    .apply(options)
-                    .into(binding.photoImageView);
-
-            for (PhotoNote note : notes) {
-                binding.markerView.addMarker(note.getX(), note.getY());
-            }
-        } else {
-            Toast.makeText(this, "Error loading photo", Toast.LENGTH_SHORT).show();
-            finish();
-        }
+        binding.photoImageView.setOnImageBoundsChangedListener(binding.markerView::setImageBounds);
+        binding.markerView.setOnMarkerClickListener(position -> binding.markerView.highlightMarker(position));
 
         binding.addNoteFab.setOnClickListener(v -> startAddNoteActivity());
         binding.deletePhotoFab.setOnClickListener(v -> deletePhoto());
@@ -174,9 +154,8 @@ public class PhotoDetailActivity extends AppCompatActivity implements NotesAdapt
 
     private void startAddNoteActivity() {
         Intent intent = new Intent(this, AddNoteActivity.class);
-        intent.putExtra("photo_uri", photoUri.toString());
-        intent.putParcelableArrayListExtra("notes", new ArrayList<>(notes));
-        addNoteLauncher.launch(intent);
+        intent.putExtra(AddNoteActivity.EXTRA_PHOTO_ID, photoId);
+        startActivity(intent);
     }
 
     private void deletePhoto() {
@@ -184,49 +163,22 @@ public class PhotoDetailActivity extends AppCompatActivity implements NotesAdapt
         builder.setTitle("Fotoğrafı Sil")
                .setMessage("Bu fotoğrafı silmek istediğinizden emin misiniz?")
                .setPositiveButton("Evet", (dialog, which) -> {
-                   Intent resultIntent = new Intent();
-                   resultIntent.putExtra("DELETE_PHOTO", true);
-                   resultIntent.putExtra("PHOTO_POSITION", position);
-                   setResult(RESULT_OK, resultIntent);
+                   viewModel.deletePhoto();
                    finish();
                })
                .setNegativeButton("Hayır", (dialog, which) -> dialog.dismiss())
                .show();
     }
 
-    @Override
-    public void onBackPressed() {
-        Intent resultIntent = new Intent();
-        resultIntent.putExtra("PHOTO_POSITION", position);
-        resultIntent.putParcelableArrayListExtra("UPDATED_NOTES", new ArrayList<>(notes));
-        setResult(RESULT_OK, resultIntent);
-        finish();
-    }
-
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
-            Intent resultIntent = new Intent();
-            resultIntent.putExtra("PHOTO_POSITION", position);
-            resultIntent.putParcelableArrayListExtra("UPDATED_NOTES", new ArrayList<>(notes));
-            setResult(RESULT_OK, resultIntent);
             finish();
             return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (!isFinishing()) {
-            Intent resultIntent = new Intent();
-            resultIntent.putExtra("PHOTO_POSITION", position);
-            resultIntent.putParcelableArrayListExtra("UPDATED_NOTES", new ArrayList<>(notes));
-            setResult(RESULT_OK, resultIntent);
-        }
-    }
-
     @Override
     public void onNoteClick(PhotoNote note, int position) {
         binding.markerView.highlightMarker(position);
@@ -238,10 +190,6 @@ public class PhotoDetailActivity extends AppCompatActivity implements NotesAdapt
         binding.markerView.removeMarker(position);
         notesAdapter.removeNote(position);
         updateNotesVisibility();
-
-        Intent resultIntent = new Intent();
-        resultIntent.putExtra("PHOTO_POSITION", this.position);
-        resultIntent.putParcelableArrayListExtra("UPDATED_NOTES", new ArrayList<>(notes));
-        setResult(RESULT_OK, resultIntent);
+        viewModel.removeNote(note);
     }
 } 
\ No newline at end of file
@@ -1,7 +1,41 @@
 package com.alp2.photonote
 
+import android.app.ActivityManager
+import android.content.Context
+import com.bumptech.glide.GlideBuilder
 import com.bumptech.glide.annotation.GlideModule
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory
+import com.bumptech.glide.load.engine.cache.LruResourceCache
 import com.bumptech.glide.module.AppGlideModule
 
+// Cache budgets follow the app's heap limit instead of Glide's screen-based defaults, so the
+// grid's small thumbnails can stay resident while scrolling back and forth.
 @GlideModule
-class PhotoNoteGlideModule : AppGlideModule() 
\ No newline at end of file
+class PhotoNoteGlideModule : AppGlideModule() {
+
+    override fun applyOptions(context: Context, builder: GlideBuilder) {
+        val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
+        val heapBytes = activityManager.memoryClass.toLong() * MB
+        val lowRam = activityManager.isLowRamDevice
+
+        builder.setMemoryCache(LruResourceCache(heapBytes / if (lowRam) 12 else 8))
+        builder.setBitmapPool(LruBitmapPool(heapBytes / if (lowRam) 16 else 10))
+        builder.setDiskCache(
+            InternalCacheDiskCacheFactory(
+                context,
+                DISK_CACHE_DIR,
+                if (lowRam) LOW_RAM_DISK_CACHE_BYTES else DISK_CACHE_BYTES
+            )
+        )
+    }
+
+    override fun isManifestParsingEnabled(): Boolean = false
+
+    companion object {
+        private const val MB = 1024L * 1024L
+        private const val DISK_CACHE_DIR = "glide_thumbnails"
+        private const val DISK_CACHE_BYTES = 256 * MB
+        private const val LOW_RAM_DISK_CACHE_BYTES = 64 * MB
+    }
+}
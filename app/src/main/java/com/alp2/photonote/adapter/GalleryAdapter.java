@@ -1,18 +1,135 @@
 package com.alp2.photonote.adapter;
 
+import android.annotation.SuppressLint;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import com.alp2.photonote.databinding.ItemPhotoBinding;
+import com.alp2.photonote.metrics.Counter;
+import com.alp2.photonote.metrics.Histogram;
+import com.alp2.photonote.metrics.Metrics;
 import com.alp2.photonote.model.PhotoItem;
+import com.alp2.photonote.repository.CatalogChange;
+import com.alp2.photonote.repository.CatalogSnapshot;
+import com.alp2.photonote.repository.PhotoPager;
+import com.alp2.photonote.storage.ThumbnailStore;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.RequestListener;
 import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.request.target.Target;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+// Items are keyed by PhotoItem.getId(), with stable ids in list mode. Precise catalog changes are
+// dispatched as they are; a RESET is diffed against the current list on a background thread. A
+// change that only affects the note count is sent as Payload.NOTE_COUNT_CHANGED and rebinds the
+// badge without touching Glide.
+//
+// With a ThumbnailStore the grid only loads the store's local thumbnails. A cell whose thumbnail
+// is not written yet shows a placeholder and asks for it; finished thumbnails are batched into one
+// Payload.THUMBNAIL_READY pass that only reloads cells still waiting.
 public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.PhotoViewHolder> {
-    private final List<PhotoItem> photos;
+    public enum Payload {
+        NOTE_COUNT_CHANGED,
+        THUMBNAIL_READY
+    }
+
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final RequestOptions BASE_THUMBNAIL_OPTIONS = new RequestOptions()
+        .centerCrop()
+        .format(DecodeFormat.PREFER_RGB_565)
+        .error(android.R.drawable.ic_menu_gallery);
+
+    // Bind times cover handing the request to Glide; the decode itself happens off the main thread
+    private static final Histogram BIND_TIME = Metrics.histogram("gallery.bind", "us");
+    private static final Histogram PARTIAL_BIND_TIME = Metrics.histogram("gallery.bind_partial", "us");
+    private static final Counter GLIDE_MEMORY_CACHE = Metrics.counter("gallery.glide.memory_cache");
+    private static final Counter GLIDE_DISK_CACHE = Metrics.counter("gallery.glide.disk_cache");
+    private static final Counter GLIDE_DECODED = Metrics.counter("gallery.glide.decoded");
+    private static final Counter GLIDE_FAILED = Metrics.counter("gallery.glide.failed");
+    // Where each finished thumbnail load was served from. Preloads count too: they are what
+    // makes a later bind a memory hit.
+    private static final RequestListener<Drawable> CACHE_LISTENER = new RequestListener<Drawable>() {
+        @Override
+        public boolean onLoadFailed(@Nullable GlideException e, @Nullable Object model, @NonNull Target<Drawable> target,
+                                    boolean isFirstResource) {
+            GLIDE_FAILED.increment();
+            return false;
+        }
+
+        @Override
+        public boolean onResourceReady(@NonNull Drawable resource, @NonNull Object model, Target<Drawable> target,
+                                       @NonNull DataSource dataSource, boolean isFirstResource) {
+            switch (dataSource) {
+                case MEMORY_CACHE:
+                    GLIDE_MEMORY_CACHE.increment();
+                    break;
+                case RESOURCE_DISK_CACHE:
+                case DATA_DISK_CACHE:
+                    GLIDE_DISK_CACHE.increment();
+                    break;
+                default:
+                    GLIDE_DECODED.increment();
+                    break;
+            }
+            return false;
+        }
+    };
+
+    static {
+        Metrics.ratio("gallery.glide.memory_hit_rate", GLIDE_MEMORY_CACHE, GLIDE_DISK_CACHE, GLIDE_DECODED);
+        // Of the loads that missed memory
+        Metrics.ratio("gallery.glide.disk_hit_rate", GLIDE_DISK_CACHE, GLIDE_DECODED);
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private List<PhotoItem> photos;
+    // Set instead of photos in paged mode
+    private final PhotoPager pager;
     private final OnPhotoClickListener listener;
+    // The snapshot a background diff is working towards; a newer change supersedes it
+    private List<PhotoItem> pendingPhotos;
+    // photos is a first-screen preview until the first catalog change is diffed in
+    private boolean showingPreview;
+    // RecyclerView wants long ids; photos have UUID strings. Entries go when their photo does.
+    private final Map<String, Long> stableIds = new HashMap<>();
+    private long nextStableId;
+    // Cell-sized once setThumbnailSize() is called; the preloader must build identical requests to hit the cache
+    private RequestOptions thumbnailOptions = BASE_THUMBNAIL_OPTIONS;
+    @Nullable
+    private ThumbnailStore thumbnailStore;
+    private boolean thumbnailPassPosted;
+    private final ThumbnailStore.Listener thumbnailListener = uri -> {
+        // Thumbnails finish in bursts while scrolling; one pass over the bound cells covers them all
+        if (!thumbnailPassPosted) {
+            thumbnailPassPosted = true;
+            mainHandler.post(() -> {
+                thumbnailPassPosted = false;
+                notifyItemRangeChanged(0, getItemCount(), Payload.THUMBNAIL_READY);
+            });
+        }
+    };
 
     public interface OnPhotoClickListener {
         void onPhotoClick(PhotoItem photo);
@@ -20,7 +137,256 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.PhotoVie
 
     public GalleryAdapter(List<PhotoItem> photos, OnPhotoClickListener listener) {
         this.photos = photos;
+        this.pager = null;
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    public GalleryAdapter(PhotoPager pager, OnPhotoClickListener listener) {
+        this.pager = pager;
         this.listener = listener;
+        // No stable ids here: while stale pages are reloaded after an edit the same photo can
+        // briefly sit at two positions, and RecyclerView assumes stable ids are unique
+        pager.setListener(new PhotoPager.Listener() {
+            @Override
+            public void onCountChanged(int oldCount, int newCount) {
+                if (newCount > oldCount) {
+                    notifyItemRangeInserted(oldCount, newCount - oldCount);
+                } else {
+                    notifyItemRangeRemoved(newCount, oldCount - newCount);
+                }
+            }
+
+            @Override
+            public void onItemsInserted(int start, int count) {
+                notifyItemRangeInserted(start, count);
+            }
+
+            @Override
+            public void onItemsRemoved(int start, int count) {
+                notifyItemRangeRemoved(start, count);
+            }
+
+            @Override
+            public void onPageLoaded(int start, int count) {
+                notifyItemRangeChanged(start, count);
+            }
+
+            @Override
+            public void onItemChanged(int position, boolean noteCountOnly) {
+                notifyItemChanged(position, noteCountOnly ? Payload.NOTE_COUNT_CHANGED : null);
+            }
+        });
+    }
+
+    // Decodes thumbnails at exactly the cell size instead of whatever the first layout pass measures
+    public void setThumbnailSize(int width, int height) {
+        thumbnailOptions = BASE_THUMBNAIL_OPTIONS.override(width, height);
+    }
+
+    // List mode only. The preview holds the catalog's first photos under their real ids, so
+    // diffing the catalog in leaves everything on screen where it is. It replaces an empty list
+    // before the first layout, so the full refresh has nothing on screen to rebind.
+    @SuppressLint("NotifyDataSetChanged")
+    public void showPreview(List<PhotoItem> preview) {
+        photos = preview;
+        showingPreview = true;
+        notifyDataSetChanged();
+    }
+
+    // Call before the adapter is attached
+    public void setThumbnailStore(@Nullable ThumbnailStore thumbnailStore) {
+        this.thumbnailStore = thumbnailStore;
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        if (thumbnailStore != null) {
+            thumbnailStore.addListener(thumbnailListener);
+        }
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        if (thumbnailStore != null) {
+            thumbnailStore.removeListener(thumbnailListener);
+        }
+    }
+
+    // Null while the photo's thumbnail is still being made; generation has been requested then
+    @Nullable
+    public RequestBuilder<Drawable> thumbnailRequest(RequestManager glide, PhotoItem photo) {
+        Uri uri = photo.getPhotoUri();
+        if (thumbnailStore == null || thumbnailStore.hasFailed(uri)) {
+            return glide.load(uri).apply(thumbnailOptions).listener(CACHE_LISTENER);
+        }
+        File thumbnail = thumbnailStore.get(uri);
+        if (thumbnail == null) {
+            thumbnailStore.request(uri);
+            return null;
+        }
+        // A damaged or deleted file shows the source instead and is made again on the next bind
+        return glide.load(thumbnail).apply(thumbnailOptions).listener(CACHE_LISTENER)
+            .addListener(discardOnFailure(thumbnailStore, uri))
+            .error(glide.load(uri).apply(thumbnailOptions).listener(CACHE_LISTENER));
+    }
+
+    private static RequestListener<Drawable> discardOnFailure(ThumbnailStore store, Uri uri) {
+        return new RequestListener<Drawable>() {
+            @Override
+            public boolean onLoadFailed(@Nullable GlideException e, @Nullable Object model, @NonNull Target<Drawable> target,
+                                        boolean isFirstResource) {
+                store.discard(uri);
+                return false;
+            }
+
+            @Override
+            public boolean onResourceReady(@NonNull Drawable resource, @NonNull Object model, Target<Drawable> target,
+                                           @NonNull DataSource dataSource, boolean isFirstResource) {
+                return false;
+            }
+        };
+    }
+
+    // For RecyclerViewPreloader. In paged mode asking for a position ahead also starts loading its page.
+    public ListPreloader.PreloadModelProvider<PhotoItem> preloadModelProvider(RequestManager glide) {
+        return new ListPreloader.PreloadModelProvider<PhotoItem>() {
+            @NonNull
+            @Override
+            public List<PhotoItem> getPreloadItems(int position) {
+                if (position >= getItemCount()) {
+                    return Collections.emptyList();
+                }
+                PhotoItem photo = getItem(position);
+                if (photo == null || photo.getPhotoUri() == null) {
+                    return Collections.emptyList();
+                }
+                // Only what is on disk is preloaded; for the rest this starts generation
+                if (thumbnailStore != null && !thumbnailStore.hasFailed(photo.getPhotoUri())
+                        && thumbnailStore.get(photo.getPhotoUri()) == null) {
+                    thumbnailStore.request(photo.getPhotoUri());
+                    return Collections.emptyList();
+                }
+                return Collections.singletonList(photo);
+            }
+
+            @Nullable
+            @Override
+            public RequestBuilder<?> getPreloadRequestBuilder(@NonNull PhotoItem photo) {
+                return thumbnailRequest(glide, photo);
+            }
+        };
+    }
+
+    public void applyChange(CatalogSnapshot photos, CatalogChange change) {
+        // The shared repository can still be delivering changes that the snapshot this adapter
+        // was created with already contains
+        List<PhotoItem> latest = pendingPhotos != null ? pendingPhotos : this.photos;
+        if (latest instanceof CatalogSnapshot && ((CatalogSnapshot) latest).getVersion() >= photos.getVersion()) {
+            return;
+        }
+        // While a diff is pending the adapter is behind the change's base, so only a diff can catch up
+        if (showingPreview || pendingPhotos != null || change.type == CatalogChange.Type.RESET) {
+            diffTo(photos);
+            return;
+        }
+        List<PhotoItem> previous = this.photos;
+        this.photos = photos;
+        switch (change.type) {
+            case INSERTED:
+                notifyItemRangeInserted(change.position, change.count);
+                break;
+            case REMOVED:
+                stableIds.remove(previous.get(change.position).getId());
+                notifyItemRemoved(change.position);
+                break;
+            case CHANGED:
+                notifyItemChanged(change.position,
+                    changePayload(previous.get(change.position), photos.get(change.position)));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void diffTo(List<PhotoItem> target) {
+        pendingPhotos = target;
+        List<PhotoItem> base = photos;
+        DIFF_EXECUTOR.execute(() -> {
+            DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new PhotosDiff(base, target));
+            Set<String> removedIds = removedIds(base, target);
+            mainHandler.post(() -> {
+                if (pendingPhotos != target) {
+                    return;
+                }
+                pendingPhotos = null;
+                showingPreview = false;
+                photos = target;
+                stableIds.keySet().removeAll(removedIds);
+                diffResult.dispatchUpdatesTo(this);
+            });
+        });
+    }
+
+    private static Set<String> removedIds(List<PhotoItem> before, List<PhotoItem> after) {
+        Set<String> removed = new HashSet<>(before.size());
+        for (PhotoItem photo : before) {
+            removed.add(photo.getId());
+        }
+        for (PhotoItem photo : after) {
+            removed.remove(photo.getId());
+        }
+        return removed;
+    }
+
+    // Null means a full rebind
+    @Nullable
+    private static Payload changePayload(PhotoItem before, PhotoItem after) {
+        if (before.getId().equals(after.getId())
+                && Objects.equals(before.getPhotoUri(), after.getPhotoUri())
+                && before.getNoteCount() != after.getNoteCount()) {
+            return Payload.NOTE_COUNT_CHANGED;
+        }
+        return null;
+    }
+
+    private static final class PhotosDiff extends DiffUtil.Callback {
+        private final List<PhotoItem> oldPhotos;
+        private final List<PhotoItem> newPhotos;
+
+        PhotosDiff(List<PhotoItem> oldPhotos, List<PhotoItem> newPhotos) {
+            this.oldPhotos = oldPhotos;
+            this.newPhotos = newPhotos;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldPhotos.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newPhotos.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldPhotos.get(oldItemPosition).getId().equals(newPhotos.get(newItemPosition).getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            PhotoItem oldPhoto = oldPhotos.get(oldItemPosition);
+            PhotoItem newPhoto = newPhotos.get(newItemPosition);
+            return Objects.equals(oldPhoto.getPhotoUri(), newPhoto.getPhotoUri())
+                && oldPhoto.getNoteCount() == newPhoto.getNoteCount();
+        }
+
+        @Nullable
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            return changePayload(oldPhotos.get(oldItemPosition), newPhotos.get(newItemPosition));
+        }
     }
 
     @NonNull
@@ -28,42 +394,107 @@ public class GalleryAdapter extends RecyclerView.Adapter<GalleryAdapter.PhotoVie
     public PhotoViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         ItemPhotoBinding binding = ItemPhotoBinding.inflate(
             LayoutInflater.from(parent.getContext()), parent, false);
-        return new PhotoViewHolder(binding);
+        PhotoViewHolder holder = new PhotoViewHolder(binding);
+        // Resolved at click time: a badge-only rebind does not replace the item the holder was bound with
+        holder.itemView.setOnClickListener(v -> {
+            int position = holder.getAdapterPosition();
+            if (listener != null && position != RecyclerView.NO_POSITION) {
+                PhotoItem photo = getItem(position);
+                if (photo != null) {
+                    listener.onPhotoClick(photo);
+                }
+            }
+        });
+        return holder;
     }
 
     @Override
-    public void onBindViewHolder(@NonNull PhotoViewHolder holder, int position) {
-        PhotoItem photo = photos.get(position);
-        
-        RequestOptions options = new RequestOptions()
-            .centerCrop()
-            .error(android.R.drawable.ic_menu_gallery);
+    public void onBindViewHolder(@NonNull PhotoViewHolder holder, int position, @NonNull List<Object> payloads) {
+        long start = System.nanoTime();
+        if (!payloads.isEmpty() && onlyPartialChanges(payloads)) {
+            PhotoItem photo = getItem(position);
+            if (photo != null) {
+                if (payloads.contains(Payload.NOTE_COUNT_CHANGED)) {
+                    holder.binding.noteCount.setText(String.valueOf(photo.getNoteCount()));
+                }
+                if (holder.awaitingThumbnail && payloads.contains(Payload.THUMBNAIL_READY)) {
+                    bindThumbnail(holder, photo);
+                }
+                PARTIAL_BIND_TIME.recordSince(start);
+                return;
+            }
+        }
+        onBindViewHolder(holder, position);
+        BIND_TIME.recordSince(start);
+    }
 
-        Glide.with(holder.itemView.getContext())
-                .load(photo.getPhotoUri())
-                .apply(options)
-                .into(holder.binding.imageView);
+    @Override
+    public void onBindViewHolder(@NonNull PhotoViewHolder holder, int position) {
+        PhotoItem photo = getItem(position);
+        if (photo == null) {
+            // Placeholder until the pager delivers this position's page
+            Glide.with(holder.itemView.getContext()).clear(holder.binding.imageView);
+            holder.binding.noteCount.setText("");
+            holder.awaitingThumbnail = false;
+            return;
+        }
 
+        bindThumbnail(holder, photo);
         holder.binding.noteCount.setText(String.valueOf(photo.getNoteCount()));
-        
-        holder.itemView.setOnClickListener(v -> {
-            if (listener != null) {
-                listener.onPhotoClick(photo);
+    }
+
+    private void bindThumbnail(PhotoViewHolder holder, PhotoItem photo) {
+        RequestManager glide = Glide.with(holder.itemView.getContext());
+        RequestBuilder<Drawable> request = thumbnailRequest(glide, photo);
+        holder.awaitingThumbnail = request == null;
+        if (request != null) {
+            request.into(holder.binding.imageView);
+        } else {
+            glide.clear(holder.binding.imageView);
+        }
+    }
+
+    private static boolean onlyPartialChanges(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != Payload.NOTE_COUNT_CHANGED && payload != Payload.THUMBNAIL_READY) {
+                return false;
             }
-        });
+        }
+        return true;
+    }
+
+    @Nullable
+    private PhotoItem getItem(int position) {
+        return pager != null ? pager.get(position) : photos.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        if (pager != null) {
+            return RecyclerView.NO_ID;
+        }
+        String id = photos.get(position).getId();
+        Long stableId = stableIds.get(id);
+        if (stableId == null) {
+            stableId = nextStableId++;
+            stableIds.put(id, stableId);
+        }
+        return stableId;
     }
 
     @Override
     public int getItemCount() {
-        return photos.size();
+        return pager != null ? pager.getCount() : photos.size();
     }
 
     public static class PhotoViewHolder extends RecyclerView.ViewHolder {
         final ItemPhotoBinding binding;
+        // Showing a placeholder until the thumbnail store finishes this photo
+        boolean awaitingThumbnail;
 
         PhotoViewHolder(ItemPhotoBinding binding) {
             super(binding.getRoot());
             this.binding = binding;
         }
     }
-} 
\ No newline at end of file
+}
@@ -1,19 +1,63 @@
 package com.alp2.photonote.adapter;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 import androidx.annotation.NonNull;
-import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import com.alp2.photonote.databinding.ItemNoteBinding;
+import com.alp2.photonote.metrics.Histogram;
+import com.alp2.photonote.metrics.Metrics;
+import com.alp2.photonote.model.NoteListDiff;
 import com.alp2.photonote.model.PhotoNote;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+// Items are keyed by PhotoNote.getId(). updateNotes() diffs with NoteListDiff on a background
+// thread; a result is only applied if nothing changed the list while it was being computed.
 public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHolder> {
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final Histogram BIND_TIME = Metrics.histogram("notes.bind", "us");
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private List<PhotoNote> notes;
+    // Bumped by every change to notes; a diff computed against an older version is recomputed
+    private int listVersion;
+    // The list the last updateNotes() asked for, until it is applied; a newer call supersedes it
+    private List<PhotoNote> pendingNotes;
+    // RecyclerView wants long ids; notes have UUID strings. Only notes in the list keep an entry.
+    private final Map<String, Long> stableIds = new HashMap<>();
+    private long nextStableId;
     private final OnNoteClickListener clickListener;
     private final OnNoteDeleteListener deleteListener;
+    private final NoteListDiff.Callback updateCallback = new NoteListDiff.Callback() {
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            notifyItemRangeChanged(position, count);
+        }
+    };
 
     public interface OnNoteClickListener {
         void onNoteClick(PhotoNote note, int position);
@@ -27,49 +71,65 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
         this.notes = new ArrayList<>(notes);
         this.clickListener = clickListener;
         this.deleteListener = deleteListener;
+        setHasStableIds(true);
     }
 
     public void updateNotes(List<PhotoNote> newNotes) {
-        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
-            @Override
-            public int getOldListSize() {
-                return notes.size();
-            }
-
-            @Override
-            public int getNewListSize() {
-                return newNotes.size();
-            }
-
-            @Override
-            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                return notes.get(oldItemPosition).getText().equals(newNotes.get(newItemPosition).getText());
-            }
+        List<PhotoNote> target = new ArrayList<>(newNotes);
+        pendingNotes = target;
+        if (notes.isEmpty() || target.isEmpty()) {
+            // Nothing to match up; skip the round trip
+            int oldSize = notes.size();
+            applyNotes(target);
+            notifyItemRangeRemoved(0, oldSize);
+            notifyItemRangeInserted(0, target.size());
+            return;
+        }
+        diffAgainstCurrent(target);
+    }
 
-            @Override
-            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-                PhotoNote oldNote = notes.get(oldItemPosition);
-                PhotoNote newNote = newNotes.get(newItemPosition);
-                return oldNote.getText().equals(newNote.getText()) &&
-                       oldNote.getX() == newNote.getX() &&
-                       oldNote.getY() == newNote.getY();
-            }
+    private void diffAgainstCurrent(List<PhotoNote> target) {
+        List<PhotoNote> base = new ArrayList<>(notes);
+        int version = listVersion;
+        DIFF_EXECUTOR.execute(() -> {
+            NoteListDiff diff = NoteListDiff.calculate(base, target);
+            mainHandler.post(() -> {
+                if (pendingNotes != target) {
+                    return;
+                }
+                if (version != listVersion) {
+                    diffAgainstCurrent(target);
+                    return;
+                }
+                applyNotes(target);
+                diff.dispatchUpdatesTo(updateCallback);
+            });
         });
-        
-        notes = new ArrayList<>(newNotes);
-        diffResult.dispatchUpdatesTo(this);
+    }
+
+    private void applyNotes(List<PhotoNote> target) {
+        pendingNotes = null;
+        notes = target;
+        listVersion++;
+        Set<String> ids = new HashSet<>(target.size() * 2);
+        for (PhotoNote note : target) {
+            ids.add(note.getId());
+        }
+        stableIds.keySet().retainAll(ids);
     }
 
     public void removeNote(int position) {
         if (position >= 0 && position < notes.size()) {
-            notes.remove(position);
+            stableIds.remove(notes.remove(position).getId());
+            listVersion++;
+            // Holders read their position at click time, so the rows below need no rebind
             notifyItemRemoved(position);
-            notifyItemRangeChanged(position, notes.size());
         }
     }
 
     public void addNote(PhotoNote note) {
         notes.add(note);
+        listVersion++;
         notifyItemInserted(notes.size() - 1);
     }
 
@@ -83,6 +143,7 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
 
     @Override
     public void onBindViewHolder(@NonNull NoteViewHolder holder, int position) {
+        long start = System.nanoTime();
         PhotoNote note = notes.get(position);
         holder.binding.noteText.setText(note.getText());
         
@@ -104,6 +165,18 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
                 clickListener.onNoteClick(note, holder.getAdapterPosition());
             }
         });
+        BIND_TIME.recordSince(start);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        String id = notes.get(position).getId();
+        Long stableId = stableIds.get(id);
+        if (stableId == null) {
+            stableId = nextStableId++;
+            stableIds.put(id, stableId);
+        }
+        return stableId;
     }
 
     @Override
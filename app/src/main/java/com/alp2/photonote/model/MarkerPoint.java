@@ -1,11 +0,0 @@
-package com.alp2.photonote.model;
-
-public class MarkerPoint {
-    public float x;
-    public float y;
-
-    public MarkerPoint(float x, float y) {
-        this.x = x;
-        this.y = y;
-    }
-} 
\ No newline at end of file
@@ -1,48 +1,126 @@
 package com.alp2.photonote.model;
 
 import android.net.Uri;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
-public class PhotoItem {
+public class PhotoItem implements CatalogEntry {
+    private String id;
     private Uri photoUri;
     private List<PhotoNote> notes;
+    // Not serialized: set by streaming loaders so notes are only parsed when first requested.
+    // Items are shared with background readers, so the lazy state is guarded by the item's lock.
+    private transient NotesLoader notesLoader;
+    private transient int deferredNoteCount;
+
+    public interface NotesLoader {
+        List<PhotoNote> loadNotes();
+    }
 
     public PhotoItem(Uri photoUri) {
+        this(UUID.randomUUID().toString(), photoUri);
+    }
+
+    public PhotoItem(String id, Uri photoUri) {
+        this.id = id;
         this.photoUri = photoUri;
         this.notes = new ArrayList<>();
     }
 
+    @Override
+    public synchronized String getId() {
+        // Kayıtlı eski JSON verisinde id alanı yok
+        if (id == null) {
+            id = legacyId(photoUri);
+        }
+        return id;
+    }
+
+    // Id for a stored photo that predates ids. Derived from the URI, so every read of the same
+    // legacy data gives a photo the same id.
+    public static String legacyId(Uri photoUri) {
+        if (photoUri == null) {
+            return UUID.randomUUID().toString();
+        }
+        return UUID.nameUUIDFromBytes(photoUri.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    // Detached copy for background writers: the notes list is copied, deferred notes stay deferred
+    public synchronized PhotoItem copy() {
+        PhotoItem copy = new PhotoItem(getId(), getPhotoUri());
+        if (notesLoader != null) {
+            copy.setDeferredNotes(deferredNoteCount, notesLoader);
+        } else {
+            copy.setNotes(new ArrayList<>(getNotes()));
+        }
+        return copy;
+    }
+
     public Uri getPhotoUri() {
         return photoUri;
     }
 
+    @Override
+    public String getUriString() {
+        Uri uri = getPhotoUri();
+        return uri != null ? uri.toString() : null;
+    }
+
     public void setPhotoUri(Uri photoUri) {
         this.photoUri = photoUri;
     }
 
-    public List<PhotoNote> getNotes() {
+    @Override
+    public synchronized List<PhotoNote> getNotes() {
+        materializeNotes();
         return notes != null ? notes : new ArrayList<>();
     }
 
-    public void setNotes(List<PhotoNote> notes) {
+    public synchronized void setNotes(List<PhotoNote> notes) {
+        this.notesLoader = null;
         this.notes = notes != null ? notes : new ArrayList<>();
     }
 
-    public void addNote(PhotoNote note) {
+    public synchronized void setDeferredNotes(int noteCount, NotesLoader loader) {
+        this.notes = null;
+        this.deferredNoteCount = noteCount;
+        this.notesLoader = loader;
+    }
+
+    public synchronized boolean hasDeferredNotes() {
+        return notesLoader != null;
+    }
+
+    private synchronized void materializeNotes() {
+        if (notesLoader != null) {
+            NotesLoader loader = notesLoader;
+            notesLoader = null;
+            List<PhotoNote> loaded = loader.loadNotes();
+            notes = loaded != null ? new ArrayList<>(loaded) : new ArrayList<>();
+        }
+    }
+
+    public synchronized void addNote(PhotoNote note) {
+        materializeNotes();
         if (notes == null) {
             notes = new ArrayList<>();
         }
         notes.add(note);
     }
 
-    public void removeNote(int position) {
+    public synchronized void removeNote(int position) {
+        materializeNotes();
         if (notes != null && position >= 0 && position < notes.size()) {
             notes.remove(position);
         }
     }
 
-    public int getNoteCount() {
+    public synchronized int getNoteCount() {
+        if (notesLoader != null) {
+            return deferredNoteCount;
+        }
         return notes != null ? notes.size() : 0;
     }
 } 
\ No newline at end of file
@@ -0,0 +1,37 @@
+package com.alp2.photonote.repository;
+
+// Describes how one published snapshot differs from the previous one, in adapter positions
+public final class CatalogChange {
+    public enum Type {
+        INSERTED,
+        REMOVED,
+        CHANGED,
+        RESET
+    }
+
+    public final Type type;
+    public final int position;
+    public final int count;
+
+    private CatalogChange(Type type, int position, int count) {
+        this.type = type;
+        this.position = position;
+        this.count = count;
+    }
+
+    public static CatalogChange inserted(int position, int count) {
+        return new CatalogChange(Type.INSERTED, position, count);
+    }
+
+    public static CatalogChange removed(int position) {
+        return new CatalogChange(Type.REMOVED, position, 1);
+    }
+
+    public static CatalogChange changed(int position) {
+        return new CatalogChange(Type.CHANGED, position, 1);
+    }
+
+    public static CatalogChange reset() {
+        return new CatalogChange(Type.RESET, 0, 0);
+    }
+}
@@ -0,0 +1,157 @@
+package com.alp2.photonote.repository;
+
+import com.alp2.photonote.model.PhotoItem;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Immutable view of the catalog at one version. A new snapshot copies the reference array but
+// shares every PhotoItem it did not change, and items inside a published snapshot are never
+// mutated, so readers need no locking.
+//
+// indexOfId() looks ids up in an IdIndex built on first use. Each snapshot derived from the one
+// holding it takes it over and updates it in place, so a note edit does not scan the catalog.
+public final class CatalogSnapshot extends AbstractList<PhotoItem> implements RandomAccess {
+    static final CatalogSnapshot EMPTY = new CatalogSnapshot(new PhotoItem[0], 0, null);
+
+    // Photo id -> position in the snapshot whose version it carries. Older snapshots may still
+    // reach it; they check what it says against their own array and otherwise scan.
+    private static final class IdIndex {
+        final Map<String, Integer> positions;
+        // -1 while a derivation is updating positions
+        volatile long version;
+
+        IdIndex(Map<String, Integer> positions, long version) {
+            this.positions = positions;
+            this.version = version;
+        }
+    }
+
+    private final PhotoItem[] items;
+    private final long version;
+    private volatile IdIndex ids;
+
+    private CatalogSnapshot(PhotoItem[] items, long version, IdIndex ids) {
+        this.items = items;
+        this.version = version;
+        this.ids = ids;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public PhotoItem get(int index) {
+        return items[index];
+    }
+
+    @Override
+    public int size() {
+        return items.length;
+    }
+
+    public int indexOfId(String photoId) {
+        IdIndex index = ids;
+        if (index == null) {
+            index = buildIndex();
+        }
+        if (index.version == version) {
+            Integer position = index.positions.get(photoId);
+            if (position != null && position < items.length && items[position].getId().equals(photoId)) {
+                return position;
+            }
+            // Absent only counts if no derivation started changing the map during the lookup
+            if (position == null && index.version == version) {
+                return -1;
+            }
+        }
+        return scan(photoId);
+    }
+
+    private int scan(String photoId) {
+        for (int i = 0; i < items.length; i++) {
+            if (items[i].getId().equals(photoId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private IdIndex buildIndex() {
+        Map<String, Integer> positions = new ConcurrentHashMap<>(Math.max(16, items.length * 2));
+        for (int i = 0; i < items.length; i++) {
+            positions.putIfAbsent(items[i].getId(), i);
+        }
+        IdIndex index = new IdIndex(positions, version);
+        ids = index;
+        return index;
+    }
+
+    // The writer's next snapshot takes the index over only from the snapshot it is current for;
+    // the caller updates it and then stamps it with the new version
+    private IdIndex takeIndex() {
+        IdIndex index = ids;
+        if (index == null || index.version != version) {
+            return null;
+        }
+        index.version = -1;
+        return index;
+    }
+
+    CatalogSnapshot withInserted(int position, List<PhotoItem> added) {
+        PhotoItem[] next = new PhotoItem[items.length + added.size()];
+        System.arraycopy(items, 0, next, 0, position);
+        for (int i = 0; i < added.size(); i++) {
+            next[position + i] = added.get(i);
+        }
+        System.arraycopy(items, position, next, position + added.size(), items.length - position);
+
+        IdIndex index = takeIndex();
+        if (index != null) {
+            // Appending, the common case, moves nothing
+            for (int i = items.length - 1; i >= position; i--) {
+                index.positions.replace(items[i].getId(), i, i + added.size());
+            }
+            for (int i = 0; i < added.size(); i++) {
+                index.positions.putIfAbsent(added.get(i).getId(), position + i);
+            }
+            index.version = version + 1;
+        }
+        return new CatalogSnapshot(next, version + 1, index);
+    }
+
+    CatalogSnapshot withRemoved(int position) {
+        PhotoItem[] next = new PhotoItem[items.length - 1];
+        System.arraycopy(items, 0, next, 0, position);
+        System.arraycopy(items, position + 1, next, position, items.length - position - 1);
+
+        IdIndex index = takeIndex();
+        if (index != null) {
+            index.positions.remove(items[position].getId(), position);
+            for (int i = position + 1; i < items.length; i++) {
+                index.positions.replace(items[i].getId(), i, i - 1);
+            }
+            index.version = version + 1;
+        }
+        return new CatalogSnapshot(next, version + 1, index);
+    }
+
+    CatalogSnapshot withReplaced(int position, PhotoItem item) {
+        PhotoItem[] next = items.clone();
+        next[position] = item;
+
+        IdIndex index = takeIndex();
+        if (index != null) {
+            String oldId = items[position].getId();
+            if (!oldId.equals(item.getId())) {
+                index.positions.remove(oldId, position);
+                index.positions.putIfAbsent(item.getId(), position);
+            }
+            index.version = version + 1;
+        }
+        return new CatalogSnapshot(next, version + 1, index);
+    }
+}
@@ -0,0 +1,170 @@
+package com.alp2.photonote.repository;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import com.alp2.photonote.model.PhotoItem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Catches byte-identical images that arrive under unrelated URIs. Digests are computed on one
+// background thread and cached per photo id, so an existing photo is hashed at most once. The
+// catalog is read page by page through a PhotoSource, so it works with the paged Room store, and
+// warmUp() hashes the library ahead of the first import instead of during it. Later checks only
+// read the catalog past the part already indexed.
+public class ContentHashIndex {
+    private static final String PREFS_NAME = "PhotoContentHashes";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PAGE_SIZE = 200;
+
+    // The stored catalog in gallery order; called on the hasher thread
+    public interface PhotoSource {
+        List<PhotoItem> page(int offset, int limit);
+    }
+
+    public interface Callback {
+        // Called on the main thread; duplicateOf is null when the image is new
+        void onChecked(String contentHash, String duplicateOf);
+    }
+
+    private final ContentResolver resolver;
+    private final SharedPreferences cache;
+    private final ExecutorService hasher = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Hasher thread only
+    private final Map<String, String> photoIdsByHash = new HashMap<>();
+    private final Set<String> indexedPhotoIds = new HashSet<>();
+    // Catalog positions before this have been indexed. Photos added since then come after it;
+    // each removal moves it back one, which at worst re-reads a photo that is already indexed.
+    private int indexedCount;
+
+    public ContentHashIndex(Context context) {
+        resolver = context.getContentResolver();
+        cache = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    // Hashes whatever part of the catalog is not indexed yet. Call once the catalog is loaded: the
+    // whole catalog is walked again, since photos loaded late may have landed before the mark.
+    public void warmUp(PhotoSource catalog) {
+        hasher.execute(() -> {
+            indexedCount = 0;
+            indexCatalog(catalog);
+        });
+    }
+
+    // A new image's hash is reserved for photoId right away, so a second copy in the same import
+    // is caught even before the first is added. Follow with remember() once the photo is added,
+    // or release() if it is not.
+    public void check(Uri uri, String photoId, PhotoSource catalog, Callback callback) {
+        hasher.execute(() -> {
+            indexCatalog(catalog);
+            String hash = digest(uri);
+            String duplicateOf = hash != null ? photoIdsByHash.putIfAbsent(hash, photoId) : null;
+            mainHandler.post(() -> callback.onChecked(hash, duplicateOf));
+        });
+    }
+
+    public void release(String photoId, String contentHash) {
+        if (contentHash == null) {
+            return;
+        }
+        hasher.execute(() -> photoIdsByHash.remove(contentHash, photoId));
+    }
+
+    public void remember(String photoId, String contentHash) {
+        if (contentHash == null) {
+            return;
+        }
+        hasher.execute(() -> {
+            cache.edit().putString(photoId, contentHash).apply();
+            photoIdsByHash.put(contentHash, photoId);
+            indexedPhotoIds.add(photoId);
+        });
+    }
+
+    public void forget(String photoId) {
+        hasher.execute(() -> {
+            String hash = cache.getString(photoId, null);
+            if (hash != null && photoId.equals(photoIdsByHash.get(hash))) {
+                photoIdsByHash.remove(hash);
+            }
+            indexedPhotoIds.remove(photoId);
+            indexedCount = Math.max(0, indexedCount - 1);
+            cache.edit().remove(photoId).apply();
+        });
+    }
+
+    private void indexCatalog(PhotoSource catalog) {
+        for (int offset = indexedCount; ; offset += PAGE_SIZE) {
+            List<PhotoItem> page = catalog.page(offset, PAGE_SIZE);
+            indexPage(page);
+            indexedCount = offset + page.size();
+            if (page.size() < PAGE_SIZE) {
+                return;
+            }
+        }
+    }
+
+    private void indexPage(List<PhotoItem> page) {
+        SharedPreferences.Editor editor = null;
+        for (PhotoItem photo : page) {
+            String photoId = photo.getId();
+            if (indexedPhotoIds.contains(photoId) || photo.getPhotoUri() == null) {
+                continue;
+            }
+
+            String hash = cache.getString(photoId, null);
+            if (hash == null) {
+                hash = digest(photo.getPhotoUri());
+                if (hash == null) {
+                    continue;
+                }
+                if (editor == null) {
+                    editor = cache.edit();
+                }
+                editor.putString(photoId, hash);
+            }
+            photoIdsByHash.putIfAbsent(hash, photoId);
+            indexedPhotoIds.add(photoId);
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+
+    private String digest(Uri uri) {
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in == null) {
+                return null;
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (IOException | SecurityException | NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
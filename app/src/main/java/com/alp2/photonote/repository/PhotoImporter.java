@@ -0,0 +1,96 @@
+package com.alp2.photonote.repository;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.OpenableColumns;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Prepares picked images for a bulk import. Each URI gets its persistable read grant and a
+// metadata probe (is it there, is it an image) on a small pool, since both are provider round
+// trips. The caller gets the usable URIs back in selection order and adds them in one batch.
+public class PhotoImporter {
+    private static final int THREADS = 4;
+
+    public interface Callback {
+        // Coalesced: several completions can arrive as one call
+        void onProgress(int done, int total);
+
+        // accepted keeps the selection order; rejected could not be granted or read
+        void onFinished(List<Uri> accepted, int rejected);
+    }
+
+    private final ContentResolver resolver;
+    private final ThreadPoolExecutor pool;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public PhotoImporter(Context context) {
+        resolver = context.getContentResolver();
+        pool = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    // Called from and answered on the main thread
+    public void prepare(List<Uri> uris, Callback callback) {
+        int total = uris.size();
+        boolean[] usable = new boolean[total];
+        AtomicInteger done = new AtomicInteger();
+        AtomicBoolean progressPosted = new AtomicBoolean();
+        for (int i = 0; i < total; i++) {
+            int index = i;
+            pool.execute(() -> {
+                usable[index] = grantAndProbe(uris.get(index));
+                if (done.incrementAndGet() == total) {
+                    // The counter's update orders every usable[] write before this read
+                    List<Uri> accepted = new ArrayList<>(total);
+                    for (int j = 0; j < total; j++) {
+                        if (usable[j]) {
+                            accepted.add(uris.get(j));
+                        }
+                    }
+                    mainHandler.post(() -> callback.onFinished(accepted, total - accepted.size()));
+                } else if (progressPosted.compareAndSet(false, true)) {
+                    mainHandler.post(() -> {
+                        progressPosted.set(false);
+                        callback.onProgress(done.get(), total);
+                    });
+                }
+            });
+        }
+        if (total == 0) {
+            callback.onFinished(new ArrayList<>(), 0);
+        }
+    }
+
+    public void close() {
+        pool.shutdown();
+    }
+
+    private boolean grantAndProbe(Uri uri) {
+        try {
+            resolver.takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            // Without a persistable grant the photo would be gone after a restart
+            return false;
+        }
+        String type = resolver.getType(uri);
+        if (type != null && !type.startsWith("image/")) {
+            return false;
+        }
+        try (Cursor cursor = resolver.query(uri, new String[] { OpenableColumns.SIZE }, null, null, null)) {
+            return cursor != null && cursor.moveToFirst();
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
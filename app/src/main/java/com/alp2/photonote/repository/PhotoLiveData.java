@@ -0,0 +1,45 @@
+package com.alp2.photonote.repository;
+
+import androidx.lifecycle.LiveData;
+import com.alp2.photonote.model.PhotoItem;
+
+// One photo, re-read through PhotoRepository.loadPhoto() after every catalog change while observed.
+// Snapshot items never change, so getting the same item back means the change was to another
+// photo and nothing is emitted.
+final class PhotoLiveData extends LiveData<PhotoItem> implements PhotoRepository.Listener {
+    private final PhotoRepository repository;
+    private final String photoId;
+    // Bumped per read; an older read finishing late is dropped
+    private int generation;
+
+    PhotoLiveData(PhotoRepository repository, String photoId) {
+        this.repository = repository;
+        this.photoId = photoId;
+    }
+
+    @Override
+    protected void onActive() {
+        repository.addListener(this);
+        reload();
+    }
+
+    @Override
+    protected void onInactive() {
+        repository.removeListener(this);
+    }
+
+    @Override
+    public void onCatalogChanged(CatalogSnapshot snapshot, CatalogChange change) {
+        reload();
+    }
+
+    private void reload() {
+        int requested = ++generation;
+        repository.loadPhoto(photoId, photo -> {
+            if (requested != generation || (photo != null && photo == getValue())) {
+                return;
+            }
+            setValue(photo);
+        });
+    }
+}
@@ -0,0 +1,359 @@
+package com.alp2.photonote.repository;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.alp2.photonote.model.PhotoItem;
+import com.alp2.photonote.storage.PhotoStorage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+// Windowed view of the catalog for stores that support paging. Pages of photo summaries (URI and
+// note count, notes deferred) are read on a background thread as positions are requested, and
+// only MAX_PAGES pages around the last requested position stay in memory, so the cost does not
+// grow with the size of the library. A page is read by seeking from the last photo of the page
+// before it (or the first of the page after), so scrolling deep into the library does not make
+// each read step over every row in front of it; only a jump with no neighbour in memory falls
+// back to an offset.
+//
+// Edits arrive through apply() as positions: the photos in memory are shifted locally and only
+// the slots that shift leaves empty, or the edited photo, are read back.
+//
+// Loads run on the repository's loader. Each result is handed to the main thread through the
+// repository's writer, so it reaches the main thread in order with the changes published around
+// it. Everything else runs on the main thread.
+public class PhotoPager {
+    public interface Listener {
+        // Positions were added or dropped at the end; reloaded pages report what moved into the rest
+        void onCountChanged(int oldCount, int newCount);
+
+        // Photos were inserted at, or removed from, [start, start + count); the ones after it moved along
+        void onItemsInserted(int start, int count);
+
+        void onItemsRemoved(int start, int count);
+
+        // Placeholders in [start, start + count) can now be bound
+        void onPageLoaded(int start, int count);
+
+        // A reloaded page holds something else at position; noteCountOnly if only the note count differs
+        void onItemChanged(int position, boolean noteCountOnly);
+    }
+
+    private static final int MAX_PAGES = 6;
+    // Generation of a page that is shown until its reload lands
+    private static final int STALE = -1;
+
+    private static final class Page {
+        final int generation;
+        final List<PhotoItem> photos;
+
+        Page(int generation, List<PhotoItem> photos) {
+            this.generation = generation;
+            this.photos = photos;
+        }
+    }
+
+    private final PhotoStorage storage;
+    private final int pageSize;
+    private final Executor loader;
+    // Results pass through it on their way to the main thread
+    private final Executor sequencer;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Integer, Page> pages = new HashMap<>();
+    // Page index -> generation of the load in flight
+    private final Map<Integer, Integer> loading = new HashMap<>();
+    // Pages waiting for a neighbour's load to give them an anchor
+    private final Set<Integer> deferred = new HashSet<>();
+    private Listener listener;
+    private int count;
+    // Bumped by every change; results of loads started before it are dropped
+    private int generation;
+    // Read by the loader to skip pages the user has already scrolled away from
+    private volatile int currentPage;
+    private volatile boolean closed;
+
+    PhotoPager(PhotoStorage storage, Executor loader, Executor sequencer, int pageSize) {
+        this.storage = storage;
+        this.loader = loader;
+        this.sequencer = sequencer;
+        this.pageSize = pageSize;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // Returns null while the position's page is loading; the listener reports when it arrives
+    public PhotoItem get(int position) {
+        int index = position / pageSize;
+        int offset = position % pageSize;
+        currentPage = index;
+
+        Page page = pages.get(index);
+        if (page == null || page.generation != generation) {
+            request(index);
+        }
+        // Prefetch the neighbour in the direction the position leans towards
+        if (offset >= pageSize / 2) {
+            request(index + 1);
+        } else if (index > 0) {
+            request(index - 1);
+        }
+
+        // A stale page keeps being shown until its reload lands, so an edit does not flash
+        // placeholders; a slot a shift left empty is null until then
+        if (page != null && offset < page.photos.size()) {
+            return page.photos.get(offset);
+        }
+        return null;
+    }
+
+    // Before the first refresh(): shows preview, the first-screen snapshot, as a stale first page.
+    // Its reload then reports only the cells that differ, and the count catches up.
+    public void showPreview(List<PhotoItem> preview) {
+        if (count > 0 || preview.isEmpty()) {
+            return;
+        }
+        List<PhotoItem> photos = preview.size() > pageSize ? preview.subList(0, pageSize) : preview;
+        pages.put(0, new Page(STALE, photos));
+        count = photos.size();
+    }
+
+    // Re-reads the count and reloads the pages in memory, the one in view first; the others are
+    // chained off it as it lands. Call after each change to the catalog.
+    public void refresh() {
+        int requested = ++generation;
+        loading.clear();
+        deferred.clear();
+        loader.execute(() -> {
+            if (closed) {
+                return;
+            }
+            int total = storage.countPhotos();
+            deliver(() -> {
+                if (requested != generation) {
+                    return;
+                }
+                int oldCount = count;
+                count = total;
+                if (listener != null && total != oldCount) {
+                    listener.onCountChanged(oldCount, total);
+                }
+                if (total > 0) {
+                    request(Math.min(currentPage, (total - 1) / pageSize));
+                }
+            });
+        });
+    }
+
+    // Hand every change the repository publishes to this, in order
+    public void apply(CatalogChange change) {
+        switch (change.type) {
+            case INSERTED:
+                move(change.position, change.count, -1);
+                if (listener != null) {
+                    listener.onItemsInserted(change.position, change.count);
+                }
+                break;
+            case REMOVED:
+                move(change.position, -change.count, -1);
+                if (listener != null) {
+                    listener.onItemsRemoved(change.position, change.count);
+                }
+                break;
+            case CHANGED:
+                move(change.position, 0, change.position);
+                break;
+            default:
+                refresh();
+                break;
+        }
+    }
+
+    // The executors are shared with the repository and outlive this pager
+    public void close() {
+        closed = true;
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    // Shifts the photos in memory at or after position by delta, dropping the removed ones, and
+    // reloads the pages this leaves with gaps, plus the one holding changed (-1 for none)
+    private void move(int position, int delta, int changed) {
+        int previous = generation++;
+        // Loads in flight were read at the old positions; they are asked for again below
+        Set<Integer> reload = new TreeSet<>(deferred);
+        for (Map.Entry<Integer, Integer> entry : loading.entrySet()) {
+            if (entry.getValue() == previous) {
+                reload.add(entry.getKey());
+            }
+        }
+        loading.clear();
+        deferred.clear();
+        count += delta;
+
+        Map<Integer, PhotoItem[]> moved = new HashMap<>();
+        for (Map.Entry<Integer, Page> entry : pages.entrySet()) {
+            Page page = entry.getValue();
+            int start = entry.getKey() * pageSize;
+            for (int offset = 0; offset < page.photos.size(); offset++) {
+                int from = start + offset;
+                if (delta < 0 && from >= position && from < position - delta) {
+                    continue;
+                }
+                int to = from >= position ? from + delta : from;
+                int index = to / pageSize;
+                // A photo pushed into a page that is not in memory is read with that page
+                if (!pages.containsKey(index)) {
+                    continue;
+                }
+                moved.computeIfAbsent(index, key -> new PhotoItem[pageSize])[to % pageSize] = page.photos.get(offset);
+                if (page.generation != previous || to == changed) {
+                    reload.add(index);
+                }
+            }
+        }
+
+        pages.clear();
+        for (Map.Entry<Integer, PhotoItem[]> entry : moved.entrySet()) {
+            int index = entry.getKey();
+            int size = Math.min(pageSize, count - index * pageSize);
+            if (size <= 0) {
+                continue;
+            }
+            List<PhotoItem> photos = Arrays.asList(Arrays.copyOf(entry.getValue(), size));
+            if (photos.contains(null)) {
+                reload.add(index);
+            }
+            pages.put(index, new Page(reload.contains(index) ? STALE : generation, photos));
+        }
+        evictDistantPages();
+        for (int index : reload) {
+            request(index);
+        }
+    }
+
+    private void request(int index) {
+        if (index < 0 || (long) index * pageSize >= count) {
+            return;
+        }
+        Page page = pages.get(index);
+        Integer inFlight = loading.get(index);
+        if ((page != null && page.generation == generation) || (inFlight != null && inFlight == generation)) {
+            return;
+        }
+        String after = boundaryId(index - 1, true);
+        String before = after == null ? boundaryId(index + 1, false) : null;
+        if (after == null && before == null && (isLoading(index - 1) || isLoading(index + 1))) {
+            // Cheaper to wait for the neighbour than to read this page by offset
+            deferred.add(index);
+            return;
+        }
+        int requested = generation;
+        loading.put(index, requested);
+        loader.execute(() -> {
+            if (closed) {
+                return;
+            }
+            // Fast scrolling queues pages faster than they load; ones that are already off screen are skipped
+            List<PhotoItem> photos = Math.abs(index - currentPage) < MAX_PAGES / 2
+                    ? loadPage(index, after, before)
+                    : null;
+            deliver(() -> onPageLoaded(index, requested, photos));
+        });
+    }
+
+    // Runs on the loader
+    private void deliver(Runnable result) {
+        sequencer.execute(() -> {
+            if (!closed) {
+                mainHandler.post(result);
+            }
+        });
+    }
+
+    // Runs on the loader
+    private List<PhotoItem> loadPage(int index, String after, String before) {
+        List<PhotoItem> photos = null;
+        if (after != null) {
+            photos = storage.loadPageAfter(after, pageSize);
+        } else if (before != null) {
+            photos = storage.loadPageBefore(before, pageSize);
+        }
+        // No anchor, a store that cannot seek, or the anchor was deleted in the meantime
+        return photos != null ? photos : storage.loadPage(index * pageSize, pageSize);
+    }
+
+    // Id of the last (or first) photo of a full, current page, or null
+    private String boundaryId(int index, boolean last) {
+        Page page = pages.get(index);
+        if (page == null || page.generation != generation || page.photos.size() < pageSize) {
+            return null;
+        }
+        return page.photos.get(last ? pageSize - 1 : 0).getId();
+    }
+
+    private boolean isLoading(int index) {
+        Integer inFlight = loading.get(index);
+        return inFlight != null && inFlight == generation;
+    }
+
+    private void onPageLoaded(int index, int requested, List<PhotoItem> photos) {
+        Integer inFlight = loading.get(index);
+        if (inFlight != null && inFlight == requested) {
+            loading.remove(index);
+        }
+        if (photos == null || requested != generation) {
+            return;
+        }
+        Page stale = pages.put(index, new Page(requested, photos));
+        evictDistantPages();
+        // Stale or waiting neighbours can now seek from this page
+        for (int neighbour : new int[] {index - 1, index + 1}) {
+            if (deferred.remove(neighbour) || pages.containsKey(neighbour)) {
+                request(neighbour);
+            }
+        }
+        int start = index * pageSize;
+        int loaded = Math.min(photos.size(), count - start);
+        if (listener == null || loaded <= 0) {
+            return;
+        }
+        if (stale == null) {
+            listener.onPageLoaded(start, loaded);
+            return;
+        }
+        // Only cells whose photo or note count actually changed are reported
+        for (int offset = 0; offset < loaded; offset++) {
+            PhotoItem before = offset < stale.photos.size() ? stale.photos.get(offset) : null;
+            PhotoItem after = photos.get(offset);
+            if (before == null || !before.getId().equals(after.getId())
+                    || !Objects.equals(before.getPhotoUri(), after.getPhotoUri())) {
+                listener.onItemChanged(start + offset, false);
+            } else if (before.getNoteCount() != after.getNoteCount()) {
+                listener.onItemChanged(start + offset, true);
+            }
+        }
+    }
+
+    private void evictDistantPages() {
+        while (pages.size() > MAX_PAGES) {
+            int farthest = currentPage;
+            for (int index : pages.keySet()) {
+                if (Math.abs(index - currentPage) > Math.abs(farthest - currentPage)) {
+                    farthest = index;
+                }
+            }
+            pages.remove(farthest);
+        }
+    }
+}
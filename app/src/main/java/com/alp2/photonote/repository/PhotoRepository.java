@@ -0,0 +1,607 @@
+package com.alp2.photonote.repository;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.lifecycle.LiveData;
+import com.alp2.photonote.model.CatalogEntry;
+import com.alp2.photonote.model.PhotoItem;
+import com.alp2.photonote.model.PhotoNote;
+import com.alp2.photonote.storage.FirstScreenCache;
+import com.alp2.photonote.storage.PhotoStorage;
+import com.alp2.photonote.storage.ThumbnailStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Owns the catalog. Every mutation runs on one writer thread, which publishes a new immutable
+// CatalogSnapshot and then hands the change to PhotoStorage. getSnapshot() is a volatile read and
+// may be called from any thread. Listeners are called on the main thread, in publish order.
+//
+// When the store supports paging the repository never loads the catalog: the snapshot stays empty,
+// mutations go straight to the store and are published as RESET, and the gallery reads pages
+// through a PhotoPager instead.
+//
+// There is one repository per process (getInstance). Screens pass photo ids to each other and read
+// the photo from here instead of copying its notes through Intent extras.
+public class PhotoRepository {
+    private static final int LOAD_BATCH_SIZE = 40;
+    // Enough cells to fill the first screen of the grid on a tall phone
+    private static final int FIRST_SCREEN_SIZE = 24;
+    private static PhotoRepository instance;
+
+    public interface Listener {
+        void onCatalogChanged(CatalogSnapshot snapshot, CatalogChange change);
+    }
+
+    public interface LookupCallback {
+        void onResult(String photoId);
+    }
+
+    public interface AddCallback {
+        void onAdded(int added, int duplicates);
+    }
+
+    public interface PhotoCallback {
+        void onPhoto(PhotoItem photo);
+    }
+
+    public interface SearchCallback {
+        void onResults(String query, List<NoteSearchIndex.Hit> hits);
+    }
+
+    private final PhotoStorage storage;
+    private final boolean paged;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private final ExecutorService searcher = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile CatalogSnapshot snapshot = CatalogSnapshot.EMPTY;
+    private final UriIndex uriIndex = new UriIndex();
+    private volatile ContentHashIndex contentHashIndex;
+    private volatile ThumbnailStore thumbnailStore;
+    // Writer thread only. Loaded batches go in front of photos the user added while loading was still running.
+    private int loadedCount;
+    // Set once every stored photo is in the snapshot; until then a missing id may still arrive
+    private volatile boolean loaded;
+    // Built on the search thread by the first search, then kept up to date by every mutation
+    private final NoteSearchIndex noteIndex = new NoteSearchIndex();
+    private volatile FirstScreenCache firstScreenCache;
+    // Writer thread only
+    private boolean firstScreenWriteQueued;
+    private boolean noteIndexStarted;
+    // Guarded by noteIndex. While the index is being built, the latest notes of each photo the
+    // writer changed (null once removed), applied over whatever the build read.
+    private final Map<String, CatalogEntry> indexBacklog = new HashMap<>();
+    private volatile boolean noteIndexBuilt;
+
+    public PhotoRepository(PhotoStorage storage) {
+        this.storage = storage;
+        this.paged = storage.supportsPaging();
+    }
+
+    // Created, and its catalog load started, on first use
+    public static synchronized PhotoRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new PhotoRepository(PhotoStorage.create(context.getApplicationContext()));
+            instance.load(LOAD_BATCH_SIZE);
+        }
+        return instance;
+    }
+
+    public boolean isPaged() {
+        return paged;
+    }
+
+    // Only meaningful in paged mode; hand it each published change through apply(). Pages are
+    // read on the loader, and each result is passed through the writer on its way to the main
+    // thread, so it lands after the publication of every change the read could have seen.
+    public PhotoPager createPager(int pageSize) {
+        return new PhotoPager(storage, loader, writer, pageSize);
+    }
+
+    public CatalogSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    // Kept up to date from here on: rewritten after changes that reach the first screen
+    public void setFirstScreenCache(FirstScreenCache firstScreenCache) {
+        this.firstScreenCache = firstScreenCache;
+        writer.execute(this::queueFirstScreenWrite);
+    }
+
+    // Thumbnail names change without a catalog change; the gallery calls this when it stops
+    public void saveFirstScreen() {
+        writer.execute(this::queueFirstScreenWrite);
+    }
+
+    // Optional; when set, a removed photo's thumbnail file is deleted with it
+    public void setThumbnailStore(ThumbnailStore thumbnailStore) {
+        this.thumbnailStore = thumbnailStore;
+    }
+
+    // False until every stored photo is in the snapshot (always true in paged mode)
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // Optional; when set, removed photos are dropped from its hash cache. Starts hashing the
+    // library once it is loaded, so the first import does not wait for it.
+    public void setContentHashIndex(ContentHashIndex contentHashIndex) {
+        this.contentHashIndex = contentHashIndex;
+        whenLoaded(() -> contentHashIndex.warmUp(contentSource()));
+    }
+
+    // The whole stored catalog for ContentHashIndex: the store's pages in paged mode, where the
+    // snapshot is empty, and the loaded snapshot otherwise
+    public ContentHashIndex.PhotoSource contentSource() {
+        if (paged) {
+            return storage::loadPage;
+        }
+        return (offset, limit) -> {
+            CatalogSnapshot photos = snapshot;
+            int from = Math.min(offset, photos.size());
+            return new ArrayList<>(photos.subList(from, Math.min(from + limit, photos.size())));
+        };
+    }
+
+    public String findByUri(Uri uri) {
+        return uriIndex.find(uri);
+    }
+
+    // Like findByUri, but in paged mode also asks the store about photos that were never loaded.
+    // Called from and answered on the main thread.
+    public void findByUri(Uri uri, LookupCallback callback) {
+        String photoId = uriIndex.find(uri);
+        if (photoId != null || !paged) {
+            callback.onResult(photoId);
+            return;
+        }
+        loader.execute(() -> {
+            String stored = storage.findPhotoId(uri);
+            mainHandler.post(() -> callback.onResult(stored));
+        });
+    }
+
+    // Delivers the photo with its notes readable on the main thread, or null once it is known not
+    // to exist. Called from and answered on the main thread; items from the snapshot are shared
+    // and must not be modified.
+    public void loadPhoto(String photoId, PhotoCallback callback) {
+        if (!paged) {
+            CatalogSnapshot current = snapshot;
+            int position = current.indexOfId(photoId);
+            if (position < 0) {
+                if (loaded) {
+                    callback.onPhoto(null);
+                }
+                return;
+            }
+            PhotoItem photo = current.get(position);
+            if (!photo.hasDeferredNotes()) {
+                callback.onPhoto(photo);
+                return;
+            }
+            loader.execute(() -> {
+                photo.getNotes();
+                mainHandler.post(() -> callback.onPhoto(photo));
+            });
+            return;
+        }
+        loader.execute(() -> {
+            PhotoItem photo = storage.loadPhoto(photoId);
+            mainHandler.post(() -> callback.onPhoto(photo));
+        });
+    }
+
+    // loadPhoto() as LiveData, re-read after each catalog change while it has active observers
+    public LiveData<PhotoItem> observePhoto(String photoId) {
+        return new PhotoLiveData(this, photoId);
+    }
+
+    // Runs action on the main thread once the whole catalog is in, after its last change
+    public void whenLoaded(Runnable action) {
+        // The load task queues every batch before it returns, so this lands on the writer after them
+        loader.execute(() -> writer.execute(() -> mainHandler.post(action)));
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public void load(int batchSize) {
+        if (paged) {
+            loaded = true;
+            return;
+        }
+        // Reading happens on its own thread so mutations and flush() never wait behind a long load.
+        // Items fresh from storage are not shared with anyone yet, so they go in as they are.
+        loader.execute(() -> {
+            storage.loadPhotos(batchSize, batch -> writer.execute(() -> {
+                for (PhotoItem photo : batch) {
+                    if (photo.getPhotoUri() != null) {
+                        uriIndex.claim(photo.getPhotoUri(), photo.getId());
+                    }
+                }
+                publish(snapshot.withInserted(loadedCount, batch), CatalogChange.inserted(loadedCount, batch.size()));
+                loadedCount += batch.size();
+                indexPhotos(batch);
+            }));
+            writer.execute(() -> {
+                loaded = true;
+                queueFirstScreenWrite();
+            });
+        });
+    }
+
+    // Claims the photo's URI right away, so a second import of the same image is refused even
+    // before the first one is published. Returns false for a duplicate.
+    public boolean addPhoto(PhotoItem photo) {
+        if (photo.getPhotoUri() != null && !uriIndex.claim(photo.getPhotoUri(), photo.getId())) {
+            return false;
+        }
+        PhotoItem frozen = freeze(photo);
+        writer.execute(() -> {
+            if (paged) {
+                storage.photoAdded(snapshot, frozen);
+                indexNotes(frozen.getId(), frozen, () -> noteIndex.addPhoto(frozen));
+                publish(snapshot, CatalogChange.inserted(storage.countPhotos() - 1, 1));
+                return;
+            }
+            CatalogSnapshot next = snapshot.withInserted(snapshot.size(), Collections.singletonList(frozen));
+            storage.photoAdded(next, frozen);
+            indexNotes(frozen.getId(), frozen, () -> noteIndex.addPhoto(frozen));
+            publish(next, CatalogChange.inserted(next.size() - 1, 1));
+        });
+        return true;
+    }
+
+    // Bulk import: one catalog insert, one change and one storage write for the whole list.
+    // Photos whose URI is already in the catalog, or earlier in the list, are skipped. Answered
+    // on the main thread.
+    public void addPhotos(List<PhotoItem> photos, AddCallback callback) {
+        List<PhotoItem> claimed = new ArrayList<>(photos.size());
+        for (PhotoItem photo : photos) {
+            if (photo.getPhotoUri() == null || uriIndex.claim(photo.getPhotoUri(), photo.getId())) {
+                claimed.add(freeze(photo));
+            }
+        }
+        writer.execute(() -> {
+            List<PhotoItem> added = claimed;
+            if (paged) {
+                // The store also knows photos that were never loaded
+                added = new ArrayList<>(claimed.size());
+                for (PhotoItem photo : claimed) {
+                    if (photo.getPhotoUri() != null && storage.findPhotoId(photo.getPhotoUri()) != null) {
+                        uriIndex.release(photo.getPhotoUri(), photo.getId());
+                    } else {
+                        added.add(photo);
+                    }
+                }
+            }
+            int addedCount = added.size();
+            int duplicates = photos.size() - addedCount;
+            if (!added.isEmpty()) {
+                List<PhotoItem> batch = added;
+                if (paged) {
+                    storage.photosAdded(snapshot, batch);
+                    indexPhotos(batch);
+                    publish(snapshot, CatalogChange.inserted(storage.countPhotos() - addedCount, addedCount));
+                } else {
+                    int position = snapshot.size();
+                    CatalogSnapshot next = snapshot.withInserted(position, batch);
+                    storage.photosAdded(next, batch);
+                    indexPhotos(batch);
+                    publish(next, CatalogChange.inserted(position, addedCount));
+                }
+            }
+            mainHandler.post(() -> callback.onAdded(addedCount, duplicates));
+        });
+    }
+
+    public void removePhoto(String photoId) {
+        writer.execute(() -> {
+            if (paged) {
+                uriIndex.releaseId(photoId);
+                forgetContentHash(photoId);
+                int position = storage.positionOf(photoId);
+                if (position < 0) {
+                    return;
+                }
+                // The snapshot does not have the URI the thumbnail is filed under
+                PhotoItem stored = storage.loadPhoto(photoId);
+                if (stored != null) {
+                    forgetThumbnail(stored.getPhotoUri());
+                }
+                storage.photoRemoved(snapshot, new PhotoItem(photoId, null));
+                indexNotes(photoId, null, () -> noteIndex.removePhoto(photoId));
+                publish(snapshot, CatalogChange.removed(position));
+                return;
+            }
+            int position = snapshot.indexOfId(photoId);
+            if (position < 0) {
+                return;
+            }
+            PhotoItem removed = snapshot.get(position);
+            CatalogSnapshot next = snapshot.withRemoved(position);
+            if (position < loadedCount) {
+                loadedCount--;
+            }
+            if (removed.getPhotoUri() != null) {
+                uriIndex.release(removed.getPhotoUri(), photoId);
+            }
+            forgetContentHash(photoId);
+            forgetThumbnail(removed.getPhotoUri());
+            storage.photoRemoved(next, removed);
+            indexNotes(photoId, null, () -> noteIndex.removePhoto(photoId));
+            publish(next, CatalogChange.removed(position));
+        });
+    }
+
+    public void replaceNotes(String photoId, List<PhotoNote> notes) {
+        List<PhotoNote> frozenNotes = Collections.unmodifiableList(new ArrayList<>(notes));
+        writer.execute(() -> {
+            if (paged) {
+                PhotoItem updated = new PhotoItem(photoId, null);
+                updated.setNotes(frozenNotes);
+                storage.notesChanged(snapshot, updated);
+                indexNotes(photoId, updated, () -> noteIndex.setNotes(photoId, frozenNotes));
+                publishChanged(photoId);
+                return;
+            }
+            int position = snapshot.indexOfId(photoId);
+            if (position < 0) {
+                return;
+            }
+            PhotoItem current = snapshot.get(position);
+            PhotoItem updated = new PhotoItem(current.getId(), current.getPhotoUri());
+            updated.setNotes(frozenNotes);
+            CatalogSnapshot next = snapshot.withReplaced(position, updated);
+            storage.notesChanged(next, updated);
+            indexNotes(photoId, updated, () -> noteIndex.setNotes(photoId, frozenNotes));
+            publish(next, CatalogChange.changed(position));
+        });
+    }
+
+    // Edits one note instead of replacing the list, so two screens editing the same photo do not
+    // overwrite each other's changes
+    public void addNote(String photoId, PhotoNote note) {
+        writer.execute(() -> {
+            if (paged) {
+                PhotoItem stored = storage.loadPhoto(photoId);
+                if (stored != null) {
+                    stored.addNote(note);
+                    storage.noteAdded(snapshot, stored, note);
+                    indexNotes(photoId, stored, () -> noteIndex.addNote(photoId, note));
+                    publishChanged(photoId);
+                }
+                return;
+            }
+            int position = snapshot.indexOfId(photoId);
+            if (position < 0) {
+                return;
+            }
+            List<PhotoNote> notes = new ArrayList<>(snapshot.get(position).getNotes());
+            notes.add(note);
+            PhotoItem updated = withNotes(snapshot.get(position), notes);
+            CatalogSnapshot next = snapshot.withReplaced(position, updated);
+            storage.noteAdded(next, updated, note);
+            indexNotes(photoId, updated, () -> noteIndex.addNote(photoId, note));
+            publish(next, CatalogChange.changed(position));
+        });
+    }
+
+    public void removeNote(String photoId, String noteId) {
+        writer.execute(() -> {
+            if (paged) {
+                PhotoItem stored = storage.loadPhoto(photoId);
+                int notePosition = stored != null ? indexOfNote(stored.getNotes(), noteId) : -1;
+                if (notePosition >= 0) {
+                    stored.removeNote(notePosition);
+                    storage.noteRemoved(snapshot, stored, notePosition);
+                    indexNotes(photoId, stored, () -> noteIndex.removeNote(photoId, noteId));
+                    publishChanged(photoId);
+                }
+                return;
+            }
+            int position = snapshot.indexOfId(photoId);
+            if (position < 0) {
+                return;
+            }
+            List<PhotoNote> notes = new ArrayList<>(snapshot.get(position).getNotes());
+            int notePosition = indexOfNote(notes, noteId);
+            if (notePosition < 0) {
+                return;
+            }
+            notes.remove(notePosition);
+            PhotoItem updated = withNotes(snapshot.get(position), notes);
+            CatalogSnapshot next = snapshot.withReplaced(position, updated);
+            storage.noteRemoved(next, updated, notePosition);
+            indexNotes(photoId, updated, () -> noteIndex.removeNote(photoId, noteId));
+            publish(next, CatalogChange.changed(position));
+        });
+    }
+
+    // Searches note text across the whole library; every word of query matches as a prefix. The
+    // callback runs on the main thread. The first search builds the index, which reads every note once.
+    public void searchNotes(String query, int maxPhotos, SearchCallback callback) {
+        Runnable search = () -> {
+            List<NoteSearchIndex.Hit> hits = noteIndex.search(query, maxPhotos);
+            mainHandler.post(() -> callback.onResults(query, hits));
+        };
+        if (noteIndexBuilt) {
+            searcher.execute(search);
+            return;
+        }
+        // Only the start is marked on the writer: every mutation before it is in what the build
+        // reads, and every one after it goes to indexBacklog
+        writer.execute(() -> {
+            if (!noteIndexStarted) {
+                noteIndexStarted = true;
+                searcher.execute(this::buildNoteIndex);
+            }
+            searcher.execute(search);
+        });
+    }
+
+    // Search thread. Reads every note without holding up the writer, then catches up with the
+    // mutations made in the meantime.
+    private void buildNoteIndex() {
+        if (paged) {
+            // Writes handed to the store before the start must be readable before its notes are scanned
+            storage.flush();
+            storage.loadPhotos(LOAD_BATCH_SIZE, batch -> batch.forEach(noteIndex::addPhoto));
+        } else {
+            // Photos still loading are indexed as their batches are published
+            snapshot.forEach(noteIndex::addPhoto);
+        }
+        synchronized (noteIndex) {
+            for (Map.Entry<String, CatalogEntry> entry : indexBacklog.entrySet()) {
+                if (entry.getValue() == null) {
+                    noteIndex.removePhoto(entry.getKey());
+                } else {
+                    noteIndex.setNotes(entry.getKey(), entry.getValue().getNotes());
+                }
+            }
+            indexBacklog.clear();
+            noteIndexBuilt = true;
+        }
+    }
+
+    // Writer thread only. Before the first search there is no index to keep current; while it is
+    // being built, latest (null for a removed photo) is kept for the build to apply.
+    private void indexNotes(String photoId, CatalogEntry latest, Runnable update) {
+        if (!noteIndexStarted) {
+            return;
+        }
+        synchronized (noteIndex) {
+            if (noteIndexBuilt) {
+                update.run();
+            } else {
+                indexBacklog.put(photoId, latest);
+            }
+        }
+    }
+
+    private void indexPhotos(List<PhotoItem> photos) {
+        for (PhotoItem photo : photos) {
+            indexNotes(photo.getId(), photo, () -> noteIndex.addPhoto(photo));
+        }
+    }
+
+    // For onStop(): queues the store's flush behind the pending mutations and returns at once.
+    // The drain runs on the writer, so leaving a screen never waits for it on the main thread.
+    public void flushInBackground() {
+        writer.execute(storage::flush);
+    }
+
+    // Waits for queued mutations, then for the store to persist them. Blocks; for tests and shutdown.
+    public void flush() {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not update photos", e.getCause());
+        }
+        storage.flush();
+    }
+
+    public void close() {
+        loader.shutdownNow();
+        searcher.shutdownNow();
+        writer.shutdown();
+    }
+
+    private void forgetContentHash(String photoId) {
+        ContentHashIndex hashes = contentHashIndex;
+        if (hashes != null) {
+            hashes.forget(photoId);
+        }
+    }
+
+    private void forgetThumbnail(Uri uri) {
+        ThumbnailStore thumbnails = thumbnailStore;
+        if (thumbnails != null && uri != null) {
+            thumbnails.remove(uri);
+        }
+    }
+
+    // Callers hand the change to the store before publishing it, so a listener that reads the
+    // store in response (PhotoPager) is queued behind the write
+    private void publish(CatalogSnapshot next, CatalogChange change) {
+        snapshot = next;
+        if (change.type == CatalogChange.Type.RESET || change.position < FIRST_SCREEN_SIZE) {
+            queueFirstScreenWrite();
+        }
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onCatalogChanged(next, change);
+            }
+        });
+    }
+
+    // Paged mode: the snapshot is not the catalog, so the store supplies the position
+    private void publishChanged(String photoId) {
+        int position = storage.positionOf(photoId);
+        if (position >= 0) {
+            publish(snapshot, CatalogChange.changed(position));
+        }
+    }
+
+    // Writer thread. Queued behind the work already waiting, so a burst of changes is written once.
+    private void queueFirstScreenWrite() {
+        if (firstScreenCache == null || firstScreenWriteQueued) {
+            return;
+        }
+        firstScreenWriteQueued = true;
+        writer.execute(() -> {
+            firstScreenWriteQueued = false;
+            // A partly loaded snapshot may lack photos that belong in front
+            if (!loaded) {
+                return;
+            }
+            if (paged) {
+                // A read from the store; it goes to the loader like the gallery's pages
+                FirstScreenCache cache = firstScreenCache;
+                loader.execute(() -> cache.write(storage.loadPage(0, FIRST_SCREEN_SIZE)));
+                return;
+            }
+            firstScreenCache.write(snapshot.subList(0, Math.min(FIRST_SCREEN_SIZE, snapshot.size())));
+        });
+    }
+
+    private static PhotoItem withNotes(PhotoItem photo, List<PhotoNote> notes) {
+        PhotoItem updated = new PhotoItem(photo.getId(), photo.getPhotoUri());
+        updated.setNotes(Collections.unmodifiableList(notes));
+        return updated;
+    }
+
+    private static int indexOfNote(List<PhotoNote> notes, String noteId) {
+        for (int i = 0; i < notes.size(); i++) {
+            if (notes.get(i).getId().equals(noteId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // The caller keeps its own PhotoItem; the snapshot gets a copy whose notes cannot change
+    private static PhotoItem freeze(PhotoItem photo) {
+        PhotoItem frozen = new PhotoItem(photo.getId(), photo.getPhotoUri());
+        frozen.setNotes(Collections.unmodifiableList(new ArrayList<>(photo.getNotes())));
+        return frozen;
+    }
+}
@@ -0,0 +1,20 @@
+package com.alp2.photonote.repository;
+
+import android.net.Uri;
+import com.alp2.photonote.storage.PhotoUris;
+
+// UriKeyIndex keyed by the photo URIs themselves
+public class UriIndex extends UriKeyIndex {
+    // Returns false if another photo already holds this URI
+    public boolean claim(Uri uri, String photoId) {
+        return claim(PhotoUris.normalize(uri), photoId);
+    }
+
+    public void release(Uri uri, String photoId) {
+        release(PhotoUris.normalize(uri), photoId);
+    }
+
+    public String find(Uri uri) {
+        return find(PhotoUris.normalize(uri));
+    }
+}
@@ -0,0 +1,160 @@
+package com.alp2.photonote.storage;
+
+import android.net.Uri;
+import com.alp2.photonote.model.PhotoItem;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Reads the binary catalog format (BinaryCatalog, in core) and the Gson JSON format it replaced.
+// read() looks at the first bytes and falls back to JSON for anything without the binary magic.
+public final class CatalogCodec {
+    private static final Type PHOTOS_TYPE = new TypeToken<ArrayList<PhotoItem>>(){}.getType();
+    private static final BinaryCatalog.EntryFactory<PhotoItem> PHOTO_FACTORY = (id, uri, notes) -> {
+        Uri photoUri = uri != null ? Uri.parse(uri) : null;
+        PhotoItem photo = id != null ? new PhotoItem(id, photoUri) : new PhotoItem(photoUri);
+        photo.setNotes(notes);
+        return photo;
+    };
+
+    public static final class Catalog {
+        public final long sequence;
+        public final List<PhotoItem> photos;
+
+        public Catalog(long sequence, List<PhotoItem> photos) {
+            this.sequence = sequence;
+            this.photos = photos;
+        }
+    }
+
+    private CatalogCodec() {
+    }
+
+    public static void write(OutputStream stream, long sequence, Collection<PhotoItem> photos) throws IOException {
+        CountingOutputStream out = new CountingOutputStream(stream);
+        BinaryCatalog.write(out, sequence, photos);
+        MeteredPhotoStorage.BYTES_WRITTEN.add(out.count);
+    }
+
+    public static Catalog read(InputStream stream, Gson gson) throws IOException {
+        CountingInputStream counted = new CountingInputStream(stream);
+        try {
+            return read(new BufferedInputStream(counted), gson);
+        } finally {
+            MeteredPhotoStorage.BYTES_READ.add(counted.count);
+        }
+    }
+
+    private static Catalog read(BufferedInputStream in, Gson gson) throws IOException {
+        in.mark(BinaryCatalog.headerLength());
+        byte[] head = new byte[BinaryCatalog.headerLength()];
+        int read = 0;
+        while (read < head.length) {
+            int n = in.read(head, read, head.length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        if (read == 0) {
+            return new Catalog(0, new ArrayList<>());
+        }
+        in.reset();
+        if (BinaryCatalog.isBinary(head, read)) {
+            List<PhotoItem> photos = new ArrayList<>();
+            long sequence = BinaryCatalog.read(in, PHOTO_FACTORY, photos);
+            return new Catalog(sequence, photos);
+        }
+        return readJson(in, gson);
+    }
+
+    // Accepts both the plain array written by PrefsPhotoStorage and {"lastSequence":..,"photos":[..]}
+    private static Catalog readJson(InputStream in, Gson gson) throws IOException {
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                List<PhotoItem> photos = gson.fromJson(reader, PHOTOS_TYPE);
+                return new Catalog(0, photos);
+            }
+
+            long sequence = 0;
+            List<PhotoItem> photos = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("lastSequence")) {
+                    sequence = reader.nextLong();
+                } else if (name.equals("photos")) {
+                    photos = gson.fromJson(reader, PHOTOS_TYPE);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return new Catalog(sequence, photos != null ? photos : new ArrayList<>());
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Corrupt catalog", e);
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // FilterOutputStream would split this into single-byte writes
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.alp2.photonote.storage;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.AtomicFile;
+import com.alp2.photonote.model.PhotoItem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// The first photos of the gallery as the catalog last had them: id, URI, note count and thumbnail
+// file name. A cold start draws the grid from this one small file while the catalog loads; the
+// thumbnail names are handed to ThumbnailStore.prime() so the cells do not wait for its scan.
+public final class FirstScreenCache {
+    private static final String FILE_NAME = "first_screen.bin";
+    private static final int FORMAT_VERSION = 1;
+
+    private final AtomicFile file;
+    private final ThumbnailStore thumbnails;
+    // Writer thread only; skips rewriting what is already on disk
+    private byte[] lastWritten;
+
+    public FirstScreenCache(Context context, ThumbnailStore thumbnails) {
+        file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        this.thumbnails = thumbnails;
+    }
+
+    // Items with deferred notes, ready for the adapter; empty if there is no usable snapshot.
+    // Meant for the main thread: the file is a few kilobytes.
+    public List<PhotoItem> read() {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(file.readFully()))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return Collections.emptyList();
+            }
+            int count = in.readInt();
+            List<PhotoItem> photos = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                Uri uri = Uri.parse(in.readUTF());
+                int noteCount = in.readInt();
+                String thumbnail = in.readBoolean() ? in.readUTF() : null;
+                PhotoItem photo = new PhotoItem(id, uri);
+                // The repository serves the real notes; these items only back the grid
+                photo.setDeferredNotes(noteCount, Collections::emptyList);
+                photos.add(photo);
+                if (thumbnail != null) {
+                    thumbnails.prime(uri, thumbnail);
+                }
+            }
+            return photos;
+        } catch (IOException e) {
+            // No snapshot yet, or a damaged one; the grid fills from the catalog instead
+            return Collections.emptyList();
+        }
+    }
+
+    // Called on a background thread with the first photos of the catalog
+    public void write(List<PhotoItem> photos) {
+        List<PhotoItem> shown = new ArrayList<>(photos.size());
+        for (PhotoItem photo : photos) {
+            if (photo.getPhotoUri() != null) {
+                shown.add(photo);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(shown.size());
+            for (PhotoItem photo : shown) {
+                out.writeUTF(photo.getId());
+                out.writeUTF(photo.getPhotoUri().toString());
+                out.writeInt(photo.getNoteCount());
+                String thumbnail = thumbnails.name(photo.getPhotoUri());
+                out.writeBoolean(thumbnail != null);
+                if (thumbnail != null) {
+                    out.writeUTF(thumbnail);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] content = bytes.toByteArray();
+        if (Arrays.equals(content, lastWritten)) {
+            return;
+        }
+
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            stream.write(content);
+            file.finishWrite(stream);
+            lastWritten = content;
+        } catch (IOException e) {
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+            e.printStackTrace();
+        }
+    }
+}
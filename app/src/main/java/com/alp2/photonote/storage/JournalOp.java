@@ -0,0 +1,249 @@
+package com.alp2.photonote.storage;
+
+import android.net.Uri;
+import com.alp2.photonote.model.PhotoItem;
+import com.alp2.photonote.model.PhotoNote;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+abstract class JournalOp {
+    private static final byte TYPE_ADD_PHOTO = 1;
+    private static final byte TYPE_DELETE_PHOTO = 2;
+    private static final byte TYPE_ADD_NOTE = 3;
+    private static final byte TYPE_REMOVE_NOTE = 4;
+    private static final byte TYPE_REPLACE_NOTES = 5;
+    // Set on the type byte of records whose notes carry ids; older records leave it clear
+    private static final int FLAG_NOTE_IDS = 0x40;
+
+    final String photoId;
+
+    JournalOp(String photoId) {
+        this.photoId = photoId;
+    }
+
+    abstract byte type();
+
+    abstract void writePayload(DataOutput out) throws IOException;
+
+    // Applies the operation to a catalog keyed by photo id, kept in display order
+    abstract void apply(Map<String, PhotoItem> catalog);
+
+    void write(DataOutput out) throws IOException {
+        out.writeByte(type() | FLAG_NOTE_IDS);
+        writeString(out, photoId);
+        writePayload(out);
+    }
+
+    static JournalOp read(DataInput in) throws IOException {
+        byte header = in.readByte();
+        boolean noteIds = (header & FLAG_NOTE_IDS) != 0;
+        int type = header & ~FLAG_NOTE_IDS;
+        String photoId = readString(in);
+        switch (type) {
+            case TYPE_ADD_PHOTO:
+                return new AddPhoto(photoId, readString(in), readNotes(in, noteIds));
+            case TYPE_DELETE_PHOTO:
+                return new DeletePhoto(photoId);
+            case TYPE_ADD_NOTE:
+                return new AddNote(photoId, readNote(in, noteIds));
+            case TYPE_REMOVE_NOTE:
+                return new RemoveNote(photoId, in.readInt());
+            case TYPE_REPLACE_NOTES:
+                return new ReplaceNotes(photoId, readNotes(in, noteIds));
+            default:
+                throw new IOException("Unknown journal operation " + type);
+        }
+    }
+
+    static final class AddPhoto extends JournalOp {
+        final String photoUri;
+        final List<PhotoNote> notes;
+
+        AddPhoto(String photoId, String photoUri, List<PhotoNote> notes) {
+            super(photoId);
+            this.photoUri = photoUri;
+            this.notes = notes;
+        }
+
+        @Override
+        byte type() {
+            return TYPE_ADD_PHOTO;
+        }
+
+        @Override
+        void writePayload(DataOutput out) throws IOException {
+            writeString(out, photoUri);
+            writeNotes(out, notes);
+        }
+
+        @Override
+        void apply(Map<String, PhotoItem> catalog) {
+            if (!catalog.containsKey(photoId)) {
+                PhotoItem photo = new PhotoItem(photoId, photoUri != null ? Uri.parse(photoUri) : null);
+                photo.setNotes(new ArrayList<>(notes));
+                catalog.put(photoId, photo);
+            }
+        }
+    }
+
+    static final class DeletePhoto extends JournalOp {
+        DeletePhoto(String photoId) {
+            super(photoId);
+        }
+
+        @Override
+        byte type() {
+            return TYPE_DELETE_PHOTO;
+        }
+
+        @Override
+        void writePayload(DataOutput out) {
+        }
+
+        @Override
+        void apply(Map<String, PhotoItem> catalog) {
+            catalog.remove(photoId);
+        }
+    }
+
+    static final class AddNote extends JournalOp {
+        final PhotoNote note;
+
+        AddNote(String photoId, PhotoNote note) {
+            super(photoId);
+            this.note = note;
+        }
+
+        @Override
+        byte type() {
+            return TYPE_ADD_NOTE;
+        }
+
+        @Override
+        void writePayload(DataOutput out) throws IOException {
+            writeNote(out, note);
+        }
+
+        @Override
+        void apply(Map<String, PhotoItem> catalog) {
+            PhotoItem photo = catalog.get(photoId);
+            if (photo != null) {
+                photo.addNote(note);
+            }
+        }
+    }
+
+    static final class RemoveNote extends JournalOp {
+        final int position;
+
+        RemoveNote(String photoId, int position) {
+            super(photoId);
+            this.position = position;
+        }
+
+        @Override
+        byte type() {
+            return TYPE_REMOVE_NOTE;
+        }
+
+        @Override
+        void writePayload(DataOutput out) throws IOException {
+            out.writeInt(position);
+        }
+
+        @Override
+        void apply(Map<String, PhotoItem> catalog) {
+            PhotoItem photo = catalog.get(photoId);
+            if (photo != null) {
+                photo.removeNote(position);
+            }
+        }
+    }
+
+    static final class ReplaceNotes extends JournalOp {
+        final List<PhotoNote> notes;
+
+        ReplaceNotes(String photoId, List<PhotoNote> notes) {
+            super(photoId);
+            this.notes = notes;
+        }
+
+        @Override
+        byte type() {
+            return TYPE_REPLACE_NOTES;
+        }
+
+        @Override
+        void writePayload(DataOutput out) throws IOException {
+            writeNotes(out, notes);
+        }
+
+        @Override
+        void apply(Map<String, PhotoItem> catalog) {
+            PhotoItem photo = catalog.get(photoId);
+            if (photo != null) {
+                photo.setNotes(new ArrayList<>(notes));
+            }
+        }
+    }
+
+    private static void writeNotes(DataOutput out, List<PhotoNote> notes) throws IOException {
+        out.writeInt(notes.size());
+        for (PhotoNote note : notes) {
+            writeNote(out, note);
+        }
+    }
+
+    private static List<PhotoNote> readNotes(DataInput in, boolean noteIds) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Negative note count " + count);
+        }
+        List<PhotoNote> notes = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            notes.add(readNote(in, noteIds));
+        }
+        return notes;
+    }
+
+    private static void writeNote(DataOutput out, PhotoNote note) throws IOException {
+        writeString(out, note.getId());
+        writeString(out, note.getText());
+        out.writeFloat(note.getX());
+        out.writeFloat(note.getY());
+    }
+
+    private static PhotoNote readNote(DataInput in, boolean noteIds) throws IOException {
+        String id = noteIds ? readString(in) : null;
+        String text = readString(in);
+        float x = in.readFloat();
+        float y = in.readFloat();
+        return new PhotoNote(id, text, x, y);
+    }
+
+    // Length-prefixed UTF-8; writeUTF would cap note text at 64 KB
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,205 @@
+package com.alp2.photonote.storage;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import com.alp2.photonote.model.PhotoItem;
+import com.alp2.photonote.model.PhotoNote;
+import com.google.gson.Gson;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Persists every mutation as one appended journal record on top of the last snapshot. Once the
+// journal grows past COMPACT_THRESHOLD_BYTES the writer folds it into a fresh snapshot.
+// Records carry a sequence number and the snapshot remembers the last one it contains, so a crash
+// between writing the snapshot and clearing the journal never applies a record twice.
+public class JournalPhotoStorage implements PhotoStorage {
+    private static final String SNAPSHOT_FILE = "catalog.snapshot";
+    private static final String JOURNAL_FILE = "catalog.journal";
+    private static final long COMPACT_THRESHOLD_BYTES = 512 * 1024;
+
+    private final AtomicFile snapshotFile;
+    private final OperationJournal journal;
+    private final Gson gson = PrefsPhotoStorage.createGson();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    // Only touched on the writer thread; -1 until the journal has been replayed once
+    private long lastSequence = -1;
+    private boolean compactionScheduled;
+
+    public JournalPhotoStorage(Context context) {
+        File dir = context.getFilesDir();
+        snapshotFile = new AtomicFile(new File(dir, SNAPSHOT_FILE));
+        journal = new OperationJournal(new File(dir, JOURNAL_FILE));
+    }
+
+    @Override
+    public ArrayList<PhotoItem> loadPhotos() {
+        return runOnWriter(() -> new ArrayList<>(readCatalog().values()));
+    }
+
+    @Override
+    public void savePhotos(List<PhotoItem> photos) {
+        List<PhotoItem> snapshot = new ArrayList<>(photos.size());
+        for (PhotoItem photo : photos) {
+            snapshot.add(photo.copy());
+        }
+        writer.execute(() -> {
+            try {
+                ensureReplayed();
+                writeSnapshot(snapshot, lastSequence);
+                journal.reset();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public void photoAdded(List<PhotoItem> photos, PhotoItem photo) {
+        String uri = photo.getPhotoUri() != null ? photo.getPhotoUri().toString() : null;
+        append(new JournalOp.AddPhoto(photo.getId(), uri, new ArrayList<>(photo.getNotes())));
+    }
+
+    @Override
+    public void photosAdded(List<PhotoItem> photos, List<PhotoItem> added) {
+        List<JournalOp> ops = new ArrayList<>(added.size());
+        for (PhotoItem photo : added) {
+            String uri = photo.getPhotoUri() != null ? photo.getPhotoUri().toString() : null;
+            ops.add(new JournalOp.AddPhoto(photo.getId(), uri, new ArrayList<>(photo.getNotes())));
+        }
+        append(ops);
+    }
+
+    @Override
+    public void photoRemoved(List<PhotoItem> photos, PhotoItem photo) {
+        append(new JournalOp.DeletePhoto(photo.getId()));
+    }
+
+    @Override
+    public void noteAdded(List<PhotoItem> photos, PhotoItem photo, PhotoNote note) {
+        append(new JournalOp.AddNote(photo.getId(), note));
+    }
+
+    @Override
+    public void noteRemoved(List<PhotoItem> photos, PhotoItem photo, int position) {
+        append(new JournalOp.RemoveNote(photo.getId(), position));
+    }
+
+    @Override
+    public void notesChanged(List<PhotoItem> photos, PhotoItem photo) {
+        append(new JournalOp.ReplaceNotes(photo.getId(), new ArrayList<>(photo.getNotes())));
+    }
+
+    @Override
+    public void flush() {
+        runOnWriter(() -> {
+            journal.sync();
+            return null;
+        });
+    }
+
+    private void append(JournalOp op) {
+        append(Collections.singletonList(op));
+    }
+
+    // One writer task for the whole list, so a bulk import is not interleaved with other appends
+    private void append(List<JournalOp> ops) {
+        writer.execute(() -> {
+            try {
+                ensureReplayed();
+                for (JournalOp op : ops) {
+                    journal.append(++lastSequence, op);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+
+            if (journal.length() > COMPACT_THRESHOLD_BYTES && !compactionScheduled) {
+                compactionScheduled = true;
+                writer.execute(this::compact);
+            }
+        });
+    }
+
+    private void compact() {
+        compactionScheduled = false;
+        try {
+            Collection<PhotoItem> catalog = readCatalog().values();
+            writeSnapshot(catalog, lastSequence);
+            journal.reset();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void ensureReplayed() throws IOException {
+        if (lastSequence < 0) {
+            readCatalog();
+        }
+    }
+
+    private LinkedHashMap<String, PhotoItem> readCatalog() throws IOException {
+        CatalogCodec.Catalog snapshot = readSnapshot();
+        LinkedHashMap<String, PhotoItem> catalog = new LinkedHashMap<>();
+        for (PhotoItem photo : snapshot.photos) {
+            catalog.put(photo.getId(), photo);
+        }
+
+        long[] last = {snapshot.sequence};
+        journal.replay((sequence, op) -> {
+            if (sequence > snapshot.sequence) {
+                op.apply(catalog);
+            }
+            last[0] = Math.max(last[0], sequence);
+        });
+        lastSequence = last[0];
+        return catalog;
+    }
+
+    // Snapshots written before the binary format existed are JSON; CatalogCodec reads both
+    private CatalogCodec.Catalog readSnapshot() throws IOException {
+        try (InputStream in = snapshotFile.openRead()) {
+            return CatalogCodec.read(in, gson);
+        } catch (FileNotFoundException e) {
+            return new CatalogCodec.Catalog(0, new ArrayList<>());
+        }
+    }
+
+    private void writeSnapshot(Collection<PhotoItem> photos, long sequence) throws IOException {
+        FileOutputStream stream = snapshotFile.startWrite();
+        try {
+            BufferedOutputStream out = new BufferedOutputStream(stream);
+            CatalogCodec.write(out, sequence, photos);
+            out.flush();
+            snapshotFile.finishWrite(stream);
+        } catch (IOException | RuntimeException e) {
+            snapshotFile.failWrite(stream);
+            throw e;
+        }
+    }
+
+    private <T> T runOnWriter(Callable<T> task) {
+        try {
+            return writer.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the catalog", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not access the catalog", e.getCause());
+        }
+    }
+}
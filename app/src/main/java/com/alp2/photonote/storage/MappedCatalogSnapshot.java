@@ -0,0 +1,181 @@
+package com.alp2.photonote.storage;
+
+import android.util.AtomicFile;
+import com.alp2.photonote.model.PhotoItem;
+import com.alp2.photonote.model.PhotoNote;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Catalog file laid out for random access through a read-only mapping:
+//
+//   magic "PNM" + version byte, int photoCount
+//   index: photoCount x (int recordOffset, int noteCount)
+//   records: string id, string uri, noteCount x (string noteId, string text, float x, float y)
+//
+// Version 1 snapshots have no note ids and are still read.
+// Strings are an int byte length (-1 = null) followed by UTF-8. Only absolute reads are used on
+// the shared buffer, so any thread may read it. The mapping stays valid after AtomicFile renames
+// a newer snapshot over the file.
+public final class MappedCatalogSnapshot {
+    private static final byte[] MAGIC = {'P', 'N', 'M'};
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int INDEX_ENTRY_SIZE = 8;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final boolean noteIds;
+
+    private MappedCatalogSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE
+                || buffer.get(0) != MAGIC[0] || buffer.get(1) != MAGIC[1] || buffer.get(2) != MAGIC[2]) {
+            throw new IOException("Not a mapped catalog snapshot");
+        }
+        int version = buffer.get(3);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        noteIds = version >= 2;
+        size = buffer.getInt(4);
+        if (size < 0 || HEADER_SIZE + (long) size * INDEX_ENTRY_SIZE > buffer.capacity()) {
+            throw new IOException("Corrupt snapshot index");
+        }
+    }
+
+    public static MappedCatalogSnapshot open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedCatalogSnapshot(mapped);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getNoteCount(int position) {
+        return buffer.getInt(indexEntry(position) + 4);
+    }
+
+    public String getId(int position) {
+        return readString(recordOffset(position));
+    }
+
+    public String getPhotoUri(int position) {
+        int offset = recordOffset(position);
+        return readString(skipString(offset));
+    }
+
+    public List<PhotoNote> readNotes(int position) {
+        int offset = skipString(skipString(recordOffset(position)));
+        int count = getNoteCount(position);
+        List<PhotoNote> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String id = null;
+            if (noteIds) {
+                id = readString(offset);
+                offset = skipString(offset);
+            }
+            String text = readString(offset);
+            offset = skipString(offset);
+            float x = buffer.getFloat(offset);
+            float y = buffer.getFloat(offset + 4);
+            offset += 8;
+            notes.add(new PhotoNote(id, text, x, y));
+        }
+        return notes;
+    }
+
+    private int indexEntry(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + size);
+        }
+        return HEADER_SIZE + position * INDEX_ENTRY_SIZE;
+    }
+
+    private int recordOffset(int position) {
+        return buffer.getInt(indexEntry(position));
+    }
+
+    private int skipString(int offset) {
+        int length = buffer.getInt(offset);
+        return offset + 4 + Math.max(length, 0);
+    }
+
+    private String readString(int offset) {
+        int length = buffer.getInt(offset);
+        if (length < 0) {
+            return null;
+        }
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.position(offset + 4);
+        bytes.limit(offset + 4 + length);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    public static void write(AtomicFile file, List<PhotoItem> photos) throws IOException {
+        FileOutputStream stream = file.startWrite();
+        try {
+            FileChannel channel = stream.getChannel();
+            int indexSize = photos.size() * INDEX_ENTRY_SIZE;
+            ByteBuffer index = ByteBuffer.allocate(HEADER_SIZE + indexSize);
+            index.put(MAGIC).put((byte) VERSION).putInt(photos.size());
+
+            // Records go after the index; the index is filled in as offsets become known
+            int recordsStart = HEADER_SIZE + indexSize;
+            channel.position(recordsStart);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            for (PhotoItem photo : photos) {
+                List<PhotoNote> notes = photo.getNotes();
+                // size() saturates at Integer.MAX_VALUE, so an oversized catalog still fails here
+                long offset = (long) recordsStart + out.size();
+                if (offset >= Integer.MAX_VALUE) {
+                    throw new IOException("Catalog too large for a mapped snapshot");
+                }
+                index.putInt((int) offset).putInt(notes.size());
+
+                writeString(out, photo.getId());
+                writeString(out, photo.getPhotoUri() != null ? photo.getPhotoUri().toString() : null);
+                for (PhotoNote note : notes) {
+                    writeString(out, note.getId());
+                    writeString(out, note.getText());
+                    out.writeFloat(note.getX());
+                    out.writeFloat(note.getY());
+                }
+            }
+            out.flush();
+
+            index.flip();
+            channel.position(0);
+            while (index.hasRemaining()) {
+                channel.write(index);
+            }
+            file.finishWrite(stream);
+        } catch (IOException | RuntimeException e) {
+            file.failWrite(stream);
+            throw e;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
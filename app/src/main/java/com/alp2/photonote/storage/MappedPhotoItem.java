@@ -0,0 +1,52 @@
+package com.alp2.photonote.storage;
+
+import android.net.Uri;
+import com.alp2.photonote.model.PhotoItem;
+
+// A PhotoItem that is still a position in a mapped snapshot. The id and URI are decoded on first
+// access and the notes are left deferred, so creating one touches only its index entry.
+final class MappedPhotoItem extends PhotoItem {
+    private final MappedCatalogSnapshot snapshot;
+    private final int position;
+    private String id;
+    private Uri photoUri;
+    private boolean uriDecoded;
+
+    MappedPhotoItem(MappedCatalogSnapshot snapshot, int position) {
+        super(null, null);
+        this.snapshot = snapshot;
+        this.position = position;
+        int noteCount = snapshot.getNoteCount(position);
+        if (noteCount > 0) {
+            setDeferredNotes(noteCount, () -> snapshot.readNotes(position));
+        }
+    }
+
+    @Override
+    public synchronized String getId() {
+        if (id == null) {
+            id = snapshot.getId(position);
+            if (id == null) {
+                // Derived from the URI, like an id-less PhotoItem; super's own URI field is null here
+                id = PhotoItem.legacyId(getPhotoUri());
+            }
+        }
+        return id;
+    }
+
+    @Override
+    public synchronized Uri getPhotoUri() {
+        if (!uriDecoded) {
+            String uri = snapshot.getPhotoUri(position);
+            photoUri = uri != null ? Uri.parse(uri) : null;
+            uriDecoded = true;
+        }
+        return photoUri;
+    }
+
+    @Override
+    public synchronized void setPhotoUri(Uri photoUri) {
+        this.photoUri = photoUri;
+        uriDecoded = true;
+    }
+}
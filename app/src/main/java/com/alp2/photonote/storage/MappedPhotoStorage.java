@@ -0,0 +1,54 @@
+package com.alp2.photonote.storage;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import com.alp2.photonote.model.PhotoItem;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Loads the catalog as MappedPhotoItems over a memory-mapped snapshot: opening it reads the header,
+// and a photo's URI, note count and notes are decoded only when something asks for them.
+// Every save rewrites the snapshot, so PhotoStorage.create puts this behind WriteBehindPhotoStorage.
+public class MappedPhotoStorage implements PhotoStorage {
+    private static final String SNAPSHOT_FILE = "catalog.mapped";
+
+    private final AtomicFile snapshotFile;
+
+    public MappedPhotoStorage(Context context) {
+        snapshotFile = new AtomicFile(new File(context.getFilesDir(), SNAPSHOT_FILE));
+    }
+
+    @Override
+    public ArrayList<PhotoItem> loadPhotos() {
+        try {
+            // openRead() restores the previous snapshot if a write was interrupted
+            snapshotFile.openRead().close();
+            MappedCatalogSnapshot snapshot = MappedCatalogSnapshot.open(snapshotFile.getBaseFile());
+            // Mapped rather than read; counted as the most that paging in the items can read
+            MeteredPhotoStorage.BYTES_READ.add(snapshotFile.getBaseFile().length());
+
+            ArrayList<PhotoItem> photos = new ArrayList<>(snapshot.size());
+            for (int i = 0; i < snapshot.size(); i++) {
+                photos.add(new MappedPhotoItem(snapshot, i));
+            }
+            return photos;
+        } catch (FileNotFoundException e) {
+            return new ArrayList<>();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open catalog snapshot", e);
+        }
+    }
+
+    @Override
+    public void savePhotos(List<PhotoItem> photos) {
+        try {
+            MappedCatalogSnapshot.write(snapshotFile, photos);
+            MeteredPhotoStorage.BYTES_WRITTEN.add(snapshotFile.getBaseFile().length());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
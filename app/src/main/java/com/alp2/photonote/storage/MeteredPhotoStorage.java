@@ -0,0 +1,161 @@
+package com.alp2.photonote.storage;
+
+import android.net.Uri;
+import com.alp2.photonote.metrics.Counter;
+import com.alp2.photonote.metrics.Histogram;
+import com.alp2.photonote.metrics.Metrics;
+import com.alp2.photonote.model.PhotoItem;
+import com.alp2.photonote.model.PhotoNote;
+import java.util.ArrayList;
+import java.util.List;
+
+// Times a store's reads and writes and counts the photos they move. PhotoStorage.create wraps the
+// store that does the I/O, under any WriteBehindPhotoStorage, so the times are those of the writer
+// thread rather than of queueing a save. JournalPhotoStorage queues its writes itself, so for it
+// save and update times only cover the hand-off. Byte counts come from the stores, through
+// BYTES_READ and BYTES_WRITTEN; Room reports an estimate of the row payload it reads and writes.
+public class MeteredPhotoStorage implements PhotoStorage {
+    static final Counter BYTES_READ = Metrics.counter("storage.bytes_read");
+    static final Counter BYTES_WRITTEN = Metrics.counter("storage.bytes_written");
+
+    private static final Histogram LOAD_TIME = Metrics.histogram("storage.load", "us");
+    private static final Histogram SAVE_TIME = Metrics.histogram("storage.save", "us");
+    private static final Histogram UPDATE_TIME = Metrics.histogram("storage.update", "us");
+    private static final Histogram PAGE_TIME = Metrics.histogram("storage.load_page", "us");
+    private static final Histogram LOADED_PHOTOS = Metrics.histogram("storage.load.photos", "photos");
+    private static final Histogram SAVED_PHOTOS = Metrics.histogram("storage.save.photos", "photos");
+
+    private final PhotoStorage delegate;
+
+    public MeteredPhotoStorage(PhotoStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ArrayList<PhotoItem> loadPhotos() {
+        long start = System.nanoTime();
+        ArrayList<PhotoItem> photos = delegate.loadPhotos();
+        LOAD_TIME.recordSince(start);
+        LOADED_PHOTOS.record(photos.size());
+        return photos;
+    }
+
+    @Override
+    public void loadPhotos(int batchSize, BatchCallback callback) {
+        // Callbacks run on this thread, so the time includes what the caller does with each batch
+        int[] loaded = new int[1];
+        long start = System.nanoTime();
+        delegate.loadPhotos(batchSize, batch -> {
+            loaded[0] += batch.size();
+            callback.onBatch(batch);
+        });
+        LOAD_TIME.recordSince(start);
+        LOADED_PHOTOS.record(loaded[0]);
+    }
+
+    @Override
+    public void savePhotos(List<PhotoItem> photos) {
+        long start = System.nanoTime();
+        delegate.savePhotos(photos);
+        SAVE_TIME.recordSince(start);
+        SAVED_PHOTOS.record(photos.size());
+    }
+
+    @Override
+    public boolean supportsPaging() {
+        return delegate.supportsPaging();
+    }
+
+    @Override
+    public int countPhotos() {
+        return delegate.countPhotos();
+    }
+
+    @Override
+    public List<PhotoItem> loadPage(int offset, int limit) {
+        long start = System.nanoTime();
+        List<PhotoItem> page = delegate.loadPage(offset, limit);
+        PAGE_TIME.recordSince(start);
+        return page;
+    }
+
+    @Override
+    public List<PhotoItem> loadPageAfter(String photoId, int limit) {
+        long start = System.nanoTime();
+        List<PhotoItem> page = delegate.loadPageAfter(photoId, limit);
+        PAGE_TIME.recordSince(start);
+        return page;
+    }
+
+    @Override
+    public List<PhotoItem> loadPageBefore(String photoId, int limit) {
+        long start = System.nanoTime();
+        List<PhotoItem> page = delegate.loadPageBefore(photoId, limit);
+        PAGE_TIME.recordSince(start);
+        return page;
+    }
+
+    @Override
+    public int positionOf(String photoId) {
+        return delegate.positionOf(photoId);
+    }
+
+    @Override
+    public String findPhotoId(Uri uri) {
+        return delegate.findPhotoId(uri);
+    }
+
+    @Override
+    public PhotoItem loadPhoto(String photoId) {
+        return delegate.loadPhoto(photoId);
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    // The incremental hooks are timed together: which one ran matters less than what a write costs
+
+    @Override
+    public void photoAdded(List<PhotoItem> photos, PhotoItem photo) {
+        long start = System.nanoTime();
+        delegate.photoAdded(photos, photo);
+        UPDATE_TIME.recordSince(start);
+    }
+
+    @Override
+    public void photosAdded(List<PhotoItem> photos, List<PhotoItem> added) {
+        long start = System.nanoTime();
+        delegate.photosAdded(photos, added);
+        UPDATE_TIME.recordSince(start);
+    }
+
+    @Override
+    public void photoRemoved(List<PhotoItem> photos, PhotoItem photo) {
+        long start = System.nanoTime();
+        delegate.photoRemoved(photos, photo);
+        UPDATE_TIME.recordSince(start);
+    }
+
+    @Override
+    public void notesChanged(List<PhotoItem> photos, PhotoItem photo) {
+        long start = System.nanoTime();
+        delegate.notesChanged(photos, photo);
+        UPDATE_TIME.recordSince(start);
+    }
+
+    @Override
+    public void noteAdded(List<PhotoItem> photos, PhotoItem photo, PhotoNote note) {
+        long start = System.nanoTime();
+        delegate.noteAdded(photos, photo, note);
+        UPDATE_TIME.recordSince(start);
+    }
+
+    @Override
+    public void noteRemoved(List<PhotoItem> photos, PhotoItem photo, int position) {
+        long start = System.nanoTime();
+        delegate.noteRemoved(photos, photo, position);
+        UPDATE_TIME.recordSince(start);
+    }
+}
@@ -0,0 +1,126 @@
+package com.alp2.photonote.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+// Append-only log of catalog operations. Each record is
+//   int payloadLength, int crc32(payload), payload = long sequence + operation
+// A record that is cut short or fails its checksum marks the end of the log: replay stops there
+// and the file is truncated back to the last good record. Not thread-safe; JournalPhotoStorage
+// only touches it from its writer thread.
+final class OperationJournal {
+    private static final int HEADER_SIZE = 8;
+
+    interface Replayer {
+        void onRecord(long sequence, JournalOp op);
+    }
+
+    private final File file;
+    private FileOutputStream output;
+
+    OperationJournal(File file) {
+        this.file = file;
+    }
+
+    long length() {
+        return file.length();
+    }
+
+    void replay(Replayer replayer) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        long fileLength = file.length();
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (fileLength - validLength >= HEADER_SIZE) {
+                int payloadLength = in.readInt();
+                int checksum = in.readInt();
+                if (payloadLength < 0 || payloadLength > fileLength - validLength - HEADER_SIZE) {
+                    break;
+                }
+
+                byte[] payload = new byte[payloadLength];
+                in.readFully(payload);
+                if (checksum(payload) != checksum) {
+                    break;
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                long sequence = record.readLong();
+                JournalOp op = JournalOp.read(record);
+                replayer.onRecord(sequence, op);
+                validLength += HEADER_SIZE + payloadLength;
+            }
+        } catch (EOFException e) {
+            // Torn tail; everything up to validLength was applied
+        }
+
+        MeteredPhotoStorage.BYTES_READ.add(validLength);
+        if (validLength < fileLength) {
+            closeOutput();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+    }
+
+    void append(long sequence, JournalOp op) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeLong(sequence);
+        op.write(payload);
+        byte[] body = bytes.toByteArray();
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(HEADER_SIZE + body.length);
+        DataOutputStream header = new DataOutputStream(record);
+        header.writeInt(body.length);
+        header.writeInt(checksum(body));
+        header.write(body);
+
+        if (output == null) {
+            output = new FileOutputStream(file, true);
+        }
+        // One write per record keeps a crash from interleaving a header with a stale payload
+        output.write(record.toByteArray());
+        MeteredPhotoStorage.BYTES_WRITTEN.add(HEADER_SIZE + body.length);
+    }
+
+    void sync() throws IOException {
+        if (output != null) {
+            output.getFD().sync();
+        }
+    }
+
+    void reset() throws IOException {
+        closeOutput();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.getFD().sync();
+        }
+    }
+
+    private void closeOutput() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+}
@@ -1,65 +1,149 @@
 package com.alp2.photonote.storage;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.net.Uri;
+import com.alp2.photonote.BuildConfig;
 import com.alp2.photonote.model.PhotoItem;
 import com.alp2.photonote.model.PhotoNote;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonPrimitive;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
-import com.google.gson.reflect.TypeToken;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.List;
 
-public class PhotoStorage {
-    private static final String PREFS_NAME = "PhotoNotePrefs";
-    private static final String PHOTOS_KEY = "photos";
-    private final SharedPreferences prefs;
-    private final Gson gson;
+public interface PhotoStorage {
 
-    public PhotoStorage(Context context) {
-        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        
-        gson = new GsonBuilder()
-            .registerTypeAdapter(Uri.class, new UriSerializer())
-            .registerTypeAdapter(Uri.class, new UriDeserializer())
-            .create();
+    enum Mode {
+        ROOM,
+        PREFS,
+        JOURNAL,
+        MAPPED,
+        SHARDED
     }
 
-    public void savePhotos(ArrayList<PhotoItem> photos) {
-        String json = gson.toJson(photos);
-        prefs.edit().putString(PHOTOS_KEY, json).apply();
+    // The store chosen at build time through BuildConfig.STORAGE_MODE (see app/build.gradle.kts)
+    static PhotoStorage create(Context context) {
+        return create(context, Mode.valueOf(BuildConfig.STORAGE_MODE));
     }
 
-    public ArrayList<PhotoItem> loadPhotos() {
-        String json = prefs.getString(PHOTOS_KEY, null);
-        if (json == null) {
-            return new ArrayList<>();
+    static PhotoStorage create(Context context, Mode mode) {
+        switch (mode) {
+            case PREFS:
+                return new WriteBehindPhotoStorage(new MeteredPhotoStorage(new PrefsPhotoStorage(context)));
+            case JOURNAL:
+                return new MeteredPhotoStorage(new JournalPhotoStorage(context));
+            case MAPPED:
+                return new WriteBehindPhotoStorage(new MeteredPhotoStorage(new MappedPhotoStorage(context)));
+            case SHARDED:
+                return new MeteredPhotoStorage(new ShardedPhotoStorage(context));
+            case ROOM:
+            default:
+                return new MeteredPhotoStorage(new RoomPhotoStorage(context));
         }
-        
-        Type type = new TypeToken<ArrayList<PhotoItem>>(){}.getType();
-        ArrayList<PhotoItem> photos = gson.fromJson(json, type);
-        return photos != null ? photos : new ArrayList<>();
     }
 
-    private static class UriSerializer implements JsonSerializer<Uri> {
-        @Override
-        public JsonElement serialize(Uri src, Type typeOfSrc, JsonSerializationContext context) {
-            return new JsonPrimitive(src.toString());
+    interface BatchCallback {
+        void onBatch(List<PhotoItem> batch);
+    }
+
+    ArrayList<PhotoItem> loadPhotos();
+
+    // Delivers the catalog in order, batchSize items at a time, on the calling thread
+    default void loadPhotos(int batchSize, BatchCallback callback) {
+        ArrayList<PhotoItem> photos = loadPhotos();
+        for (int start = 0; start < photos.size(); start += batchSize) {
+            callback.onBatch(new ArrayList<>(photos.subList(start, Math.min(start + batchSize, photos.size()))));
+        }
+    }
+
+    void savePhotos(List<PhotoItem> photos);
+
+    // Random access for the paged gallery. A store that returns true here answers the
+    // queries below without reading the whole catalog, and persists through the incremental hooks
+    // alone: in paged mode the list handed to them is not the whole catalog.
+    default boolean supportsPaging() {
+        return false;
+    }
+
+    default int countPhotos() {
+        return loadPhotos().size();
+    }
+
+    // Photos at [offset, offset + limit) in gallery order; notes may be deferred behind a count
+    default List<PhotoItem> loadPage(int offset, int limit) {
+        ArrayList<PhotoItem> photos = loadPhotos();
+        int from = Math.min(offset, photos.size());
+        return new ArrayList<>(photos.subList(from, Math.min(from + limit, photos.size())));
+    }
+
+    // Keyset paging: up to limit photos right after (or right before) the stored photo photoId, in
+    // gallery order. Null when the store cannot seek or photoId is gone; callers fall back to loadPage.
+    default List<PhotoItem> loadPageAfter(String photoId, int limit) {
+        return null;
+    }
+
+    default List<PhotoItem> loadPageBefore(String photoId, int limit) {
+        return null;
+    }
+
+    // Gallery position of the stored photo photoId, or -1. The paged repository publishes edits by it.
+    default int positionOf(String photoId) {
+        List<PhotoItem> photos = loadPhotos();
+        for (int i = 0; i < photos.size(); i++) {
+            if (photos.get(i).getId().equals(photoId)) {
+                return i;
+            }
         }
+        return -1;
     }
 
-    private static class UriDeserializer implements JsonDeserializer<Uri> {
-        @Override
-        public Uri deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
-            return Uri.parse(json.getAsString());
+    // Id of the stored photo whose URI normalizes to the same key as uri, or null
+    default String findPhotoId(Uri uri) {
+        String key = PhotoUris.normalize(uri);
+        for (PhotoItem photo : loadPhotos()) {
+            if (photo.getPhotoUri() != null && PhotoUris.normalize(photo.getPhotoUri()).equals(key)) {
+                return photo.getId();
+            }
         }
+        return null;
+    }
+
+    // One photo with its notes, or null. Used to open a photo that is not in memory.
+    default PhotoItem loadPhoto(String photoId) {
+        for (PhotoItem photo : loadPhotos()) {
+            if (photo.getId().equals(photoId)) {
+                return photo;
+            }
+        }
+        return null;
+    }
+
+    // Blocks until every write handed to this store so far has reached storage
+    default void flush() {
+    }
+
+    // Incremental hooks. Stores that can only persist the whole catalog fall back to savePhotos.
+    default void photoAdded(List<PhotoItem> photos, PhotoItem photo) {
+        savePhotos(photos);
+    }
+
+    // A bulk import: added were appended to photos in this order. One write for the whole batch.
+    default void photosAdded(List<PhotoItem> photos, List<PhotoItem> added) {
+        savePhotos(photos);
+    }
+
+    default void photoRemoved(List<PhotoItem> photos, PhotoItem photo) {
+        savePhotos(photos);
+    }
+
+    default void notesChanged(List<PhotoItem> photos, PhotoItem photo) {
+        savePhotos(photos);
+    }
+
+    // Called after the note was appended to photo
+    default void noteAdded(List<PhotoItem> photos, PhotoItem photo, PhotoNote note) {
+        notesChanged(photos, photo);
+    }
+
+    // Called after the note at position was removed from photo
+    default void noteRemoved(List<PhotoItem> photos, PhotoItem photo, int position) {
+        notesChanged(photos, photo);
     }
-} 
\ No newline at end of file
+}
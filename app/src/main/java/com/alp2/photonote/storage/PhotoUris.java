@@ -0,0 +1,40 @@
+package com.alp2.photonote.storage;
+
+import android.content.ContentResolver;
+import android.media.ExifInterface;
+import android.net.Uri;
+import java.io.IOException;
+import java.io.InputStream;
+
+public final class PhotoUris {
+    private PhotoUris() {
+    }
+
+    // See UriKeys
+    public static String normalize(Uri uri) {
+        Uri normalized = uri.normalizeScheme();
+        return UriKeys.normalize(normalized.getAuthority(), normalized.getPathSegments(), normalized.toString());
+    }
+
+    // Clockwise rotation in degrees that the image's EXIF orientation asks for; 0 if it cannot be read
+    public static int readOrientation(ContentResolver resolver, Uri uri) {
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in == null) {
+                return 0;
+            }
+            switch (new ExifInterface(in).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.alp2.photonote.storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import com.alp2.photonote.model.PhotoItem;
+import com.alp2.photonote.model.PhotoNote;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PrefsPhotoStorage implements PhotoStorage {
+    private static final String PREFS_NAME = "PhotoNotePrefs";
+    private static final String PHOTOS_KEY = "photos";
+    private static final int BATCH_SIZE = 100;
+    private final SharedPreferences prefs;
+    private final Gson gson;
+
+    public PrefsPhotoStorage(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        gson = createGson();
+    }
+
+    static Gson createGson() {
+        return new GsonBuilder()
+            .registerTypeAdapter(Uri.class, new UriSerializer())
+            .registerTypeAdapter(Uri.class, new UriDeserializer())
+            .create();
+    }
+
+    @Override
+    public void savePhotos(List<PhotoItem> photos) {
+        // Gson reads the notes field directly, so deferred notes have to be parsed first
+        for (PhotoItem photo : photos) {
+            photo.getNotes();
+        }
+        String json = gson.toJson(photos);
+        prefs.edit().putString(PHOTOS_KEY, json).apply();
+        // In chars; the JSON is nearly all ASCII, so close to the bytes written
+        MeteredPhotoStorage.BYTES_WRITTEN.add(json.length());
+    }
+
+    public boolean hasPhotos() {
+        return prefs.contains(PHOTOS_KEY);
+    }
+
+    // Synchronous, so the caller knows the blob is gone once this returns
+    public void clear() {
+        prefs.edit().remove(PHOTOS_KEY).commit();
+    }
+
+    @Override
+    public ArrayList<PhotoItem> loadPhotos() {
+        ArrayList<PhotoItem> photos = new ArrayList<>();
+        loadPhotos(BATCH_SIZE, true, photos::addAll);
+        return photos;
+    }
+
+    @Override
+    public void loadPhotos(int batchSize, BatchCallback callback) {
+        loadPhotos(batchSize, true, callback);
+    }
+
+    public void loadPhotos(int batchSize, boolean deferNotes, BatchCallback callback) {
+        String json = prefs.getString(PHOTOS_KEY, null);
+        if (json == null) {
+            return;
+        }
+        MeteredPhotoStorage.BYTES_READ.add(json.length());
+
+        try {
+            new StreamingPhotoReader(gson, json, deferNotes).read(batchSize, callback);
+        } catch (IOException | IllegalStateException e) {
+            throw new JsonParseException("Could not read stored photos", e);
+        }
+    }
+
+    private static class UriSerializer implements JsonSerializer<Uri> {
+        @Override
+        public JsonElement serialize(Uri src, Type typeOfSrc, JsonSerializationContext context) {
+            return new JsonPrimitive(src.toString());
+        }
+    }
+
+    private static class UriDeserializer implements JsonDeserializer<Uri> {
+        @Override
+        public Uri deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+            return Uri.parse(json.getAsString());
+        }
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,395 @@
+package com.alp2.photonote.storage;
+
+import android.content.Context;
+import android.net.Uri;
+import com.alp2.photonote.model.PhotoItem;
+import com.alp2.photonote.model.PhotoNote;
+import com.alp2.photonote.storage.db.NoteEntity;
+import com.alp2.photonote.storage.db.PhotoDao;
+import com.alp2.photonote.storage.db.PhotoDatabase;
+import com.alp2.photonote.storage.db.PhotoEntity;
+import com.alp2.photonote.storage.db.PhotoSummary;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Writes only the rows a change touches. loadPhotos() and the paging queries run on the caller's
+// thread or wait for the writer, so none of them may be called on the main thread.
+public class RoomPhotoStorage implements PhotoStorage {
+    private static final int MAX_BATCH_SIZE = 500;
+    private final PhotoDatabase database;
+    private final PhotoDao dao;
+    private final PrefsPhotoStorage legacyStorage;
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+    private volatile boolean legacyChecked;
+
+    public RoomPhotoStorage(Context context) {
+        database = PhotoDatabase.getInstance(context);
+        dao = database.photoDao();
+        legacyStorage = new PrefsPhotoStorage(context);
+    }
+
+    @Override
+    public ArrayList<PhotoItem> loadPhotos() {
+        ArrayList<PhotoItem> photos = new ArrayList<>();
+        loadPhotos(MAX_BATCH_SIZE, photos::addAll);
+        return photos;
+    }
+
+    @Override
+    public void loadPhotos(int batchSize, BatchCallback callback) {
+        migrateLegacyPhotosIfNeeded();
+
+        // Keyset paging on sort_order; the IN (...) list below has to stay under SQLite's variable limit
+        int limit = Math.min(batchSize, MAX_BATCH_SIZE);
+        long afterSortOrder = Long.MIN_VALUE;
+        while (true) {
+            List<PhotoEntity> page = dao.getPhotosAfter(afterSortOrder, limit);
+            if (page.isEmpty()) {
+                return;
+            }
+
+            Map<String, PhotoItem> byId = new HashMap<>();
+            List<PhotoItem> batch = new ArrayList<>(page.size());
+            long bytes = 0;
+            for (PhotoEntity entity : page) {
+                PhotoItem photo = new PhotoItem(entity.id, Uri.parse(entity.photoUri));
+                byId.put(entity.id, photo);
+                batch.add(photo);
+                bytes += rowBytes(entity);
+            }
+            for (NoteEntity note : dao.getNotesFor(new ArrayList<>(byId.keySet()))) {
+                PhotoItem photo = byId.get(note.photoId);
+                if (photo != null) {
+                    photo.addNote(new PhotoNote(note.noteId, note.text, note.x, note.y));
+                }
+                bytes += rowBytes(note);
+            }
+            MeteredPhotoStorage.BYTES_READ.add(bytes);
+
+            callback.onBatch(batch);
+            afterSortOrder = page.get(page.size() - 1).sortOrder;
+            if (page.size() < limit) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean supportsPaging() {
+        return true;
+    }
+
+    // Paging queries go through the writer so they see every change handed to this store before them
+
+    @Override
+    public int countPhotos() {
+        return runOnWriter(() -> {
+            migrateLegacyPhotosIfNeeded();
+            return dao.countPhotos();
+        });
+    }
+
+    @Override
+    public List<PhotoItem> loadPage(int offset, int limit) {
+        List<PhotoSummary> page = runOnWriter(() -> {
+            migrateLegacyPhotosIfNeeded();
+            return dao.getPhotoSummaries(offset, limit);
+        });
+        return toPhotos(page);
+    }
+
+    @Override
+    public List<PhotoItem> loadPageAfter(String photoId, int limit) {
+        List<PhotoSummary> page = runOnWriter(() -> {
+            migrateLegacyPhotosIfNeeded();
+            Long sortOrder = dao.getSortOrder(photoId);
+            return sortOrder != null ? dao.getPhotoSummariesAfter(sortOrder, limit) : null;
+        });
+        return page != null ? toPhotos(page) : null;
+    }
+
+    @Override
+    public List<PhotoItem> loadPageBefore(String photoId, int limit) {
+        List<PhotoSummary> page = runOnWriter(() -> {
+            migrateLegacyPhotosIfNeeded();
+            Long sortOrder = dao.getSortOrder(photoId);
+            return sortOrder != null ? dao.getPhotoSummariesBefore(sortOrder, limit) : null;
+        });
+        if (page == null) {
+            return null;
+        }
+        List<PhotoItem> photos = toPhotos(page);
+        Collections.reverse(photos);
+        return photos;
+    }
+
+    @Override
+    public int positionOf(String photoId) {
+        return runOnWriter(() -> {
+            migrateLegacyPhotosIfNeeded();
+            Long sortOrder = dao.getSortOrder(photoId);
+            return sortOrder != null ? dao.countPhotosBefore(sortOrder) : -1;
+        });
+    }
+
+    private List<PhotoItem> toPhotos(List<PhotoSummary> page) {
+        List<PhotoItem> photos = new ArrayList<>(page.size());
+        long bytes = 0;
+        for (PhotoSummary summary : page) {
+            PhotoItem photo = new PhotoItem(summary.id, Uri.parse(summary.photoUri));
+            String photoId = summary.id;
+            photo.setDeferredNotes(summary.noteCount, () -> loadNotes(photoId));
+            photos.add(photo);
+            bytes += length(summary.id) + length(summary.photoUri) + 4;
+        }
+        MeteredPhotoStorage.BYTES_READ.add(bytes);
+        return photos;
+    }
+
+    @Override
+    public String findPhotoId(Uri uri) {
+        String uriKey = PhotoUris.normalize(uri);
+        return runOnWriter(() -> {
+            migrateLegacyPhotosIfNeeded();
+            return dao.findPhotoIdByUriKey(uriKey);
+        });
+    }
+
+    @Override
+    public PhotoItem loadPhoto(String photoId) {
+        PhotoEntity row = runOnWriter(() -> {
+            migrateLegacyPhotosIfNeeded();
+            return dao.getPhoto(photoId);
+        });
+        if (row == null) {
+            return null;
+        }
+        MeteredPhotoStorage.BYTES_READ.add(rowBytes(row));
+        PhotoItem photo = new PhotoItem(row.id, Uri.parse(row.photoUri));
+        photo.setNotes(loadNotes(photoId));
+        return photo;
+    }
+
+    private List<PhotoNote> loadNotes(String photoId) {
+        List<NoteEntity> rows = runOnWriter(() -> dao.getNotes(photoId));
+        List<PhotoNote> notes = new ArrayList<>(rows.size());
+        for (NoteEntity row : rows) {
+            notes.add(new PhotoNote(row.noteId, row.text, row.x, row.y));
+        }
+        MeteredPhotoStorage.BYTES_READ.add(noteBytes(rows));
+        return notes;
+    }
+
+    private void migrateLegacyPhotosIfNeeded() {
+        if (legacyChecked) {
+            return;
+        }
+        synchronized (this) {
+            if (!legacyChecked) {
+                if (legacyStorage.hasPhotos()) {
+                    migrateLegacyPhotos();
+                }
+                legacyChecked = true;
+            }
+        }
+    }
+
+    private void migrateLegacyPhotos() {
+        // Streams the blob in batches so the legacy object graph is never fully in memory
+        long[] sortOrder = {dao.getMaxSortOrder()};
+        Set<String> migratedKeys = new HashSet<>();
+        database.runInTransaction(() -> legacyStorage.loadPhotos(MAX_BATCH_SIZE, false, batch -> {
+            List<PhotoEntity> photoRows = new ArrayList<>(batch.size());
+            List<NoteEntity> noteRows = new ArrayList<>();
+            for (PhotoItem photo : batch) {
+                if (photo.getPhotoUri() == null) {
+                    continue;
+                }
+                // A photo already in Room came from an earlier, interrupted run of this migration
+                // (or was added since); its rows and any edits to its notes are kept as they are
+                PhotoEntity row = toPhotoRow(photo, sortOrder[0] + 1);
+                if (!migratedKeys.add(row.uriKey) || dao.findPhotoIdByUriKey(row.uriKey) != null) {
+                    continue;
+                }
+                sortOrder[0]++;
+                photoRows.add(row);
+                noteRows.addAll(toNoteRows(photo));
+            }
+
+            dao.insertPhotos(photoRows);
+            if (!noteRows.isEmpty()) {
+                dao.insertNotes(noteRows);
+            }
+            MeteredPhotoStorage.BYTES_WRITTEN.add(photoBytes(photoRows) + noteBytes(noteRows));
+        }));
+        // The blob is dropped only after the rows are committed. If the process dies before the
+        // removal reaches disk, the next start finds every photo migrated and adds nothing.
+        legacyStorage.clear();
+    }
+
+    @Override
+    public void savePhotos(List<PhotoItem> photos) {
+        List<PhotoEntity> photoRows = new ArrayList<>(photos.size());
+        List<NoteEntity> noteRows = new ArrayList<>();
+        long sortOrder = 0;
+        for (PhotoItem photo : photos) {
+            if (photo.getPhotoUri() == null) {
+                continue;
+            }
+            photoRows.add(toPhotoRow(photo, ++sortOrder));
+            noteRows.addAll(toNoteRows(photo));
+        }
+        long bytes = photoBytes(photoRows) + noteBytes(noteRows);
+        writeExecutor.execute(() -> {
+            dao.replaceAll(photoRows, noteRows);
+            MeteredPhotoStorage.BYTES_WRITTEN.add(bytes);
+        });
+    }
+
+    @Override
+    public void photoAdded(List<PhotoItem> photos, PhotoItem photo) {
+        if (photo.getPhotoUri() == null) {
+            return;
+        }
+        String photoId = photo.getId();
+        String photoUri = photo.getPhotoUri().toString();
+        String uriKey = PhotoUris.normalize(photo.getPhotoUri());
+        List<NoteEntity> noteRows = toNoteRows(photo);
+        long bytes = length(photoId) + length(photoUri) + length(uriKey) + 8 + noteBytes(noteRows);
+        writeExecutor.execute(() -> {
+            dao.addPhoto(photoId, photoUri, uriKey, noteRows);
+            MeteredPhotoStorage.BYTES_WRITTEN.add(bytes);
+        });
+    }
+
+    @Override
+    public void photosAdded(List<PhotoItem> photos, List<PhotoItem> added) {
+        List<PhotoEntity> photoRows = new ArrayList<>(added.size());
+        List<NoteEntity> noteRows = new ArrayList<>();
+        for (PhotoItem photo : added) {
+            if (photo.getPhotoUri() != null) {
+                photoRows.add(toPhotoRow(photo, 0));
+                noteRows.addAll(toNoteRows(photo));
+            }
+        }
+        if (!photoRows.isEmpty()) {
+            long bytes = photoBytes(photoRows) + noteBytes(noteRows);
+            writeExecutor.execute(() -> {
+                dao.addPhotos(photoRows, noteRows);
+                MeteredPhotoStorage.BYTES_WRITTEN.add(bytes);
+            });
+        }
+    }
+
+    @Override
+    public void photoRemoved(List<PhotoItem> photos, PhotoItem photo) {
+        String photoId = photo.getId();
+        writeExecutor.execute(() -> dao.deletePhoto(photoId));
+    }
+
+    @Override
+    public void notesChanged(List<PhotoItem> photos, PhotoItem photo) {
+        String photoId = photo.getId();
+        List<NoteEntity> noteRows = toNoteRows(photo);
+        long bytes = noteBytes(noteRows);
+        writeExecutor.execute(() -> {
+            dao.replaceNotes(photoId, noteRows);
+            MeteredPhotoStorage.BYTES_WRITTEN.add(bytes);
+        });
+    }
+
+    // Appended, so no other row's position changes
+    @Override
+    public void noteAdded(List<PhotoItem> photos, PhotoItem photo, PhotoNote note) {
+        NoteEntity row = new NoteEntity(photo.getId(), note.getId(), photo.getNotes().size() - 1,
+                note.getText(), note.getX(), note.getY());
+        long bytes = rowBytes(row);
+        writeExecutor.execute(() -> {
+            dao.insertNote(row);
+            MeteredPhotoStorage.BYTES_WRITTEN.add(bytes);
+        });
+    }
+
+    @Override
+    public void noteRemoved(List<PhotoItem> photos, PhotoItem photo, int position) {
+        String photoId = photo.getId();
+        writeExecutor.execute(() -> dao.removeNote(photoId, position));
+    }
+
+    @Override
+    public void flush() {
+        try {
+            writeExecutor.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not save photos", e.getCause());
+        }
+    }
+
+    private <T> T runOnWriter(Callable<T> task) {
+        try {
+            return writeExecutor.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading photos", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not read photos", e.getCause());
+        }
+    }
+
+    private static PhotoEntity toPhotoRow(PhotoItem photo, long sortOrder) {
+        Uri uri = photo.getPhotoUri();
+        return new PhotoEntity(photo.getId(), uri.toString(), PhotoUris.normalize(uri), sortOrder);
+    }
+
+    // Rows are built on the caller's thread so the writer never reads a list the UI is still mutating
+    private static List<NoteEntity> toNoteRows(PhotoItem photo) {
+        List<PhotoNote> notes = photo.getNotes();
+        List<NoteEntity> rows = new ArrayList<>(notes.size());
+        for (int i = 0; i < notes.size(); i++) {
+            PhotoNote note = notes.get(i);
+            rows.add(new NoteEntity(photo.getId(), note.getId(), i, note.getText(), note.getX(), note.getY()));
+        }
+        return rows;
+    }
+
+    // SQLite does the actual I/O, so the byte counters get the row payload instead: UTF-16 lengths
+    // of the text columns plus the numeric ones. Page, index and journal overhead is not included.
+    private static long photoBytes(List<PhotoEntity> rows) {
+        long bytes = 0;
+        for (PhotoEntity row : rows) {
+            bytes += rowBytes(row);
+        }
+        return bytes;
+    }
+
+    private static long noteBytes(List<NoteEntity> rows) {
+        long bytes = 0;
+        for (NoteEntity row : rows) {
+            bytes += rowBytes(row);
+        }
+        return bytes;
+    }
+
+    private static long rowBytes(PhotoEntity row) {
+        return length(row.id) + length(row.photoUri) + length(row.uriKey) + 8;
+    }
+
+    private static long rowBytes(NoteEntity row) {
+        return length(row.photoId) + length(row.noteId) + length(row.text) + 20;
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+}
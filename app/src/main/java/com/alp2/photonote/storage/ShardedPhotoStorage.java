@@ -0,0 +1,294 @@
+package com.alp2.photonote.storage;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import com.alp2.photonote.model.PhotoItem;
+import com.google.gson.Gson;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// One small file per photo under photos/, named after the photo id and written with AtomicFile.
+// A manifest of ids, one per line, defines the gallery order. Editing notes rewrites a single
+// shard; adding or removing a photo rewrites that shard and the manifest. A shard that cannot be
+// read costs only that photo.
+//
+// Shards are read on a pool while the writer may be rewriting them. AtomicFile is not safe across
+// threads (openRead() restores the backup and deletes the base file a write is producing), so
+// every read, write and delete of a shard holds that shard's lock from SHARD_LOCKS.
+public class ShardedPhotoStorage implements PhotoStorage {
+    private static final String SHARD_DIR = "photos";
+    private static final String MANIFEST_FILE = "manifest";
+    private static final String SHARD_SUFFIX = ".shard";
+    private static final int READ_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    // Striped: a shard's lock is picked by its id's hash, a power of two so the mask works
+    private static final int SHARD_LOCKS = 64;
+
+    private final File shardDir;
+    private final AtomicFile manifestFile;
+    private final Gson gson = PrefsPhotoStorage.createGson();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final ExecutorService readers = Executors.newFixedThreadPool(READ_THREADS);
+    private final Object[] shardLocks = new Object[SHARD_LOCKS];
+
+    public ShardedPhotoStorage(Context context) {
+        shardDir = new File(context.getFilesDir(), SHARD_DIR);
+        manifestFile = new AtomicFile(new File(shardDir, MANIFEST_FILE));
+        for (int i = 0; i < SHARD_LOCKS; i++) {
+            shardLocks[i] = new Object();
+        }
+    }
+
+    @Override
+    public ArrayList<PhotoItem> loadPhotos() {
+        ArrayList<PhotoItem> photos = new ArrayList<>();
+        loadPhotos(Integer.MAX_VALUE, photos::addAll);
+        return photos;
+    }
+
+    @Override
+    public void loadPhotos(int batchSize, BatchCallback callback) {
+        List<String> ids = runOnWriter(this::readManifest);
+        for (int start = 0; start < ids.size(); start += batchSize) {
+            List<String> batchIds = ids.subList(start, Math.min(start + batchSize, ids.size()));
+            List<Future<PhotoItem>> reads = new ArrayList<>(batchIds.size());
+            for (String id : batchIds) {
+                reads.add(readers.submit(() -> readShard(id)));
+            }
+
+            List<PhotoItem> batch = new ArrayList<>(batchIds.size());
+            for (Future<PhotoItem> read : reads) {
+                PhotoItem photo = await(read);
+                if (photo != null) {
+                    batch.add(photo);
+                }
+            }
+            callback.onBatch(batch);
+        }
+    }
+
+    @Override
+    public void savePhotos(List<PhotoItem> photos) {
+        List<PhotoItem> snapshot = copyOf(photos);
+        writer.execute(() -> {
+            try {
+                Set<String> keep = new HashSet<>();
+                List<String> ids = new ArrayList<>(snapshot.size());
+                for (PhotoItem photo : snapshot) {
+                    writeShard(photo);
+                    keep.add(shardName(photo.getId()));
+                    ids.add(photo.getId());
+                }
+                writeManifest(ids);
+
+                File[] files = shardDir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.getName().endsWith(SHARD_SUFFIX) && !keep.contains(file.getName())) {
+                            synchronized (lockFor(file.getName())) {
+                                new AtomicFile(file).delete();
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public void photoAdded(List<PhotoItem> photos, PhotoItem photo) {
+        PhotoItem copy = photo.copy();
+        List<String> ids = idsOf(photos);
+        writer.execute(() -> {
+            try {
+                // Shard first: a manifest entry must never point at a shard that does not exist yet
+                writeShard(copy);
+                writeManifest(ids);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public void photosAdded(List<PhotoItem> photos, List<PhotoItem> added) {
+        List<PhotoItem> copies = copyOf(added);
+        List<String> ids = idsOf(photos);
+        writer.execute(() -> {
+            try {
+                for (PhotoItem copy : copies) {
+                    writeShard(copy);
+                }
+                writeManifest(ids);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public void photoRemoved(List<PhotoItem> photos, PhotoItem photo) {
+        String id = photo.getId();
+        List<String> ids = idsOf(photos);
+        writer.execute(() -> {
+            try {
+                writeManifest(ids);
+                synchronized (lockFor(shardName(id))) {
+                    shardFile(id).delete();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public void notesChanged(List<PhotoItem> photos, PhotoItem photo) {
+        PhotoItem copy = photo.copy();
+        writer.execute(() -> {
+            try {
+                writeShard(copy);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public void flush() {
+        runOnWriter(() -> null);
+    }
+
+    private List<String> readManifest() throws IOException {
+        List<String> ids = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(manifestFile.openRead(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    ids.add(line);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            return ids;
+        }
+        return ids;
+    }
+
+    private void writeManifest(List<String> ids) throws IOException {
+        ensureShardDir();
+        FileOutputStream stream = manifestFile.startWrite();
+        try {
+            Writer out = new OutputStreamWriter(new BufferedOutputStream(stream), StandardCharsets.UTF_8);
+            for (String id : ids) {
+                out.write(id);
+                out.write('\n');
+            }
+            out.flush();
+            manifestFile.finishWrite(stream);
+        } catch (IOException | RuntimeException e) {
+            manifestFile.failWrite(stream);
+            throw e;
+        }
+    }
+
+    private PhotoItem readShard(String id) {
+        synchronized (lockFor(shardName(id))) {
+            try (InputStream in = shardFile(id).openRead()) {
+                List<PhotoItem> photos = CatalogCodec.read(in, gson).photos;
+                return photos.isEmpty() ? null : photos.get(0);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    private void writeShard(PhotoItem photo) throws IOException {
+        ensureShardDir();
+        AtomicFile file = shardFile(photo.getId());
+        // Serialized before taking the lock, so a reader of this shard only waits for the file I/O
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CatalogCodec.write(bytes, 0, Collections.singletonList(photo));
+        synchronized (lockFor(shardName(photo.getId()))) {
+            FileOutputStream stream = file.startWrite();
+            try {
+                bytes.writeTo(stream);
+                file.finishWrite(stream);
+            } catch (IOException | RuntimeException e) {
+                file.failWrite(stream);
+                throw e;
+            }
+        }
+    }
+
+    private Object lockFor(String shardName) {
+        return shardLocks[shardName.hashCode() & (SHARD_LOCKS - 1)];
+    }
+
+    private AtomicFile shardFile(String id) {
+        return new AtomicFile(new File(shardDir, shardName(id)));
+    }
+
+    private static String shardName(String id) {
+        return id.replaceAll("[^A-Za-z0-9_-]", "_") + SHARD_SUFFIX;
+    }
+
+    private void ensureShardDir() throws IOException {
+        if (!shardDir.isDirectory() && !shardDir.mkdirs()) {
+            throw new IOException("Could not create " + shardDir);
+        }
+    }
+
+    private static List<PhotoItem> copyOf(List<PhotoItem> photos) {
+        List<PhotoItem> copies = new ArrayList<>(photos.size());
+        for (PhotoItem photo : photos) {
+            copies.add(photo.copy());
+        }
+        return copies;
+    }
+
+    private static List<String> idsOf(List<PhotoItem> photos) {
+        List<String> ids = new ArrayList<>(photos.size());
+        for (PhotoItem photo : photos) {
+            ids.add(photo.getId());
+        }
+        return ids;
+    }
+
+    private <T> T runOnWriter(Callable<T> task) {
+        return await(writer.submit(task));
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while accessing the catalog", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not access the catalog", e.getCause());
+        }
+    }
+}
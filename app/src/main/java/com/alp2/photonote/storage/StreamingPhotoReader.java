@@ -0,0 +1,115 @@
+package com.alp2.photonote.storage;
+
+import android.net.Uri;
+import com.alp2.photonote.model.PhotoItem;
+import com.alp2.photonote.model.PhotoNote;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads the legacy JSON catalog item by item instead of building the whole object graph at once.
+// With deferNotes, each item keeps its notes array as a compact JSON string of its own, parsed
+// into PhotoNotes the first time the notes are requested. Nothing holds on to the source string,
+// and opening a photo does not depend on where it sits in the catalog.
+public class StreamingPhotoReader {
+    private static final Type NOTES_TYPE = new TypeToken<ArrayList<PhotoNote>>(){}.getType();
+
+    private final Gson gson;
+    private final String json;
+    private final boolean deferNotes;
+
+    public StreamingPhotoReader(Gson gson, String json, boolean deferNotes) {
+        this.gson = gson;
+        this.json = json;
+        this.deferNotes = deferNotes;
+    }
+
+    public void read(int batchSize, PhotoStorage.BatchCallback callback) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            if (reader.peek() == JsonToken.NULL) {
+                return;
+            }
+
+            List<PhotoItem> batch = new ArrayList<>(batchSize);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else {
+                    batch.add(readPhoto(reader));
+                }
+
+                if (batch.size() >= batchSize) {
+                    callback.onBatch(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            reader.endArray();
+
+            if (!batch.isEmpty()) {
+                callback.onBatch(batch);
+            }
+        }
+    }
+
+    private PhotoItem readPhoto(JsonReader reader) throws IOException {
+        String id = null;
+        String uri = null;
+        List<PhotoNote> notes = null;
+        JsonArray rawNotes = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    id = reader.nextString();
+                    break;
+                case "photoUri":
+                    uri = reader.nextString();
+                    break;
+                case "notes":
+                    if (deferNotes) {
+                        rawNotes = JsonParser.parseReader(reader).getAsJsonArray();
+                    } else {
+                        notes = gson.fromJson(reader, NOTES_TYPE);
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        Uri photoUri = uri != null ? Uri.parse(uri) : null;
+        PhotoItem photo = new PhotoItem(id != null ? id : PhotoItem.legacyId(photoUri), photoUri);
+        if (deferNotes) {
+            if (rawNotes != null && rawNotes.size() > 0) {
+                // The element tree is dropped here; only its text waits for the first getNotes()
+                String json = rawNotes.toString();
+                photo.setDeferredNotes(rawNotes.size(), () -> parseNotes(json));
+            }
+        } else {
+            photo.setNotes(notes);
+        }
+        return photo;
+    }
+
+    private List<PhotoNote> parseNotes(String notesJson) {
+        List<PhotoNote> notes = gson.fromJson(notesJson, NOTES_TYPE);
+        return notes != null ? notes : new ArrayList<>();
+    }
+}
@@ -0,0 +1,447 @@
+package com.alp2.photonote.storage;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Fixed-size JPEG thumbnails of the library's images in an app-private cache directory, so the
+// grid never decodes a full-size original. A file is named <sha1 of the URI>_<lastModified>_<size>.jpg
+// after what the provider reported for the source when the thumbnail was made; an image that was
+// edited in place reports other values and gets a new thumbnail. The directory is kept under a
+// byte budget by evicting the least recently served thumbnails.
+//
+// get() only consults the in-memory index, so it is cheap enough for onBindViewHolder. The index
+// is rebuilt from a directory scan on the pool; until that finishes get() knows only the files
+// handed to prime(). Provider queries, decoding and writing happen on the pool too; listeners hear
+// about every thumbnail that was written, dropped or found, on the main thread.
+public final class ThumbnailStore {
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    // Short side of a thumbnail; a bit over a two-column grid cell on common phones
+    private static final int THUMBNAIL_SIZE = 512;
+    private static final int JPEG_QUALITY = 85;
+    private static final int THREADS = 2;
+    private static final String DIRECTORY = "thumbnails";
+    private static ThumbnailStore instance;
+
+    public interface Listener {
+        // The thumbnail for uri was written, replaced, found on disk or could not be made; get() has the answer
+        void onThumbnailChanged(Uri uri);
+    }
+
+    private final ContentResolver resolver;
+    private final File directory;
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Held for the whole scan, which must not hold this while it lists the directory
+    private final Object scanLock = new Object();
+    private volatile boolean scanned;
+    // Everything below is guarded by this
+    // Access order: iteration starts at the least recently served thumbnail
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    // Keys with a generate or validate job queued or running
+    private final Set<String> pending = new HashSet<>();
+    // Sources that could not be decoded this process; not retried until restart
+    private final Set<String> failed = new HashSet<>();
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long totalBytes;
+
+    private static final class Entry {
+        final File file;
+        final long lastModified;
+        final long size;
+        final long bytes;
+        // The source metadata was checked against the provider since this process started
+        boolean validated;
+
+        Entry(File file, long lastModified, long size, long bytes) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.bytes = bytes;
+        }
+    }
+
+    ThumbnailStore(Context context, File directory) {
+        this.resolver = context.getContentResolver();
+        this.directory = directory;
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        // Index the directory before the first bind asks for it
+        executor.execute(this::ensureScanned);
+    }
+
+    public static synchronized ThumbnailStore getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            instance = new ThumbnailStore(appContext, new File(appContext.getCacheDir(), DIRECTORY));
+        }
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Makes a thumbnail known before the scan, for a first screen drawn from a saved snapshot.
+    // name is what name(uri) returned when the snapshot was saved.
+    public synchronized void prime(Uri uri, String name) {
+        if (scanned) {
+            return;
+        }
+        String key = keyFor(uri);
+        File file = new File(directory, name);
+        long[] metadata = parseName(name, key);
+        if (metadata != null && !entries.containsKey(key) && file.isFile()) {
+            // The scan replaces this with the real size
+            entries.put(key, new Entry(file, metadata[0], metadata[1], 0));
+        }
+    }
+
+    // File name of uri's thumbnail, or null; unlike get() this neither validates nor counts as a use
+    public String name(Uri uri) {
+        ensureScanned();
+        synchronized (this) {
+            Entry entry = entries.get(keyFor(uri));
+            return entry != null ? entry.file.getName() : null;
+        }
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    // The local thumbnail for uri, or null if there is none yet. Served thumbnails are checked
+    // against the source once per process in the background.
+    public synchronized File get(Uri uri) {
+        String key = keyFor(uri);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.validated) {
+            entry.validated = true;
+            schedule(uri, key);
+        }
+        return entry.file;
+    }
+
+    // Queues generation of uri's thumbnail unless it exists, is queued, or failed before
+    public synchronized void request(Uri uri) {
+        String key = keyFor(uri);
+        // Before the scan a missing key may still be on disk; the job finds it
+        if ((!scanned || !entries.containsKey(key)) && !failed.contains(key)) {
+            schedule(uri, key);
+        }
+    }
+
+    // True if the source could not be decoded; callers should show it some other way
+    public synchronized boolean hasFailed(Uri uri) {
+        return failed.contains(keyFor(uri));
+    }
+
+    public void remove(Uri uri) {
+        ensureScanned();
+        synchronized (this) {
+            Entry entry = entries.remove(keyFor(uri));
+            if (entry != null) {
+                delete(entry);
+            }
+        }
+    }
+
+    // For a served thumbnail that would not load: forgets it on the pool, so the next request()
+    // makes it again
+    public void discard(Uri uri) {
+        executor.execute(() -> remove(uri));
+    }
+
+    private void schedule(Uri uri, String key) {
+        if (pending.add(key)) {
+            executor.execute(() -> refresh(uri, key));
+        }
+    }
+
+    // Makes the thumbnail for key match the source's current metadata
+    private void refresh(Uri uri, String key) {
+        ensureScanned();
+        long[] metadata = readMetadata(uri);
+        Entry current;
+        synchronized (this) {
+            current = entries.get(key);
+        }
+        if (current != null && matches(current, metadata)) {
+            // Persists the LRU position across restarts, where the scan orders by modification time
+            current.file.setLastModified(System.currentTimeMillis());
+            synchronized (this) {
+                pending.remove(key);
+            }
+            // A cell bound before the scan may be waiting for a thumbnail that was there all along
+            notifyChanged(uri);
+            return;
+        }
+
+        File file = new File(directory, key + "_" + metadata[0] + "_" + metadata[1] + ".jpg");
+        boolean written = write(uri, file);
+        synchronized (this) {
+            pending.remove(key);
+            // A stale thumbnail goes either way; the adapter falls back to the source on failure
+            Entry stale = entries.remove(key);
+            if (stale != null && !stale.file.equals(file)) {
+                delete(stale);
+            } else if (stale != null) {
+                totalBytes -= stale.bytes;
+            }
+            if (written) {
+                Entry entry = new Entry(file, metadata[0], metadata[1], file.length());
+                entry.validated = true;
+                entries.put(key, entry);
+                totalBytes += entry.bytes;
+                trimToSize();
+            } else {
+                failed.add(key);
+            }
+        }
+        notifyChanged(uri);
+    }
+
+    private void notifyChanged(Uri uri) {
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onThumbnailChanged(uri);
+            }
+        });
+    }
+
+    // Decodes uri at roughly THUMBNAIL_SIZE on its short side, upright, and writes it as a JPEG
+    private boolean write(Uri uri, File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in == null) {
+                return false;
+            }
+            BitmapFactory.decodeStream(in, null, options);
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+        int shortSide = Math.min(options.outWidth, options.outHeight);
+        if (shortSide <= 0) {
+            return false;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (shortSide / (options.inSampleSize * 2) >= THUMBNAIL_SIZE) {
+            options.inSampleSize *= 2;
+        }
+
+        Bitmap decoded;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            decoded = in != null ? BitmapFactory.decodeStream(in, null, options) : null;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+        if (decoded == null) {
+            return false;
+        }
+        float scale = Math.min(1f, THUMBNAIL_SIZE / (float) Math.min(decoded.getWidth(), decoded.getHeight()));
+        Matrix matrix = new Matrix();
+        matrix.postScale(scale, scale);
+        matrix.postRotate(PhotoUris.readOrientation(resolver, uri));
+        Bitmap thumbnail = Bitmap.createBitmap(decoded, 0, 0, decoded.getWidth(), decoded.getHeight(), matrix, true);
+
+        File temp = new File(directory, file.getName() + ".tmp");
+        boolean written = false;
+        try {
+            if (directory.isDirectory() || directory.mkdirs()) {
+                try (FileOutputStream out = new FileOutputStream(temp)) {
+                    written = thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+                }
+                written = written && temp.renameTo(file);
+            }
+        } catch (IOException e) {
+            written = false;
+        } finally {
+            if (thumbnail != decoded) {
+                thumbnail.recycle();
+            }
+            decoded.recycle();
+            if (!written) {
+                temp.delete();
+            }
+        }
+        return written;
+    }
+
+    // { lastModified, size } as the provider reports them, -1 where it does not. Document
+    // providers have last_modified in milliseconds, MediaStore has date_modified in seconds.
+    private long[] readMetadata(Uri uri) {
+        long[] metadata = { -1, -1 };
+        try (Cursor cursor = resolver.query(uri, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int column = cursor.getColumnIndex(DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                if (column >= 0 && !cursor.isNull(column)) {
+                    metadata[0] = cursor.getLong(column);
+                } else if ((column = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED)) >= 0
+                        && !cursor.isNull(column)) {
+                    metadata[0] = cursor.getLong(column) * 1000;
+                }
+                column = cursor.getColumnIndex(OpenableColumns.SIZE);
+                if (column >= 0 && !cursor.isNull(column)) {
+                    metadata[1] = cursor.getLong(column);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Revoked permission or a provider without metadata; the thumbnail is kept as it is
+        }
+        return metadata;
+    }
+
+    private static boolean matches(Entry entry, long[] metadata) {
+        if (metadata[0] < 0 && metadata[1] < 0) {
+            // Nothing to compare against
+            return true;
+        }
+        return entry.lastModified == metadata[0] && entry.size == metadata[1];
+    }
+
+    private void trimToSize() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            delete(entry);
+        }
+    }
+
+    private void delete(Entry entry) {
+        totalBytes -= entry.bytes;
+        entry.file.delete();
+    }
+
+    // Rebuilds the index from the file names, oldest file first so access order resumes where the
+    // last process left it. Leftovers of interrupted writes and superseded thumbnails are deleted.
+    // Runs on the pool, so the directory is listed without holding this and get() stays cheap.
+    private void ensureScanned() {
+        if (scanned) {
+            return;
+        }
+        synchronized (scanLock) {
+            if (scanned) {
+                return;
+            }
+            File[] files = directory.listFiles();
+            if (files == null) {
+                files = new File[0];
+            }
+            Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            Map<String, Entry> newest = new HashMap<>();
+            List<String> order = new ArrayList<>();
+            for (File file : files) {
+                String name = file.getName();
+                String key = name.indexOf('_') > 0 ? name.substring(0, name.indexOf('_')) : "";
+                long[] metadata = parseName(name, key);
+                if (metadata == null) {
+                    file.delete();
+                    continue;
+                }
+                Entry previous = newest.put(key, new Entry(file, metadata[0], metadata[1], file.length()));
+                if (previous != null) {
+                    previous.file.delete();
+                } else {
+                    order.add(key);
+                }
+            }
+            synchronized (this) {
+                // A key keeps the position of its first file; close enough for a rarely hit case.
+                // Entries written since the pool started are newer than anything on disk.
+                Map<String, Entry> live = new LinkedHashMap<>(entries);
+                entries.clear();
+                totalBytes = 0;
+                for (String key : order) {
+                    Entry entry = newest.get(key);
+                    Entry current = live.remove(key);
+                    if (current != null && current.bytes > 0) {
+                        entry = current;
+                    } else if (current != null) {
+                        entry.validated = current.validated;
+                    }
+                    entries.put(key, entry);
+                    totalBytes += entry.bytes;
+                }
+                for (Map.Entry<String, Entry> written : live.entrySet()) {
+                    if (written.getValue().bytes > 0) {
+                        entries.put(written.getKey(), written.getValue());
+                        totalBytes += written.getValue().bytes;
+                    }
+                }
+                trimToSize();
+                scanned = true;
+            }
+        }
+    }
+
+    // { lastModified, size } from a thumbnail file name for key, or null if it is not one
+    private static long[] parseName(String name, String key) {
+        if (!name.endsWith(".jpg") || !name.startsWith(key + "_")) {
+            return null;
+        }
+        String[] parts = name.substring(key.length() + 1, name.length() - 4).split("_");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            return new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String keyFor(Uri uri) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                .digest(PhotoUris.normalize(uri).getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.alp2.photonote.storage;
+
+import com.alp2.photonote.metrics.Counter;
+import com.alp2.photonote.metrics.Metrics;
+import com.alp2.photonote.model.PhotoItem;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Moves whole-catalog saves off the calling thread. Saves that arrive while one is still waiting
+// for the writer replace it, so a burst of edits costs one serialization of the latest snapshot.
+public class WriteBehindPhotoStorage implements PhotoStorage {
+    private static final Counter QUEUED_SAVES = Metrics.counter("storage.write_behind.queued");
+    private static final Counter COALESCED_SAVES = Metrics.counter("storage.write_behind.coalesced");
+    private static final Counter WRITTEN_SAVES = Metrics.counter("storage.write_behind.written");
+
+    private final PhotoStorage delegate;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final AtomicReference<List<PhotoItem>> pending = new AtomicReference<>();
+
+    public WriteBehindPhotoStorage(PhotoStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ArrayList<PhotoItem> loadPhotos() {
+        flush();
+        return delegate.loadPhotos();
+    }
+
+    @Override
+    public void loadPhotos(int batchSize, BatchCallback callback) {
+        flush();
+        delegate.loadPhotos(batchSize, callback);
+    }
+
+    @Override
+    public void savePhotos(List<PhotoItem> photos) {
+        // The caller keeps mutating its items, so the writer gets its own copies
+        List<PhotoItem> snapshot = new ArrayList<>(photos.size());
+        for (PhotoItem photo : photos) {
+            snapshot.add(photo.copy());
+        }
+
+        QUEUED_SAVES.increment();
+        if (pending.getAndSet(snapshot) != null) {
+            COALESCED_SAVES.increment();
+            return;
+        }
+        writer.execute(this::writePending);
+    }
+
+    private void writePending() {
+        List<PhotoItem> snapshot = pending.getAndSet(null);
+        if (snapshot != null) {
+            delegate.savePhotos(snapshot);
+            WRITTEN_SAVES.increment();
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            writer.submit(this::writePending).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not save photos", e.getCause());
+        }
+        delegate.flush();
+    }
+}
@@ -0,0 +1,41 @@
+package com.alp2.photonote.storage.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "notes",
+        foreignKeys = @ForeignKey(entity = PhotoEntity.class,
+                parentColumns = "id",
+                childColumns = "photo_id",
+                onDelete = ForeignKey.CASCADE),
+        indices = {@Index(value = {"photo_id", "position"})})
+public class NoteEntity {
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    @ColumnInfo(name = "photo_id")
+    @NonNull
+    public String photoId;
+
+    // PhotoNote.getId(); the row id above is regenerated whenever a photo's notes are replaced
+    @ColumnInfo(name = "note_id")
+    public String noteId;
+
+    public int position;
+    public String text;
+    public float x;
+    public float y;
+
+    public NoteEntity(@NonNull String photoId, String noteId, int position, String text, float x, float y) {
+        this.photoId = photoId;
+        this.noteId = noteId;
+        this.position = position;
+        this.text = text;
+        this.x = x;
+        this.y = y;
+    }
+}
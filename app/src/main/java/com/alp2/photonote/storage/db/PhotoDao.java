@@ -0,0 +1,132 @@
+package com.alp2.photonote.storage.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+import java.util.List;
+
+@Dao
+public abstract class PhotoDao {
+
+    @Query("SELECT * FROM photos WHERE sort_order > :afterSortOrder ORDER BY sort_order LIMIT :limit")
+    public abstract List<PhotoEntity> getPhotosAfter(long afterSortOrder, int limit);
+
+    @Query("SELECT photos.id, photos.photo_uri, "
+            + "(SELECT COUNT(*) FROM notes WHERE notes.photo_id = photos.id) AS note_count "
+            + "FROM photos ORDER BY sort_order LIMIT :limit OFFSET :offset")
+    public abstract List<PhotoSummary> getPhotoSummaries(int offset, int limit);
+
+    // Keyset variants of the above for the pager: they seek on the sort_order index instead of
+    // stepping over every row in front of the page, so a deep page costs the same as the first
+    @Query("SELECT photos.id, photos.photo_uri, "
+            + "(SELECT COUNT(*) FROM notes WHERE notes.photo_id = photos.id) AS note_count "
+            + "FROM photos WHERE sort_order > :afterSortOrder ORDER BY sort_order LIMIT :limit")
+    public abstract List<PhotoSummary> getPhotoSummariesAfter(long afterSortOrder, int limit);
+
+    // Newest first; the caller reverses the page
+    @Query("SELECT photos.id, photos.photo_uri, "
+            + "(SELECT COUNT(*) FROM notes WHERE notes.photo_id = photos.id) AS note_count "
+            + "FROM photos WHERE sort_order < :beforeSortOrder ORDER BY sort_order DESC LIMIT :limit")
+    public abstract List<PhotoSummary> getPhotoSummariesBefore(long beforeSortOrder, int limit);
+
+    @Query("SELECT sort_order FROM photos WHERE id = :photoId")
+    public abstract Long getSortOrder(String photoId);
+
+    @Query("SELECT COUNT(*) FROM photos")
+    public abstract int countPhotos();
+
+    // Counted on the sort_order index, without reading the rows
+    @Query("SELECT COUNT(*) FROM photos WHERE sort_order < :sortOrder")
+    public abstract int countPhotosBefore(long sortOrder);
+
+    @Query("SELECT * FROM photos WHERE id = :photoId")
+    public abstract PhotoEntity getPhoto(String photoId);
+
+    @Query("SELECT id FROM photos WHERE uri_key = :uriKey LIMIT 1")
+    public abstract String findPhotoIdByUriKey(String uriKey);
+
+    @Query("SELECT * FROM notes WHERE photo_id IN (:photoIds) ORDER BY photo_id, position")
+    public abstract List<NoteEntity> getNotesFor(List<String> photoIds);
+
+    @Query("SELECT * FROM notes WHERE photo_id = :photoId ORDER BY position")
+    public abstract List<NoteEntity> getNotes(String photoId);
+
+    @Query("SELECT COALESCE(MAX(sort_order), 0) FROM photos")
+    public abstract long getMaxSortOrder();
+
+    // IGNORE rather than REPLACE: a REPLACE would delete the row and cascade away its notes
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    public abstract void insertPhoto(PhotoEntity photo);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    public abstract void insertPhotos(List<PhotoEntity> photos);
+
+    @Insert
+    public abstract void insertNotes(List<NoteEntity> notes);
+
+    @Insert
+    public abstract void insertNote(NoteEntity note);
+
+    // A seek on the (photo_id, position) index
+    @Query("DELETE FROM notes WHERE photo_id = :photoId AND position = :position")
+    public abstract void deleteNote(String photoId, int position);
+
+    @Query("UPDATE notes SET position = position - 1 WHERE photo_id = :photoId AND position > :position")
+    public abstract void shiftNotesDown(String photoId, int position);
+
+    @Query("DELETE FROM photos WHERE id = :photoId")
+    public abstract void deletePhoto(String photoId);
+
+    @Query("DELETE FROM notes WHERE photo_id = :photoId")
+    public abstract void deleteNotes(String photoId);
+
+    @Query("DELETE FROM photos")
+    public abstract void deleteAllPhotos();
+
+    @Transaction
+    public void addPhoto(String photoId, String photoUri, String uriKey, List<NoteEntity> notes) {
+        insertPhoto(new PhotoEntity(photoId, photoUri, uriKey, getMaxSortOrder() + 1));
+        if (!notes.isEmpty()) {
+            insertNotes(notes);
+        }
+    }
+
+    // Appends the photos after the current last one in list order; sort orders are assigned here
+    @Transaction
+    public void addPhotos(List<PhotoEntity> photos, List<NoteEntity> notes) {
+        long sortOrder = getMaxSortOrder();
+        for (PhotoEntity photo : photos) {
+            photo.sortOrder = ++sortOrder;
+        }
+        insertPhotos(photos);
+        if (!notes.isEmpty()) {
+            insertNotes(notes);
+        }
+    }
+
+    @Transaction
+    public void replaceNotes(String photoId, List<NoteEntity> notes) {
+        deleteNotes(photoId);
+        if (!notes.isEmpty()) {
+            insertNotes(notes);
+        }
+    }
+
+    // Deletes one row and closes the gap in one UPDATE, instead of rewriting the photo's notes
+    @Transaction
+    public void removeNote(String photoId, int position) {
+        deleteNote(photoId, position);
+        shiftNotesDown(photoId, position);
+    }
+
+    @Transaction
+    public void replaceAll(List<PhotoEntity> photos, List<NoteEntity> notes) {
+        deleteAllPhotos();
+        insertPhotos(photos);
+        if (!notes.isEmpty()) {
+            insertNotes(notes);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.alp2.photonote.storage.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import com.alp2.photonote.storage.PhotoUris;
+
+@Database(entities = {PhotoEntity.class, NoteEntity.class}, version = 3, exportSchema = false)
+public abstract class PhotoDatabase extends RoomDatabase {
+    private static final String DATABASE_NAME = "photonote.db";
+    private static volatile PhotoDatabase instance;
+
+    // Adds photos.uri_key. The key is computed in Java, so existing rows are backfilled one by one.
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE photos ADD COLUMN uri_key TEXT NOT NULL DEFAULT ''");
+            try (Cursor cursor = db.query("SELECT id, photo_uri FROM photos")) {
+                while (cursor.moveToNext()) {
+                    String uriKey = PhotoUris.normalize(Uri.parse(cursor.getString(1)));
+                    db.execSQL("UPDATE photos SET uri_key = ? WHERE id = ?",
+                            new Object[]{uriKey, cursor.getString(0)});
+                }
+            }
+            db.execSQL("CREATE INDEX IF NOT EXISTS index_photos_uri_key ON photos (uri_key)");
+        }
+    };
+
+    // Adds notes.note_id and gives every existing note a random one
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE notes ADD COLUMN note_id TEXT");
+            db.execSQL("UPDATE notes SET note_id = lower(hex(randomblob(16)))");
+        }
+    };
+
+    public abstract PhotoDao photoDao();
+
+    public static PhotoDatabase getInstance(Context context) {
+        if (instance == null) {
+            synchronized (PhotoDatabase.class) {
+                if (instance == null) {
+                    instance = Room.databaseBuilder(context.getApplicationContext(),
+                            PhotoDatabase.class, DATABASE_NAME)
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3)
+                            .build();
+                }
+            }
+        }
+        return instance;
+    }
+}
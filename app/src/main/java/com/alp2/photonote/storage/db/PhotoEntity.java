@@ -0,0 +1,34 @@
+package com.alp2.photonote.storage.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+@Entity(tableName = "photos", indices = {@Index(value = "sort_order"), @Index(value = "uri_key")})
+public class PhotoEntity {
+    @PrimaryKey
+    @NonNull
+    public String id;
+
+    @ColumnInfo(name = "photo_uri")
+    @NonNull
+    public String photoUri;
+
+    // PhotoUris.normalize(photoUri), so duplicate checks need not load the catalog
+    @ColumnInfo(name = "uri_key", defaultValue = "")
+    @NonNull
+    public String uriKey;
+
+    // Monotonic insertion order; deleting a photo leaves a gap instead of renumbering the rest
+    @ColumnInfo(name = "sort_order")
+    public long sortOrder;
+
+    public PhotoEntity(@NonNull String id, @NonNull String photoUri, @NonNull String uriKey, long sortOrder) {
+        this.id = id;
+        this.photoUri = photoUri;
+        this.uriKey = uriKey;
+        this.sortOrder = sortOrder;
+    }
+}
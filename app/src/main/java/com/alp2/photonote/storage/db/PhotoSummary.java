@@ -0,0 +1,14 @@
+package com.alp2.photonote.storage.db;
+
+import androidx.room.ColumnInfo;
+
+// One gallery cell: enough to show the thumbnail and the note badge without reading the notes
+public class PhotoSummary {
+    public String id;
+
+    @ColumnInfo(name = "photo_uri")
+    public String photoUri;
+
+    @ColumnInfo(name = "note_count")
+    public int noteCount;
+}
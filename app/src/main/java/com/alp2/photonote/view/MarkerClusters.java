@@ -0,0 +1,175 @@
+package com.alp2.photonote.view;
+
+import java.util.Arrays;
+
+// Grid clustering of normalized marker positions. The image is split into columns x rows cells and
+// the markers in one cell form a single cluster at their centroid. A cluster only keeps a count and
+// coordinate sums, so adding or removing a marker touches one cluster; a new grid (the zoom level
+// changed) needs rebuild().
+final class MarkerClusters {
+    private int columns = 1;
+    private int rows = 1;
+    // Open addressing from cell key to cluster index; keys are stored + 1 so that 0 means empty
+    private long[] tableKeys = new long[64];
+    private int[] tableClusters = new int[64];
+    // A cluster that drops to zero markers keeps its slot until the next rebuild
+    private long[] cellKeys = new long[16];
+    private float[] sumX = new float[16];
+    private float[] sumY = new float[16];
+    private int[] counts = new int[16];
+    private int clusterCount;
+
+    // Returns true if the grid changed; the clusters are then stale until rebuild()
+    boolean setGrid(int columns, int rows) {
+        if (columns == this.columns && rows == this.rows) {
+            return false;
+        }
+        this.columns = columns;
+        this.rows = rows;
+        return true;
+    }
+
+    void rebuild(MarkerGrid markers) {
+        clear();
+        for (int position = 0; position < markers.size(); position++) {
+            add(markers.getX(position), markers.getY(position));
+        }
+    }
+
+    void add(float x, float y) {
+        int cluster = clusterFor(cellKey(x, y), true);
+        counts[cluster]++;
+        sumX[cluster] += x;
+        sumY[cluster] += y;
+    }
+
+    void remove(float x, float y) {
+        int cluster = clusterFor(cellKey(x, y), false);
+        if (cluster < 0 || counts[cluster] == 0) {
+            return;
+        }
+        counts[cluster]--;
+        if (counts[cluster] == 0) {
+            sumX[cluster] = 0f;
+            sumY[cluster] = 0f;
+        } else {
+            sumX[cluster] -= x;
+            sumY[cluster] -= y;
+        }
+    }
+
+    void clear() {
+        Arrays.fill(tableKeys, 0L);
+        clusterCount = 0;
+    }
+
+    // Number of cluster slots, including emptied ones (count(cluster) == 0)
+    int size() {
+        return clusterCount;
+    }
+
+    int count(int cluster) {
+        return counts[cluster];
+    }
+
+    float centerX(int cluster) {
+        return sumX[cluster] / counts[cluster];
+    }
+
+    float centerY(int cluster) {
+        return sumY[cluster] / counts[cluster];
+    }
+
+    long key(int cluster) {
+        return cellKeys[cluster];
+    }
+
+    // Cluster for a cell key, or -1
+    int find(long key) {
+        return clusterFor(key, false);
+    }
+
+    long cellKey(float x, float y) {
+        return cellKeyAt(column(x), row(y));
+    }
+
+    long cellKeyAt(int column, int row) {
+        return ((long) column << 32) | row;
+    }
+
+    // Column (row) of the cell holding a normalized coordinate, clamped to the grid
+    int column(float x) {
+        return cell(x, columns);
+    }
+
+    int row(float y) {
+        return cell(y, rows);
+    }
+
+    // Normalized bounds of a cell: left, top, right, bottom
+    void cellBounds(long key, float[] out) {
+        int column = (int) (key >>> 32);
+        int row = (int) key;
+        out[0] = column / (float) columns;
+        out[1] = row / (float) rows;
+        out[2] = (column + 1) / (float) columns;
+        out[3] = (row + 1) / (float) rows;
+    }
+
+    private int clusterFor(long key, boolean create) {
+        int mask = tableKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (tableKeys[slot] != 0L) {
+            if (tableKeys[slot] == key + 1) {
+                return tableClusters[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) {
+            return -1;
+        }
+        if (clusterCount == counts.length) {
+            int capacity = clusterCount * 2;
+            cellKeys = Arrays.copyOf(cellKeys, capacity);
+            sumX = Arrays.copyOf(sumX, capacity);
+            sumY = Arrays.copyOf(sumY, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        int cluster = clusterCount++;
+        cellKeys[cluster] = key;
+        sumX[cluster] = 0f;
+        sumY[cluster] = 0f;
+        counts[cluster] = 0;
+        tableKeys[slot] = key + 1;
+        tableClusters[slot] = cluster;
+        // Keep the table at most half full
+        if (clusterCount * 2 > tableKeys.length) {
+            grow();
+        }
+        return cluster;
+    }
+
+    private void grow() {
+        tableKeys = new long[tableKeys.length * 2];
+        tableClusters = new int[tableKeys.length];
+        int mask = tableKeys.length - 1;
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            int slot = hash(cellKeys[cluster]) & mask;
+            while (tableKeys[slot] != 0L) {
+                slot = (slot + 1) & mask;
+            }
+            tableKeys[slot] = cellKeys[cluster] + 1;
+            tableClusters[slot] = cluster;
+        }
+    }
+
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    // Markers outside [0, 1] are kept in the border cells
+    private static int cell(float value, int cells) {
+        return Math.max(0, Math.min(cells - 1, (int) (value * cells)));
+    }
+}
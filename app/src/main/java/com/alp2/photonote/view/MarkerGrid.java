@@ -0,0 +1,205 @@
+package com.alp2.photonote.view;
+
+import java.util.Arrays;
+
+// Packed marker coordinates plus a uniform grid over them. Coordinates are normalized ([0, 1] on
+// both axes) and stored as x, y pairs in one growable float[]. Each grid cell keeps the positions
+// (indices) of the markers inside it, so a hit test or region query only visits the cells it
+// overlaps instead of every marker. Positions follow list order: removing a marker shifts the
+// positions after it, like List.remove.
+final class MarkerGrid {
+    private static final int CELLS = 32;
+
+    private final int[][] cells = new int[CELLS * CELLS][];
+    private final int[] cellSizes = new int[CELLS * CELLS];
+    // Packed x, y per position
+    private float[] xy = new float[64];
+    private int count;
+
+    int size() {
+        return count;
+    }
+
+    float getX(int position) {
+        return xy[position * 2];
+    }
+
+    float getY(int position) {
+        return xy[position * 2 + 1];
+    }
+
+    // Replaces every marker with count packed x, y pairs from source
+    void setAll(float[] source, int count) {
+        clear();
+        if (xy.length < count * 2) {
+            xy = new float[Math.max(count * 2, xy.length * 2)];
+        }
+        System.arraycopy(source, 0, xy, 0, count * 2);
+        this.count = count;
+        for (int position = 0; position < count; position++) {
+            addToCell(cellOf(xy[position * 2], xy[position * 2 + 1]), position);
+        }
+    }
+
+    void add(float x, float y) {
+        if (count * 2 == xy.length) {
+            xy = Arrays.copyOf(xy, xy.length * 2);
+        }
+        xy[count * 2] = x;
+        xy[count * 2 + 1] = y;
+        addToCell(cellOf(x, y), count);
+        count++;
+    }
+
+    void remove(int position) {
+        if (position < 0 || position >= count) {
+            return;
+        }
+        removeFromCell(cellOf(xy[position * 2], xy[position * 2 + 1]), position);
+        System.arraycopy(xy, (position + 1) * 2, xy, position * 2, (count - position - 1) * 2);
+        count--;
+        // Later markers move up one position; O(n), but removals are rare next to lookups
+        for (int cell = 0; cell < cells.length; cell++) {
+            int[] entries = cells[cell];
+            for (int i = 0; i < cellSizes[cell]; i++) {
+                if (entries[i] > position) {
+                    entries[i]--;
+                }
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(cellSizes, 0);
+        count = 0;
+    }
+
+    // Closest marker inside the ellipse with radii (radiusX, radiusY) around (x, y), or -1.
+    // Passing a pixel radius divided by the view size on each axis makes this a pixel-space circle.
+    int nearest(float x, float y, float radiusX, float radiusY) {
+        int firstCol = column(x - radiusX);
+        int lastCol = column(x + radiusX);
+        int firstRow = column(y - radiusY);
+        int lastRow = column(y + radiusY);
+
+        int best = -1;
+        float bestDistance = 1f;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                int cell = row * CELLS + col;
+                int[] entries = cells[cell];
+                for (int i = 0; i < cellSizes[cell]; i++) {
+                    int position = entries[i];
+                    float dx = (xy[position * 2] - x) / radiusX;
+                    float dy = (xy[position * 2 + 1] - y) / radiusY;
+                    float distance = dx * dx + dy * dy;
+                    if (distance <= bestDistance) {
+                        bestDistance = distance;
+                        best = position;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    // Positions of all markers inside the rectangle, in ascending order
+    int[] queryRect(float left, float top, float right, float bottom) {
+        int[] found = new int[16];
+        int size = 0;
+        for (int row = column(top); row <= column(bottom); row++) {
+            for (int col = column(left); col <= column(right); col++) {
+                int cell = row * CELLS + col;
+                int[] entries = cells[cell];
+                for (int i = 0; i < cellSizes[cell]; i++) {
+                    int position = entries[i];
+                    float x = xy[position * 2];
+                    float y = xy[position * 2 + 1];
+                    if (x >= left && x <= right && y >= top && y <= bottom) {
+                        if (size == found.length) {
+                            found = Arrays.copyOf(found, size * 2);
+                        }
+                        found[size++] = position;
+                    }
+                }
+            }
+        }
+        found = Arrays.copyOf(found, size);
+        Arrays.sort(found);
+        return found;
+    }
+
+    // Positions of all markers inside a closed polygon given as packed x, y pairs, in ascending order
+    int[] queryPolygon(float[] polygon, int pointCount) {
+        if (pointCount < 3) {
+            return new int[0];
+        }
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < pointCount; i++) {
+            left = Math.min(left, polygon[i * 2]);
+            right = Math.max(right, polygon[i * 2]);
+            top = Math.min(top, polygon[i * 2 + 1]);
+            bottom = Math.max(bottom, polygon[i * 2 + 1]);
+        }
+
+        int[] candidates = queryRect(left, top, right, bottom);
+        int size = 0;
+        for (int position : candidates) {
+            if (contains(polygon, pointCount, xy[position * 2], xy[position * 2 + 1])) {
+                candidates[size++] = position;
+            }
+        }
+        return Arrays.copyOf(candidates, size);
+    }
+
+    // Even-odd ray casting
+    private static boolean contains(float[] polygon, int pointCount, float x, float y) {
+        boolean inside = false;
+        for (int i = 0, j = pointCount - 1; i < pointCount; j = i++) {
+            float xi = polygon[i * 2];
+            float yi = polygon[i * 2 + 1];
+            float xj = polygon[j * 2];
+            float yj = polygon[j * 2 + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private void addToCell(int cell, int position) {
+        int[] entries = cells[cell];
+        if (entries == null) {
+            entries = new int[4];
+            cells[cell] = entries;
+        } else if (cellSizes[cell] == entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+            cells[cell] = entries;
+        }
+        entries[cellSizes[cell]++] = position;
+    }
+
+    private void removeFromCell(int cell, int position) {
+        int[] entries = cells[cell];
+        int size = cellSizes[cell];
+        for (int i = 0; i < size; i++) {
+            if (entries[i] == position) {
+                entries[i] = entries[size - 1];
+                cellSizes[cell] = size - 1;
+                return;
+            }
+        }
+    }
+
+    private static int cellOf(float x, float y) {
+        return column(y) * CELLS + column(x);
+    }
+
+    // Markers outside [0, 1] are kept in the border cells
+    private static int column(float value) {
+        return Math.max(0, Math.min(CELLS - 1, (int) (value * CELLS)));
+    }
+}
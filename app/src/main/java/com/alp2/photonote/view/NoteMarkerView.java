@@ -1,9 +1,13 @@
 package com.alp2.photonote.view;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
@@ -11,33 +15,83 @@ import android.view.View;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
+import com.alp2.photonote.metrics.Histogram;
+import com.alp2.photonote.metrics.Metrics;
+
+import java.util.Arrays;
 
 public class NoteMarkerView extends View {
     private final Paint markerPaint;
     private final Paint highlightPaint;
-    private final List<MarkerPoint> markers;
+    private final Paint matchPaint;
+    private final Paint clusterPaint;
+    private final Paint clusterTextPaint;
     private int highlightedMarker = -1;
+    // Markers whose notes matched a search, ringed until the markers change
+    private int[] searchMatches = new int[0];
+    // What the last drawMarkers() put on screen; a frame that copies the layer shows the same
+    private int drawnMarkers;
+    private int drawnClusters;
+    // Per onDraw(); the time covers recording the frame's drawing commands, not rasterizing them
+    private static final Histogram DRAW_TIME = Metrics.histogram("markers.draw", "us");
+    // Glyphs on screen that frame: lone markers, and cluster badges standing in for the rest
+    private static final Histogram DRAWN_MARKERS = Metrics.histogram("markers.draw.markers", "markers");
+    private static final Histogram DRAWN_CLUSTERS = Metrics.histogram("markers.draw.clusters", "clusters");
     private static final float MARKER_RADIUS = 20f;
+    private static final float CLUSTER_RADIUS = MARKER_RADIUS * 1.4f;
+    // Target cluster cell size in pixels; the grid is a power of two across the image, so cells
+    // end up between this and twice this, and pinching only re-clusters at each doubling
+    private static final float CLUSTER_CELL = MARKER_RADIUS * 3;
+    // Taps this close to a marker's centre select it; a little more forgiving than the drawn circle
+    private static final float HIT_RADIUS = MARKER_RADIUS * 1.5f;
+    // Holds the packed marker coordinates as well as the spatial index over them
+    private final MarkerGrid markerIndex = new MarkerGrid();
+    private final MarkerClusters clusters = new MarkerClusters();
+    // A tapped cluster is drawn as its individual markers until the grid changes
+    private boolean hasExpandedCell;
+    private long expandedCell;
+    private int[] expandedMarkers = new int[0];
+    // View-space x, y pairs for drawPoints(); refilled every frame, only grown outside onDraw
+    private float[] drawBuffer = new float[64];
+    private float[] clusterBuffer = new float[64];
+    private int[] clusterCounts = new int[32];
+    private final char[] countText = new char[11];
+    private final float[] cellBounds = new float[4];
+    private float clusterTextOffset;
+    private int pressedMarker = -1;
+    private int pressedCluster = -1;
     private OnMarkerTouchListener markerTouchListener;
+    private OnMarkerClickListener markerClickListener;
+    // Where the photo is drawn, when it does not simply fill this view (zoomed TiledImageView)
+    private final RectF imageBounds = new RectF();
+    private boolean hasImageBounds;
+    // Markers and clusters are rendered into this view-sized layer and re-rendered only inside
+    // layerDirty; the highlight ring is drawn on top each frame. While the image bounds keep
+    // moving (pan, pinch) the layer is bypassed and markers are drawn directly.
+    private boolean markerLayerEnabled = true;
+    private Bitmap markerLayer;
+    private Canvas markerLayerCanvas;
+    private final Rect layerDirty = new Rect();
+    // Image bounds the layer was rendered for, and the ones the last frame used
+    private final RectF layerImageBounds = new RectF();
+    private final RectF lastDrawnBounds = new RectF();
+    private final RectF frameBounds = new RectF();
+    private final Rect dirtyRegion = new Rect();
 
     public interface OnMarkerTouchListener {
         void onMarkerTouch(float x, float y);
     }
 
+    public interface OnMarkerClickListener {
+        void onMarkerClick(int position);
+    }
+
     public void setOnMarkerTouchListener(OnMarkerTouchListener listener) {
         this.markerTouchListener = listener;
     }
 
-    public static class MarkerPoint {
-        public float x;
-        public float y;
-
-        public MarkerPoint(float x, float y) {
-            this.x = x;
-            this.y = y;
-        }
+    public void setOnMarkerClickListener(OnMarkerClickListener listener) {
+        this.markerClickListener = listener;
     }
 
     public NoteMarkerView(@NonNull Context context) {
@@ -53,7 +107,10 @@ public class NoteMarkerView extends View {
         
         markerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         markerPaint.setColor(Color.RED);
-        markerPaint.setStyle(Paint.Style.FILL);
+        // Round points of this width are the marker circles; all of them go out in one drawPoints()
+        markerPaint.setStyle(Paint.Style.STROKE);
+        markerPaint.setStrokeCap(Paint.Cap.ROUND);
+        markerPaint.setStrokeWidth(MARKER_RADIUS * 2);
         markerPaint.setAlpha(180);
 
         highlightPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
@@ -61,16 +118,103 @@ public class NoteMarkerView extends View {
         highlightPaint.setStyle(Paint.Style.STROKE);
         highlightPaint.setStrokeWidth(4f);
 
-        markers = new ArrayList<>();
+        matchPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        matchPaint.setColor(Color.CYAN);
+        matchPaint.setStyle(Paint.Style.STROKE);
+        matchPaint.setStrokeWidth(4f);
+
+        clusterPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        clusterPaint.setColor(Color.rgb(183, 28, 28));
+        clusterPaint.setStyle(Paint.Style.STROKE);
+        clusterPaint.setStrokeCap(Paint.Cap.ROUND);
+        clusterPaint.setStrokeWidth(CLUSTER_RADIUS * 2);
+        clusterPaint.setAlpha(200);
+
+        clusterTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        clusterTextPaint.setColor(Color.WHITE);
+        clusterTextPaint.setTextAlign(Paint.Align.CENTER);
+        clusterTextPaint.setTextSize(CLUSTER_RADIUS);
+        clusterTextPaint.setFakeBoldText(true);
+        // Baseline offset that centres digits vertically on the cluster
+        clusterTextOffset = -(clusterTextPaint.ascent() + clusterTextPaint.descent()) / 2;
+
         setClickable(true);
     }
 
+    // The layer costs one ARGB bitmap the size of this view; without it every redraw paints all clusters
+    public void setMarkerLayerEnabled(boolean enabled) {
+        markerLayerEnabled = enabled;
+        if (!enabled) {
+            releaseMarkerLayer();
+        }
+        invalidate();
+    }
+
+    // Keeps markers pinned to the photo while it is zoomed or panned underneath
+    public void setImageBounds(RectF bounds) {
+        imageBounds.set(bounds);
+        hasImageBounds = true;
+        updateClusterGrid();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        releaseMarkerLayer();
+        updateClusterGrid();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseMarkerLayer();
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        if (event.getAction() == MotionEvent.ACTION_DOWN) {
-            if (markerTouchListener != null) {
-                markerTouchListener.onMarkerTouch(event.getX() / getWidth(), event.getY() / getHeight());
+        // Tapping a cluster expands it, whichever listener is set
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            pressedCluster = findClusterAt(event.getX(), event.getY());
+            if (pressedCluster >= 0) {
+                return true;
             }
+        } else if (pressedCluster >= 0) {
+            if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+                int clicked = pressedCluster;
+                pressedCluster = -1;
+                performClick();
+                expandCluster(clicked);
+            } else if (event.getActionMasked() == MotionEvent.ACTION_CANCEL) {
+                pressedCluster = -1;
+            }
+            return true;
+        }
+        if (markerClickListener != null) {
+            if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                pressedMarker = findMarkerAt(event.getX(), event.getY());
+                if (pressedMarker >= 0) {
+                    return true;
+                }
+            } else if (pressedMarker >= 0) {
+                if (event.getActionMasked() == MotionEvent.ACTION_UP) {
+                    int clicked = pressedMarker;
+                    pressedMarker = -1;
+                    performClick();
+                    markerClickListener.onMarkerClick(clicked);
+                } else if (event.getActionMasked() == MotionEvent.ACTION_CANCEL) {
+                    pressedMarker = -1;
+                }
+                return true;
+            }
+        }
+        // Without a listener, touches that missed every marker go through to the image below
+        if (markerTouchListener == null) {
+            return false;
+        }
+        if (event.getAction() == MotionEvent.ACTION_DOWN) {
+            markerTouchListener.onMarkerTouch(
+                    (event.getX() - imageLeft()) / imageWidth(), (event.getY() - imageTop()) / imageHeight());
             performClick();
             return true;
         }
@@ -83,48 +227,406 @@ public class NoteMarkerView extends View {
         return true;
     }
 
-    public void addMarker(float x, float y) {
-        markers.add(new MarkerPoint(x, y));
+    // Position of the drawn marker closest to (x, y) in view coordinates within the hit radius, or
+    // -1. Markers folded into a collapsed cluster are not drawn and cannot be hit.
+    public int findMarkerAt(float x, float y) {
+        float width = imageWidth();
+        float height = imageHeight();
+        if (width <= 0 || height <= 0) {
+            return -1;
+        }
+        int position = markerIndex.nearest((x - imageLeft()) / width, (y - imageTop()) / height,
+                HIT_RADIUS / width, HIT_RADIUS / height);
+        return position >= 0 && isClustered(position) ? -1 : position;
+    }
+
+    // Collapsed cluster (two or more markers) whose glyph covers (x, y), or -1. A glyph sits at
+    // its cell's centroid and cells are at least CLUSTER_CELL > CLUSTER_RADIUS wide, so only the
+    // touched cell and its neighbours can hold it.
+    private int findClusterAt(float x, float y) {
+        float width = imageWidth();
+        float height = imageHeight();
+        if (width <= 0 || height <= 0) {
+            return -1;
+        }
+        int column = clusters.column((x - imageLeft()) / width);
+        int row = clusters.row((y - imageTop()) / height);
+        int best = -1;
+        float bestDistance = CLUSTER_RADIUS * CLUSTER_RADIUS;
+        for (int r = Math.max(0, row - 1); r <= row + 1; r++) {
+            for (int c = Math.max(0, column - 1); c <= column + 1; c++) {
+                long key = clusters.cellKeyAt(c, r);
+                int cluster = clusters.find(key);
+                if (cluster < 0 || clusters.count(cluster) < 2 || isExpanded(key)) {
+                    continue;
+                }
+                float dx = imageLeft() + clusters.centerX(cluster) * width - x;
+                float dy = imageTop() + clusters.centerY(cluster) * height - y;
+                float distance = dx * dx + dy * dy;
+                if (distance <= bestDistance) {
+                    bestDistance = distance;
+                    best = cluster;
+                }
+            }
+        }
+        return best;
+    }
+
+    private boolean isClustered(int position) {
+        long key = clusters.cellKey(markerIndex.getX(position), markerIndex.getY(position));
+        int cluster = clusters.find(key);
+        return !isExpanded(key) && cluster >= 0 && clusters.count(cluster) > 1;
+    }
+
+    private boolean isExpanded(long key) {
+        return hasExpandedCell && expandedCell == key;
+    }
+
+    private void expandCluster(int cluster) {
+        hasExpandedCell = true;
+        expandedCell = clusters.key(cluster);
+        updateExpandedMarkers();
+        invalidateCell(expandedCell, clusters.centerX(cluster), clusters.centerY(cluster));
+    }
+
+    private void updateExpandedMarkers() {
+        if (!hasExpandedCell) {
+            expandedMarkers = new int[0];
+            return;
+        }
+        clusters.cellBounds(expandedCell, cellBounds);
+        int[] found = markerIndex.queryRect(cellBounds[0], cellBounds[1], cellBounds[2], cellBounds[3]);
+        // queryRect includes the cell's far edges, which belong to the neighbouring cells
+        int size = 0;
+        for (int position : found) {
+            if (clusters.cellKey(markerIndex.getX(position), markerIndex.getY(position)) == expandedCell) {
+                found[size++] = position;
+            }
+        }
+        expandedMarkers = Arrays.copyOf(found, size);
+    }
+
+    // Picks the power-of-two grid that gives cells of about CLUSTER_CELL pixels at the current zoom
+    private void updateClusterGrid() {
+        int columns = Integer.highestOneBit(Math.max(1, (int) (imageWidth() / CLUSTER_CELL)));
+        int rows = Integer.highestOneBit(Math.max(1, (int) (imageHeight() / CLUSTER_CELL)));
+        if (clusters.setGrid(columns, rows)) {
+            rebuildClusters();
+        }
+    }
+
+    private void rebuildClusters() {
+        clusters.rebuild(markerIndex);
+        hasExpandedCell = false;
+        expandedMarkers = new int[0];
+        pressedCluster = -1;
+        layerDirty.set(0, 0, getWidth(), getHeight());
+    }
+
+    // Positions of the markers inside a rectangle in view coordinates, ascending
+    public int[] findMarkersIn(RectF rect) {
+        float width = imageWidth();
+        float height = imageHeight();
+        if (width <= 0 || height <= 0) {
+            return new int[0];
+        }
+        return markerIndex.queryRect((rect.left - imageLeft()) / width, (rect.top - imageTop()) / height,
+                (rect.right - imageLeft()) / width, (rect.bottom - imageTop()) / height);
+    }
+
+    // Positions of the markers inside a lasso given as packed x, y view coordinates, ascending
+    public int[] findMarkersIn(float[] lasso, int pointCount) {
+        float width = imageWidth();
+        float height = imageHeight();
+        if (width <= 0 || height <= 0) {
+            return new int[0];
+        }
+        float[] normalized = new float[pointCount * 2];
+        for (int i = 0; i < pointCount; i++) {
+            normalized[i * 2] = (lasso[i * 2] - imageLeft()) / width;
+            normalized[i * 2 + 1] = (lasso[i * 2 + 1] - imageTop()) / height;
+        }
+        return markerIndex.queryPolygon(normalized, pointCount);
+    }
+
+    // Replaces all markers with count normalized x, y pairs from xy, with a single redraw
+    public void setMarkers(float[] xy, int count) {
+        markerIndex.setAll(xy, count);
+        rebuildClusters();
+        highlightedMarker = -1;
+        searchMatches = new int[0];
+        ensureDrawCapacity();
         invalidate();
     }
 
+    public void addMarker(float x, float y) {
+        markerIndex.add(x, y);
+        clusters.add(x, y);
+        updateExpandedMarkers();
+        ensureDrawCapacity();
+        invalidateCell(clusters.cellKey(x, y), x, y);
+    }
+
     public void removeMarker(int position) {
-        if (position >= 0 && position < markers.size()) {
-            markers.remove(position);
+        if (position >= 0 && position < markerIndex.size()) {
+            float x = markerIndex.getX(position);
+            float y = markerIndex.getY(position);
             if (highlightedMarker == position) {
+                invalidateHighlight();
                 highlightedMarker = -1;
             } else if (highlightedMarker > position) {
                 highlightedMarker--;
             }
-            invalidate();
+            if (searchMatches.length > 0) {
+                removeSearchMatch(position);
+            }
+            clusters.remove(x, y);
+            markerIndex.remove(position);
+            updateExpandedMarkers();
+            invalidateCell(clusters.cellKey(x, y), x, y);
         }
     }
 
     public void clearMarkers() {
-        markers.clear();
+        markerIndex.clear();
+        rebuildClusters();
         highlightedMarker = -1;
+        searchMatches = new int[0];
         invalidate();
     }
 
+    // Only the old and the new ring are repainted; the markers underneath come from the layer
     public void highlightMarker(int position) {
+        if (position == highlightedMarker) {
+            return;
+        }
+        invalidateHighlight();
         highlightedMarker = position;
+        invalidateHighlight();
+    }
+
+    // Rings the markers at positions, e.g. the notes a search found; replaces the previous set
+    public void setSearchMatches(int[] positions) {
+        searchMatches = positions.clone();
+        invalidate();
+    }
+
+    private void removeSearchMatch(int position) {
+        int size = 0;
+        for (int match : searchMatches) {
+            if (match != position) {
+                searchMatches[size++] = match > position ? match - 1 : match;
+            }
+        }
+        searchMatches = Arrays.copyOf(searchMatches, size);
         invalidate();
     }
 
     @Override
     protected void onDraw(@NonNull Canvas canvas) {
         super.onDraw(canvas);
-        
-        for (int i = 0; i < markers.size(); i++) {
-            MarkerPoint marker = markers.get(i);
-            float x = marker.x * getWidth();
-            float y = marker.y * getHeight();
-            
-            canvas.drawCircle(x, y, MARKER_RADIUS, markerPaint);
-            
-            if (i == highlightedMarker) {
-                canvas.drawCircle(x, y, MARKER_RADIUS * 1.5f, highlightPaint);
+        long start = System.nanoTime();
+
+        frameBounds.set(imageLeft(), imageTop(), imageLeft() + imageWidth(), imageTop() + imageHeight());
+        if (markerLayerEnabled && prepareMarkerLayer()) {
+            canvas.drawBitmap(markerLayer, 0f, 0f, null);
+        } else {
+            drawMarkers(canvas);
+        }
+        lastDrawnBounds.set(frameBounds);
+
+        for (int position : searchMatches) {
+            if (position < markerIndex.size()) {
+                canvas.drawCircle(imageLeft() + markerIndex.getX(position) * imageWidth(),
+                        imageTop() + markerIndex.getY(position) * imageHeight(), MARKER_RADIUS * 1.25f, matchPaint);
+            }
+        }
+
+        if (highlightedMarker >= 0 && highlightedMarker < markerIndex.size()) {
+            canvas.drawCircle(imageLeft() + markerIndex.getX(highlightedMarker) * imageWidth(),
+                    imageTop() + markerIndex.getY(highlightedMarker) * imageHeight(),
+                    MARKER_RADIUS * 1.5f, highlightPaint);
+        }
+        DRAW_TIME.recordSince(start);
+        DRAWN_MARKERS.record(drawnMarkers);
+        DRAWN_CLUSTERS.record(drawnClusters);
+    }
+
+    // Brings the dirty part of the layer up to date; false if markers should be drawn directly
+    private boolean prepareMarkerLayer() {
+        if (getWidth() == 0 || getHeight() == 0) {
+            return false;
+        }
+        if (!frameBounds.equals(layerImageBounds)) {
+            // Re-rendering the layer on every frame of a gesture would only add a copy
+            if (!frameBounds.equals(lastDrawnBounds)) {
+                return false;
             }
+            layerImageBounds.set(frameBounds);
+            layerDirty.set(0, 0, getWidth(), getHeight());
         }
+        if (markerLayer == null) {
+            markerLayer = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+            markerLayerCanvas = new Canvas(markerLayer);
+            layerDirty.set(0, 0, getWidth(), getHeight());
+        }
+        if (!layerDirty.isEmpty()) {
+            markerLayerCanvas.save();
+            markerLayerCanvas.clipRect(layerDirty);
+            markerLayerCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            drawMarkers(markerLayerCanvas);
+            markerLayerCanvas.restore();
+            layerDirty.setEmpty();
+        }
+        return true;
+    }
+
+    private void releaseMarkerLayer() {
+        if (markerLayer != null) {
+            markerLayer.recycle();
+            markerLayer = null;
+            markerLayerCanvas = null;
+        }
+        layerImageBounds.setEmpty();
+    }
+
+    // Marks a cluster cell (plus the marker at x, y, which may lie outside it) for re-rendering.
+    // Everything that cell can draw, its cluster glyph or its expanded markers, lies within it.
+    private void invalidateCell(long cell, float x, float y) {
+        clusters.cellBounds(cell, cellBounds);
+        float left = imageLeft();
+        float top = imageTop();
+        float width = imageWidth();
+        float height = imageHeight();
+        float margin = CLUSTER_RADIUS + 2;
+        dirtyRegion.set((int) Math.floor(Math.min(left + cellBounds[0] * width, left + x * width) - margin),
+                (int) Math.floor(Math.min(top + cellBounds[1] * height, top + y * height) - margin),
+                (int) Math.ceil(Math.max(left + cellBounds[2] * width, left + x * width) + margin),
+                (int) Math.ceil(Math.max(top + cellBounds[3] * height, top + y * height) + margin));
+        layerDirty.union(dirtyRegion);
+        invalidateRegion(dirtyRegion);
+    }
+
+    private void invalidateHighlight() {
+        if (highlightedMarker < 0 || highlightedMarker >= markerIndex.size()) {
+            return;
+        }
+        float x = imageLeft() + markerIndex.getX(highlightedMarker) * imageWidth();
+        float y = imageTop() + markerIndex.getY(highlightedMarker) * imageHeight();
+        float reach = MARKER_RADIUS * 1.5f + highlightPaint.getStrokeWidth();
+        dirtyRegion.set((int) Math.floor(x - reach), (int) Math.floor(y - reach),
+                (int) Math.ceil(x + reach), (int) Math.ceil(y + reach));
+        invalidateRegion(dirtyRegion);
+    }
+
+    // Hardware-accelerated windows widen this to the whole view (hence the deprecation); there the
+    // saving comes from onDraw only copying the layer
+    @SuppressWarnings("deprecation")
+    private void invalidateRegion(Rect region) {
+        invalidate(region);
+    }
+
+    // Renders the markers and clusters, without the highlight
+    private void drawMarkers(Canvas canvas) {
+        drawnMarkers = 0;
+        drawnClusters = 0;
+        if (markerIndex.size() == 0) {
+            return;
+        }
+        float left = imageLeft();
+        float top = imageTop();
+        float width = imageWidth();
+        float height = imageHeight();
+
+        // Only the cells on screen (plus a glyph's reach) are looked up, so a zoomed-in frame does
+        // not walk every cluster of the image, nor the slots emptied since the last rebuild
+        int firstColumn = clusters.column((-CLUSTER_RADIUS - left) / width);
+        int lastColumn = clusters.column((getWidth() + CLUSTER_RADIUS - left) / width);
+        int firstRow = clusters.row((-CLUSTER_RADIUS - top) / height);
+        int lastRow = clusters.row((getHeight() + CLUSTER_RADIUS - top) / height);
+
+        // One entry per visible cluster: lone markers go in drawBuffer, the rest in clusterBuffer
+        int singles = 0;
+        int grouped = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                long key = clusters.cellKeyAt(column, row);
+                int cluster = clusters.find(key);
+                if (cluster < 0 || isExpanded(key)) {
+                    continue;
+                }
+                int count = clusters.count(cluster);
+                if (count == 0) {
+                    continue;
+                }
+                float x = left + clusters.centerX(cluster) * width;
+                float y = top + clusters.centerY(cluster) * height;
+                if (x < -CLUSTER_RADIUS || y < -CLUSTER_RADIUS
+                        || x > getWidth() + CLUSTER_RADIUS || y > getHeight() + CLUSTER_RADIUS) {
+                    continue;
+                }
+                if (count == 1) {
+                    drawBuffer[singles++] = x;
+                    drawBuffer[singles++] = y;
+                } else {
+                    clusterCounts[grouped / 2] = count;
+                    clusterBuffer[grouped++] = x;
+                    clusterBuffer[grouped++] = y;
+                }
+            }
+        }
+        for (int position : expandedMarkers) {
+            drawBuffer[singles++] = left + markerIndex.getX(position) * width;
+            drawBuffer[singles++] = top + markerIndex.getY(position) * height;
+        }
+        drawnMarkers = singles / 2;
+        drawnClusters = grouped / 2;
+        if (singles > 0) {
+            canvas.drawPoints(drawBuffer, 0, singles, markerPaint);
+        }
+        if (grouped > 0) {
+            canvas.drawPoints(clusterBuffer, 0, grouped, clusterPaint);
+            for (int i = 0; i < grouped; i += 2) {
+                int digits = formatCount(clusterCounts[i / 2]);
+                canvas.drawText(countText, countText.length - digits, digits,
+                        clusterBuffer[i], clusterBuffer[i + 1] + clusterTextOffset, clusterTextPaint);
+            }
+        }
+    }
+
+    // Writes count right-aligned into countText without allocating a String; returns its length
+    private int formatCount(int count) {
+        int index = countText.length;
+        do {
+            countText[--index] = (char) ('0' + count % 10);
+            count /= 10;
+        } while (count > 0);
+        return countText.length - index;
+    }
+
+    // Clusters never outnumber markers, so both buffers are sized by the marker count
+    private void ensureDrawCapacity() {
+        int needed = markerIndex.size() * 2;
+        if (drawBuffer.length < needed) {
+            drawBuffer = new float[Math.max(needed, drawBuffer.length * 2)];
+            clusterBuffer = new float[drawBuffer.length];
+            clusterCounts = new int[drawBuffer.length / 2];
+        }
+    }
+
+    private float imageLeft() {
+        return hasImageBounds ? imageBounds.left : 0f;
+    }
+
+    private float imageTop() {
+        return hasImageBounds ? imageBounds.top : 0f;
+    }
+
+    private float imageWidth() {
+        return hasImageBounds ? imageBounds.width() : getWidth();
+    }
+
+    private float imageHeight() {
+        return hasImageBounds ? imageBounds.height() : getHeight();
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,485 @@
+package com.alp2.photonote.view;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AttributeSet;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.alp2.photonote.storage.PhotoUris;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Shows a photo of any size without decoding it whole. A screen-sized subsampled base image is
+// drawn first; once zoomed past it, full-resolution tiles for the visible region are decoded with
+// BitmapRegionDecoder on a small pool and kept in an LRU cache sized from the heap. Tiles that
+// scroll out of view before their turn are cancelled.
+//
+// Sizes itself like an ImageView with adjustViewBounds: full width, height from the aspect ratio.
+// Pinch to zoom, drag to pan, double tap to toggle zoom.
+public class TiledImageView extends View {
+    public interface OnImageBoundsChangedListener {
+        // Where the whole image currently sits, in this view's coordinates
+        void onImageBoundsChanged(RectF bounds);
+    }
+
+    private static final int DECODE_THREADS = 2;
+    private static final int TILE_SIZE = 512;
+    private static final float MAX_ZOOM = 8f;
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+
+    // Shut down on detach and made again on the next use; see decodePool()
+    private ExecutorService decodePool;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final LruCache<TileKey, Bitmap> tileCache;
+    private final Map<TileKey, Future<?>> pendingTiles = new HashMap<>();
+    // Looked up in tileCache and pendingTiles from onDraw instead of allocating a key per tile per frame
+    private final TileKey probeKey = new TileKey(0, 0, 0);
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    // One decoder per pool thread; BitmapRegionDecoder serializes calls on a single instance
+    private BlockingQueue<BitmapRegionDecoder> decoders;
+    private Uri imageUri;
+    // The image was released by a detach and is decoded again when the view comes back
+    private boolean reloadOnAttach;
+    private Bitmap baseBitmap;
+    private int baseSampleSize;
+    private int imageWidth;
+    private int imageHeight;
+    private int orientation;
+    // Bumped by setImageUri(); results for an older image are dropped
+    private int generation;
+
+    private float zoom = 1f;
+    private float panX;
+    private float panY;
+    private final Matrix imageToView = new Matrix();
+    private final Matrix viewToImage = new Matrix();
+    private final RectF imageBounds = new RectF();
+    private final RectF scratchRect = new RectF();
+    private final RectF tileRect = new RectF();
+    private OnImageBoundsChangedListener boundsListener;
+
+    public TiledImageView(@NonNull Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(@NonNull Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public TiledImageView(@NonNull Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int cacheBytes = activityManager.getMemoryClass() * 1024 * 1024 / 8;
+        tileCache = new LruCache<TileKey, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(TileKey key, Bitmap tile) {
+                return tile.getAllocationByteCount();
+            }
+        };
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomAround(zoom * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                if (zoom <= 1f) {
+                    return false;
+                }
+                panX -= distanceX;
+                panY -= distanceY;
+                updateTransform();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                zoomAround(zoom > 1f ? 1f : DOUBLE_TAP_ZOOM, e.getX(), e.getY());
+                return true;
+            }
+        });
+    }
+
+    public void setOnImageBoundsChangedListener(OnImageBoundsChangedListener listener) {
+        this.boundsListener = listener;
+        if (listener != null && baseBitmap != null) {
+            listener.onImageBoundsChanged(new RectF(imageBounds));
+        }
+    }
+
+    public void setImageUri(Uri uri) {
+        int requested = ++generation;
+        releaseImage();
+        imageUri = uri;
+        reloadOnAttach = false;
+        Context context = getContext();
+        int targetSize = Math.max(getResources().getDisplayMetrics().widthPixels,
+                getResources().getDisplayMetrics().heightPixels);
+
+        decodePool().execute(() -> {
+            try {
+                int degrees = PhotoUris.readOrientation(context.getContentResolver(), uri);
+                BlockingQueue<BitmapRegionDecoder> opened = new ArrayBlockingQueue<>(DECODE_THREADS);
+                for (int i = 0; i < DECODE_THREADS; i++) {
+                    try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                        if (in == null) {
+                            throw new IOException("Cannot open " + uri);
+                        }
+                        opened.add(BitmapRegionDecoder.newInstance(in, false));
+                    }
+                }
+
+                BitmapRegionDecoder decoder = opened.peek();
+                int width = decoder.getWidth();
+                int height = decoder.getHeight();
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = sampleSizeFor(Math.max(width, height), targetSize);
+                Bitmap base = decoder.decodeRegion(new Rect(0, 0, width, height), options);
+
+                mainHandler.post(() -> {
+                    if (requested != generation || base == null) {
+                        for (BitmapRegionDecoder stale : opened) {
+                            stale.recycle();
+                        }
+                        return;
+                    }
+                    decoders = opened;
+                    imageWidth = width;
+                    imageHeight = height;
+                    orientation = degrees;
+                    baseBitmap = base;
+                    baseSampleSize = options.inSampleSize;
+                    zoom = 1f;
+                    panX = 0f;
+                    panY = 0f;
+                    requestLayout();
+                    updateTransform();
+                });
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int height = 0;
+        if (baseBitmap != null) {
+            height = Math.round(width * (float) orientedHeight() / orientedWidth());
+        }
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateTransform();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (baseBitmap == null) {
+            return super.onTouchEvent(event);
+        }
+        scaleDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+        // Zoomed in, drags pan the image instead of scrolling the page
+        boolean ownsGesture = zoom > 1f || scaleDetector.isInProgress() || event.getPointerCount() > 1;
+        getParent().requestDisallowInterceptTouchEvent(ownsGesture);
+        return true;
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        if (baseBitmap == null) {
+            return;
+        }
+
+        canvas.save();
+        canvas.concat(imageToView);
+        tileRect.set(0, 0, imageWidth, imageHeight);
+        canvas.drawBitmap(baseBitmap, null, tileRect, bitmapPaint);
+
+        int sampleSize = tileSampleSize();
+        if (sampleSize > 0) {
+            drawTiles(canvas, sampleSize);
+        } else {
+            cancelAllTiles();
+        }
+        canvas.restore();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (reloadOnAttach) {
+            setImageUri(imageUri);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        generation++;
+        reloadOnAttach = imageUri != null;
+        releaseImage();
+        // Lets the queued decoder release run, then the threads end
+        if (decodePool != null) {
+            decodePool.shutdown();
+            decodePool = null;
+        }
+    }
+
+    private ExecutorService decodePool() {
+        if (decodePool == null) {
+            decodePool = Executors.newFixedThreadPool(DECODE_THREADS);
+        }
+        return decodePool;
+    }
+
+    // Draws the cached tiles that cover the visible region and queues the missing ones
+    private void drawTiles(Canvas canvas, int sampleSize) {
+        scratchRect.set(0, 0, getWidth(), getHeight());
+        viewToImage.mapRect(scratchRect);
+        int span = TILE_SIZE * sampleSize;
+        int firstCol = Math.max(0, (int) (scratchRect.left / span));
+        int lastCol = Math.min((imageWidth - 1) / span, (int) (scratchRect.right / span));
+        int firstRow = Math.max(0, (int) (scratchRect.top / span));
+        int lastRow = Math.min((imageHeight - 1) / span, (int) (scratchRect.bottom / span));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                probeKey.set(sampleSize, col, row);
+                Bitmap tile = tileCache.get(probeKey);
+                if (tile != null) {
+                    tileRect.set(col * span, row * span,
+                            Math.min((col + 1) * span, imageWidth), Math.min((row + 1) * span, imageHeight));
+                    canvas.drawBitmap(tile, null, tileRect, bitmapPaint);
+                } else if (!pendingTiles.containsKey(probeKey)) {
+                    requestTile(new TileKey(sampleSize, col, row));
+                }
+            }
+        }
+        cancelTilesOutside(sampleSize, firstCol, lastCol, firstRow, lastRow);
+    }
+
+    private void requestTile(TileKey key) {
+        BlockingQueue<BitmapRegionDecoder> pool = decoders;
+        int requested = generation;
+        int span = TILE_SIZE * key.sampleSize;
+        Rect region = new Rect(key.col * span, key.row * span,
+                Math.min((key.col + 1) * span, imageWidth), Math.min((key.row + 1) * span, imageHeight));
+
+        pendingTiles.put(key, decodePool().submit(() -> {
+            Bitmap tile = null;
+            try {
+                BitmapRegionDecoder decoder = pool.take();
+                try {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = key.sampleSize;
+                    tile = decoder.decodeRegion(region, options);
+                } finally {
+                    pool.put(decoder);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            Bitmap decoded = tile;
+            mainHandler.post(() -> {
+                if (requested != generation) {
+                    return;
+                }
+                pendingTiles.remove(key);
+                if (decoded != null) {
+                    tileCache.put(key, decoded);
+                    invalidate();
+                }
+            });
+        }));
+    }
+
+    // Queued decodes for tiles that left the viewport (or a zoom level no longer shown) are dropped
+    private void cancelTilesOutside(int sampleSize, int firstCol, int lastCol, int firstRow, int lastRow) {
+        if (pendingTiles.isEmpty()) {
+            return;
+        }
+        Iterator<Map.Entry<TileKey, Future<?>>> it = pendingTiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<TileKey, Future<?>> entry = it.next();
+            TileKey key = entry.getKey();
+            if (key.sampleSize != sampleSize || key.col < firstCol || key.col > lastCol
+                    || key.row < firstRow || key.row > lastRow) {
+                entry.getValue().cancel(false);
+                it.remove();
+            }
+        }
+    }
+
+    private void cancelAllTiles() {
+        for (Future<?> pending : pendingTiles.values()) {
+            pending.cancel(false);
+        }
+        pendingTiles.clear();
+    }
+
+    // 0 while the base image already has enough pixels for the current scale
+    private int tileSampleSize() {
+        float imagePixelsPerScreenPixel = 1f / currentScale();
+        int sampleSize = 1;
+        while (sampleSize * 2 <= imagePixelsPerScreenPixel) {
+            sampleSize *= 2;
+        }
+        return sampleSize < baseSampleSize ? sampleSize : 0;
+    }
+
+    private float currentScale() {
+        return getWidth() / (float) orientedWidth() * zoom;
+    }
+
+    private void zoomAround(float newZoom, float focusX, float focusY) {
+        newZoom = Math.max(1f, Math.min(MAX_ZOOM, newZoom));
+        float factor = newZoom / zoom;
+        panX = focusX - (focusX - panX) * factor;
+        panY = focusY - (focusY - panY) * factor;
+        zoom = newZoom;
+        updateTransform();
+    }
+
+    // Rebuilds image -> view mapping from orientation, zoom and pan, keeping the image over the view
+    private void updateTransform() {
+        if (baseBitmap == null || getWidth() == 0) {
+            return;
+        }
+        float scale = currentScale();
+        float displayedWidth = orientedWidth() * scale;
+        float displayedHeight = orientedHeight() * scale;
+        panX = Math.min(0f, Math.max(getWidth() - displayedWidth, panX));
+        panY = Math.min(0f, Math.max(getHeight() - displayedHeight, panY));
+
+        imageToView.reset();
+        imageToView.postRotate(orientation);
+        scratchRect.set(0, 0, imageWidth, imageHeight);
+        imageToView.mapRect(scratchRect);
+        imageToView.postTranslate(-scratchRect.left, -scratchRect.top);
+        imageToView.postScale(scale, scale);
+        imageToView.postTranslate(panX, panY);
+        imageToView.invert(viewToImage);
+
+        imageBounds.set(panX, panY, panX + displayedWidth, panY + displayedHeight);
+        if (boundsListener != null) {
+            boundsListener.onImageBoundsChanged(new RectF(imageBounds));
+        }
+        invalidate();
+    }
+
+    private int orientedWidth() {
+        return orientation % 180 == 0 ? imageWidth : imageHeight;
+    }
+
+    private int orientedHeight() {
+        return orientation % 180 == 0 ? imageHeight : imageWidth;
+    }
+
+    private void releaseImage() {
+        cancelAllTiles();
+        tileCache.evictAll();
+        baseBitmap = null;
+        if (decoders != null) {
+            BlockingQueue<BitmapRegionDecoder> released = decoders;
+            decoders = null;
+            // Waits for decodes still running to hand their decoder back, then frees all of them
+            decodePool().execute(() -> {
+                try {
+                    for (int i = 0; i < DECODE_THREADS; i++) {
+                        released.take().recycle();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+    }
+
+    private static int sampleSizeFor(int imageSize, int targetSize) {
+        int sampleSize = 1;
+        while (imageSize / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Keys in tileCache and pendingTiles are never changed; only probeKey is set again
+    private static final class TileKey {
+        int sampleSize;
+        int col;
+        int row;
+
+        TileKey(int sampleSize, int col, int row) {
+            set(sampleSize, col, row);
+        }
+
+        void set(int sampleSize, int col, int row) {
+            this.sampleSize = sampleSize;
+            this.col = col;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            return sampleSize == other.sampleSize && col == other.col && row == other.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return (sampleSize * 31 + col) * 31 + row;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.alp2.photonote.viewmodel;
+
+import android.app.Application;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import com.alp2.photonote.model.PhotoItem;
+import com.alp2.photonote.model.PhotoNote;
+import com.alp2.photonote.repository.PhotoRepository;
+
+// Backs the screens that show one photo. They are started with just the photo id; the photo and
+// its notes come from the shared PhotoRepository and edits go straight back to it.
+public class PhotoViewModel extends AndroidViewModel {
+    private final PhotoRepository repository;
+    private String photoId;
+    private LiveData<PhotoItem> photo;
+
+    public PhotoViewModel(@NonNull Application application) {
+        super(application);
+        repository = PhotoRepository.getInstance(application);
+    }
+
+    // Only the first call counts, so an activity can call it from every onCreate
+    public void setPhotoId(String photoId) {
+        if (photo == null) {
+            this.photoId = photoId;
+            photo = repository.observePhoto(photoId);
+        }
+    }
+
+    // Emits null if the photo no longer exists
+    public LiveData<PhotoItem> getPhoto() {
+        return photo;
+    }
+
+    public void addNote(PhotoNote note) {
+        repository.addNote(photoId, note);
+    }
+
+    public void removeNote(PhotoNote note) {
+        repository.removeNote(photoId, note.getId());
+    }
+
+    public void deletePhoto() {
+        repository.removePhoto(photoId);
+    }
+
+    // Called from onStop(); does not wait for the writes
+    public void flushInBackground() {
+        repository.flushInBackground();
+    }
+}
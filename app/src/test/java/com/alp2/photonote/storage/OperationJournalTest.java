@@ -0,0 +1,106 @@
+package com.alp2.photonote.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.alp2.photonote.model.PhotoNote;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OperationJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysRecordsInOrder() throws IOException {
+        File file = folder.newFile("journal");
+        OperationJournal journal = new OperationJournal(file);
+        journal.append(1, new JournalOp.AddNote("p1", new PhotoNote("n1", "first", 0.1f, 0.2f)));
+        journal.append(2, new JournalOp.DeletePhoto("p2"));
+        journal.sync();
+
+        List<String> replayed = replay(new OperationJournal(file));
+
+        assertEquals(2, replayed.size());
+        assertEquals("1 AddNote p1", replayed.get(0));
+        assertEquals("2 DeletePhoto p2", replayed.get(1));
+    }
+
+    @Test
+    public void tornTailIsDroppedAndTruncated() throws IOException {
+        File file = folder.newFile("journal");
+        OperationJournal journal = new OperationJournal(file);
+        journal.append(1, new JournalOp.DeletePhoto("p1"));
+        journal.append(2, new JournalOp.DeletePhoto("p2"));
+        journal.sync();
+        long goodLength = file.length();
+        journal.append(3, new JournalOp.DeletePhoto("p3"));
+        journal.sync();
+        // A crash in the middle of the third record's write
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(goodLength + 5);
+        }
+
+        List<String> replayed = replay(new OperationJournal(file));
+
+        assertEquals(2, replayed.size());
+        assertEquals(goodLength, file.length());
+    }
+
+    @Test
+    public void corruptRecordEndsTheLog() throws IOException {
+        File file = folder.newFile("journal");
+        OperationJournal journal = new OperationJournal(file);
+        journal.append(1, new JournalOp.DeletePhoto("p1"));
+        journal.sync();
+        long goodLength = file.length();
+        journal.append(2, new JournalOp.DeletePhoto("p2"));
+        journal.append(3, new JournalOp.DeletePhoto("p3"));
+        journal.sync();
+        // Flip a payload byte of the second record so its checksum no longer matches
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(goodLength + 8 + 3);
+            int b = raf.read();
+            raf.seek(goodLength + 8 + 3);
+            raf.write(b ^ 0xFF);
+        }
+
+        List<String> replayed = replay(new OperationJournal(file));
+
+        assertEquals(1, replayed.size());
+        assertEquals(goodLength, file.length());
+    }
+
+    @Test
+    public void appendsAfterTruncationReplay() throws IOException {
+        File file = folder.newFile("journal");
+        OperationJournal journal = new OperationJournal(file);
+        journal.append(1, new JournalOp.DeletePhoto("p1"));
+        journal.sync();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] {0, 0, 0, 40, 1, 2});
+        }
+
+        OperationJournal reopened = new OperationJournal(file);
+        assertEquals(1, replay(reopened).size());
+        reopened.append(2, new JournalOp.DeletePhoto("p2"));
+        reopened.sync();
+
+        List<String> replayed = replay(new OperationJournal(file));
+        assertEquals(2, replayed.size());
+        assertTrue(replayed.get(1).startsWith("2 "));
+    }
+
+    private static List<String> replay(OperationJournal journal) throws IOException {
+        List<String> records = new ArrayList<>();
+        journal.replay((sequence, op) -> records.add(sequence + " " + op.getClass().getSimpleName() + " " + op.photoId));
+        return records;
+    }
+}
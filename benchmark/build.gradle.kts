@@ -0,0 +1,25 @@
+// JMH benchmarks for :core. Run with ./gradlew :benchmark:jmh, or pick benchmarks by regex with
+// ./gradlew :benchmark:jmh -Pjmh.includes=NoteListDiff
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    jmh(project(":core"))
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    timeUnit.set("us")
+    resultFormat.set("JSON")
+    (findProperty("jmh.includes") as String?)?.let { includes.set(listOf(it)) }
+}
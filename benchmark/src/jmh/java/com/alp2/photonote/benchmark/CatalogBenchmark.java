@@ -0,0 +1,89 @@
+package com.alp2.photonote.benchmark;
+
+import com.alp2.photonote.model.CatalogEntry;
+import com.alp2.photonote.model.PhotoNote;
+import com.alp2.photonote.storage.BinaryCatalog;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Writing and reading the whole binary catalog, the way PhotoStorage saves and loads it. Notes are
+// spread ten to a photo across MediaStore URIs that share one prefix.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class CatalogBenchmark {
+    private static final int NOTES_PER_PHOTO = 10;
+
+    @Param({"1000", "10000", "100000"})
+    public int notes;
+
+    private List<Entry> photos;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        photos = new ArrayList<>(notes / NOTES_PER_PHOTO);
+        for (int photo = 0; photo < notes / NOTES_PER_PHOTO; photo++) {
+            List<PhotoNote> photoNotes = new ArrayList<>(NOTES_PER_PHOTO);
+            for (int note = 0; note < NOTES_PER_PHOTO; note++) {
+                photoNotes.add(new PhotoNote("Note " + note + " on photo " + photo, note / 10f, 1 - note / 10f));
+            }
+            photos.add(new Entry("photo-" + photo, "content://media/external/images/media/" + (1000 + photo), photoNotes));
+        }
+        encoded = write();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return write();
+    }
+
+    @Benchmark
+    public List<Entry> deserialize() throws IOException {
+        List<Entry> out = new ArrayList<>(photos.size());
+        BinaryCatalog.read(new ByteArrayInputStream(encoded), Entry::new, out);
+        return out;
+    }
+
+    private byte[] write() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(encoded != null ? encoded.length : 8192);
+        BinaryCatalog.write(bytes, 1, photos);
+        return bytes.toByteArray();
+    }
+
+    static final class Entry implements CatalogEntry {
+        private final String id;
+        private final String uri;
+        private final List<PhotoNote> notes;
+
+        Entry(String id, String uri, List<PhotoNote> notes) {
+            this.id = id;
+            this.uri = uri;
+            this.notes = notes;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getUriString() {
+            return uri;
+        }
+
+        @Override
+        public List<PhotoNote> getNotes() {
+            return notes;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.alp2.photonote.benchmark;
+
+import com.alp2.photonote.repository.UriKeyIndex;
+import com.alp2.photonote.storage.UriKeys;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// The duplicate check an import makes: normalize the picked URI, then look it up in (or claim it
+// from) the index of every photo already in the gallery.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DuplicateLookupBenchmark {
+    private static final String AUTHORITY = "com.android.providers.media.documents";
+
+    @Param({"1000", "100000"})
+    public int photos;
+
+    private UriKeyIndex index;
+    private List<String> existingSegments;
+    private String existingUri;
+    private List<String> newSegments;
+    private String newUri;
+
+    @Setup
+    public void setUp() {
+        index = new UriKeyIndex();
+        for (int i = 0; i < photos; i++) {
+            index.claim("content://media/external/images/media/" + i, "photo-" + i);
+        }
+        int existing = photos / 2;
+        existingSegments = Arrays.asList("document", "image:" + existing);
+        existingUri = "content://" + AUTHORITY + "/document/image%3A" + existing;
+        newSegments = Arrays.asList("document", "image:" + (photos + 1));
+        newUri = "content://" + AUTHORITY + "/document/image%3A" + (photos + 1);
+    }
+
+    @Benchmark
+    public String findDuplicate() {
+        return index.find(UriKeys.normalize(AUTHORITY, existingSegments, existingUri));
+    }
+
+    @Benchmark
+    public boolean claimAndRelease() {
+        String key = UriKeys.normalize(AUTHORITY, newSegments, newUri);
+        boolean claimed = index.claim(key, "new-photo");
+        index.release(key, "new-photo");
+        return claimed;
+    }
+}
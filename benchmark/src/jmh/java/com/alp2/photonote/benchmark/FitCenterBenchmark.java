@@ -0,0 +1,39 @@
+package com.alp2.photonote.benchmark;
+
+import com.alp2.photonote.view.FitCenter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+// Touch mapping on the note editor: a tap on a portrait view over a landscape photo, one inside
+// the image and one on the letterbox bars.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FitCenterBenchmark {
+    // Fields rather than constants, so the JIT cannot fold the arithmetic away
+    public float insideX = 0.3f;
+    public float insideY = 0.5f;
+    public float barY = 0.05f;
+    public int viewWidth = 1080;
+    public int viewHeight = 1920;
+    public int imageWidth = 4032;
+    public int imageHeight = 3024;
+
+    private final float[] out = new float[2];
+
+    @Benchmark
+    public float[] mapInside() {
+        FitCenter.viewToImage(insideX, insideY, viewWidth, viewHeight, imageWidth, imageHeight, out);
+        return out;
+    }
+
+    @Benchmark
+    public boolean mapOnBar() {
+        return FitCenter.viewToImage(insideX, barY, viewWidth, viewHeight, imageWidth, imageHeight, out);
+    }
+}
@@ -0,0 +1,40 @@
+package com.alp2.photonote.benchmark;
+
+import com.alp2.photonote.metrics.Counter;
+import com.alp2.photonote.metrics.Histogram;
+import com.alp2.photonote.metrics.Metrics;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+// What the always-on instrumentation costs a hot path, with four threads sharing each instrument
+// the way bind, draw and storage threads do
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class MetricsBenchmark {
+    private final Counter counter = Metrics.counter("benchmark.counter");
+    private final Histogram histogram = Metrics.histogram("benchmark.histogram", "us");
+    public long value = 1500;
+
+    @Benchmark
+    public void increment() {
+        counter.increment();
+    }
+
+    @Benchmark
+    public void record() {
+        histogram.record(value);
+    }
+
+    @Benchmark
+    public void recordSince() {
+        histogram.recordSince(System.nanoTime());
+    }
+}
@@ -0,0 +1,91 @@
+package com.alp2.photonote.benchmark;
+
+import com.alp2.photonote.model.NoteListDiff;
+import com.alp2.photonote.model.PhotoNote;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The diffs NotesAdapter computes when a note is added, deleted or edited, plus a reordered list
+// to keep an eye on the slow path.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class NoteListDiffBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int notes;
+
+    private List<PhotoNote> original;
+    private List<PhotoNote> inserted;
+    private List<PhotoNote> removed;
+    private List<PhotoNote> edited;
+    private List<PhotoNote> reversed;
+
+    @Setup
+    public void setUp() {
+        original = new ArrayList<>(notes);
+        for (int i = 0; i < notes; i++) {
+            original.add(new PhotoNote("note-" + i, "Note " + i, (i % 100) / 100f, (i / 100 % 100) / 100f));
+        }
+        inserted = new ArrayList<>(original);
+        inserted.add(notes / 2, new PhotoNote("added", "Added", 0.5f, 0.5f));
+        removed = new ArrayList<>(original);
+        removed.remove(notes / 2);
+        edited = new ArrayList<>(original);
+        PhotoNote note = original.get(notes / 2);
+        edited.set(notes / 2, new PhotoNote(note.getId(), note.getText() + " edited", note.getX(), note.getY()));
+        reversed = new ArrayList<>(original);
+        Collections.reverse(reversed);
+    }
+
+    @Benchmark
+    public void insert(Blackhole blackhole) {
+        dispatch(NoteListDiff.calculate(original, inserted), blackhole);
+    }
+
+    @Benchmark
+    public void remove(Blackhole blackhole) {
+        dispatch(NoteListDiff.calculate(original, removed), blackhole);
+    }
+
+    @Benchmark
+    public void edit(Blackhole blackhole) {
+        dispatch(NoteListDiff.calculate(original, edited), blackhole);
+    }
+
+    @Benchmark
+    public void reorder(Blackhole blackhole) {
+        dispatch(NoteListDiff.calculate(original, reversed), blackhole);
+    }
+
+    private static void dispatch(NoteListDiff diff, Blackhole blackhole) {
+        diff.dispatchUpdatesTo(new NoteListDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                blackhole.consume(position + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                blackhole.consume(position - count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                blackhole.consume(fromPosition ^ toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                blackhole.consume(position * count);
+            }
+        });
+    }
+}
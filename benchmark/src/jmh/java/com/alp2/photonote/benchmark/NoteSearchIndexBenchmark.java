@@ -0,0 +1,70 @@
+package com.alp2.photonote.benchmark;
+
+import com.alp2.photonote.model.PhotoNote;
+import com.alp2.photonote.repository.NoteSearchIndex;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Searching note text across the library, and the edit every note save makes to the index. The
+// edit replaces one photo's notes, walking the library, so a run also pays for the compactions
+// that keep the handle arrays from growing with each edit.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NoteSearchIndexBenchmark {
+    private static final int NOTES_PER_PHOTO = 10;
+
+    @Param({"1000", "100000"})
+    public int notes;
+
+    private NoteSearchIndex index;
+    private int photoCount;
+    private int edits;
+
+    @Setup
+    public void setUp() {
+        index = new NoteSearchIndex();
+        photoCount = notes / NOTES_PER_PHOTO;
+        for (int photo = 0; photo < photoCount; photo++) {
+            index.addPhoto(new CatalogBenchmark.Entry("photo-" + photo,
+                    "content://media/external/images/media/" + (1000 + photo), notesFor(photo, 0)));
+        }
+    }
+
+    // Prefix query with a few hundred matching notes at 100k
+    @Benchmark
+    public List<NoteSearchIndex.Hit> searchPrefix() {
+        return index.search("photo 12", 50);
+    }
+
+    // Two common terms; most of the work is intersecting their postings
+    @Benchmark
+    public List<NoteSearchIndex.Hit> searchCommon() {
+        return index.search("note on", 50);
+    }
+
+    @Benchmark
+    public int editNotes() {
+        int photo = edits++ % photoCount;
+        index.setNotes("photo-" + photo, notesFor(photo, edits));
+        return edits;
+    }
+
+    private static List<PhotoNote> notesFor(int photo, int revision) {
+        List<PhotoNote> photoNotes = new ArrayList<>(NOTES_PER_PHOTO);
+        for (int note = 0; note < NOTES_PER_PHOTO; note++) {
+            photoNotes.add(new PhotoNote("Note " + note + " on photo " + photo + " rev " + revision,
+                    note / 10f, 1 - note / 10f));
+        }
+        return photoNotes;
+    }
+}
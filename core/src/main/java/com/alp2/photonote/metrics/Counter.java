@@ -0,0 +1,33 @@
+package com.alp2.photonote.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Monotonic count that any thread can bump without contending with the others
+public final class Counter {
+    private final String name;
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    void reset() {
+        value.reset();
+    }
+}
@@ -0,0 +1,135 @@
+package com.alp2.photonote.metrics;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Process-wide registry of counters and histograms. Instruments are looked up once, usually into
+// a static final field, and updated lock-free from then on; only registration and dumping take
+// the registry lock. Always on: an update costs a few atomic adds.
+public final class Metrics {
+    private static final Object LOCK = new Object();
+    private static final List<Counter> COUNTERS = new ArrayList<>();
+    private static final List<Histogram> HISTOGRAMS = new ArrayList<>();
+    private static final List<Ratio> RATIOS = new ArrayList<>();
+    private static volatile long resetNanos = System.nanoTime();
+
+    private Metrics() {
+    }
+
+    // The counter with this name, created on first use
+    public static Counter counter(String name) {
+        synchronized (LOCK) {
+            for (Counter counter : COUNTERS) {
+                if (counter.getName().equals(name)) {
+                    return counter;
+                }
+            }
+            Counter counter = new Counter(name);
+            COUNTERS.add(counter);
+            return counter;
+        }
+    }
+
+    // The histogram with this name, created on first use; unit is only used for display
+    public static Histogram histogram(String name, String unit) {
+        synchronized (LOCK) {
+            for (Histogram histogram : HISTOGRAMS) {
+                if (histogram.getName().equals(name)) {
+                    return histogram;
+                }
+            }
+            Histogram histogram = new Histogram(name, unit);
+            HISTOGRAMS.add(histogram);
+            return histogram;
+        }
+    }
+
+    // Dumped as hits / (hits + misses), e.g. a cache's hit rate
+    public static void ratio(String name, Counter hits, Counter... misses) {
+        synchronized (LOCK) {
+            for (Ratio ratio : RATIOS) {
+                if (ratio.name.equals(name)) {
+                    return;
+                }
+            }
+            RATIOS.add(new Ratio(name, hits, misses));
+        }
+    }
+
+    public static void reset() {
+        synchronized (LOCK) {
+            for (Counter counter : COUNTERS) {
+                counter.reset();
+            }
+            for (Histogram histogram : HISTOGRAMS) {
+                histogram.reset();
+            }
+            resetNanos = System.nanoTime();
+        }
+    }
+
+    // Plain-text report in the layout of a dumpsys section, every line starting with prefix
+    public static void dump(String prefix, PrintWriter writer) {
+        List<Counter> counterList;
+        List<Histogram> histogramList;
+        List<Ratio> ratioList;
+        synchronized (LOCK) {
+            counterList = new ArrayList<>(COUNTERS);
+            histogramList = new ArrayList<>(HISTOGRAMS);
+            ratioList = new ArrayList<>(RATIOS);
+        }
+        counterList.sort((a, b) -> a.getName().compareTo(b.getName()));
+        histogramList.sort((a, b) -> a.getName().compareTo(b.getName()));
+        ratioList.sort((a, b) -> a.name.compareTo(b.name));
+
+        writer.print(prefix);
+        writer.println("Metrics (" + (System.nanoTime() - resetNanos) / 1_000_000_000L + " s since reset):");
+        writer.print(prefix);
+        writer.println("  Counters:");
+        for (Counter counter : counterList) {
+            writer.print(prefix);
+            writer.println("    " + counter.getName() + "=" + counter.get());
+        }
+        writer.print(prefix);
+        writer.println("  Rates:");
+        for (Ratio ratio : ratioList) {
+            writer.print(prefix);
+            writer.println("    " + ratio.describe());
+        }
+        writer.print(prefix);
+        writer.println("  Histograms (percentiles are bucket upper bounds):");
+        for (Histogram histogram : histogramList) {
+            writer.print(prefix);
+            writer.println(String.format(Locale.US, "    %s count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d %s",
+                histogram.getName(), histogram.getCount(), histogram.getMean(), histogram.getPercentile(0.5),
+                histogram.getPercentile(0.9), histogram.getPercentile(0.99), histogram.getMax(), histogram.getUnit()));
+        }
+        writer.flush();
+    }
+
+    private static final class Ratio {
+        final String name;
+        final Counter hits;
+        final Counter[] misses;
+
+        Ratio(String name, Counter hits, Counter[] misses) {
+            this.name = name;
+            this.hits = hits;
+            this.misses = misses;
+        }
+
+        String describe() {
+            long hitCount = hits.get();
+            long total = hitCount;
+            for (Counter miss : misses) {
+                total += miss.get();
+            }
+            if (total == 0) {
+                return name + "=n/a";
+            }
+            return String.format(Locale.US, "%s=%.1f%% (%d/%d)", name, 100.0 * hitCount / total, hitCount, total);
+        }
+    }
+}
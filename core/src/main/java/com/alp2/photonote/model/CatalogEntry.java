@@ -0,0 +1,14 @@
+package com.alp2.photonote.model;
+
+import java.util.List;
+
+// What the catalog formats need from a photo, with the URI as a plain string so they run without
+// android.net.Uri
+public interface CatalogEntry {
+    String getId();
+
+    // Null for a photo without a URI
+    String getUriString();
+
+    List<PhotoNote> getNotes();
+}
@@ -0,0 +1,179 @@
+package com.alp2.photonote.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Update script from one note list to another, matching notes by id. Operations are reported the
+// way RecyclerView's ListUpdateCallback expects them: each position refers to the list as the
+// operations before it left it. Removals come first (back to front), then inserts, moves and
+// changes front to back.
+//
+// Notes are added, removed and edited but never reordered, so surviving notes keep their relative
+// order and the script is built in one linear pass. Reordered input still gets a correct script,
+// through a slower path whose moves are not minimal.
+public final class NoteListDiff {
+    public interface Callback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onMoved(int fromPosition, int toPosition);
+
+        void onChanged(int position, int count);
+    }
+
+    private static final int INSERTED = 0;
+    private static final int REMOVED = 1;
+    private static final int MOVED = 2;
+    private static final int CHANGED = 3;
+
+    // Packed type, a, b per operation; a, b are position, count (or from, to for a move)
+    private int[] ops = new int[24];
+    private int opCount;
+
+    private NoteListDiff() {
+    }
+
+    public static NoteListDiff calculate(List<PhotoNote> oldNotes, List<PhotoNote> newNotes) {
+        NoteListDiff diff = new NoteListDiff();
+        int newSize = newNotes.size();
+        Map<String, Integer> newPositions = new HashMap<>(newSize * 2);
+        for (int position = 0; position < newSize; position++) {
+            newPositions.putIfAbsent(newNotes.get(position).getId(), position);
+        }
+
+        // Target position of every old note that survives, or -1; with duplicate ids the first one wins
+        int oldSize = oldNotes.size();
+        int[] targets = new int[oldSize];
+        boolean[] matched = new boolean[newSize];
+        boolean ordered = true;
+        int lastTarget = -1;
+        for (int position = 0; position < oldSize; position++) {
+            Integer target = newPositions.get(oldNotes.get(position).getId());
+            if (target == null || matched[target]) {
+                targets[position] = -1;
+                continue;
+            }
+            matched[target] = true;
+            targets[position] = target;
+            ordered &= target > lastTarget;
+            lastTarget = target;
+        }
+
+        List<PhotoNote> kept = new ArrayList<>(oldSize);
+        int[] keptTargets = new int[oldSize];
+        for (int position = oldSize - 1; position >= 0; position--) {
+            if (targets[position] < 0) {
+                diff.add(REMOVED, position, 1);
+            }
+        }
+        for (int position = 0; position < oldSize; position++) {
+            if (targets[position] >= 0) {
+                keptTargets[kept.size()] = targets[position];
+                kept.add(oldNotes.get(position));
+            }
+        }
+
+        if (ordered) {
+            // The next kept note is always at the position being filled
+            int next = 0;
+            for (int position = 0; position < newSize; position++) {
+                if (!matched[position]) {
+                    diff.add(INSERTED, position, 1);
+                } else {
+                    if (!sameContents(kept.get(next), newNotes.get(position))) {
+                        diff.add(CHANGED, position, 1);
+                    }
+                    next++;
+                }
+            }
+            return diff;
+        }
+
+        // Simulates the list, pulling each note forward to where it belongs
+        List<PhotoNote> current = kept;
+        int[] currentTargets = Arrays.copyOf(keptTargets, Math.max(newSize, kept.size()));
+        int currentSize = kept.size();
+        for (int position = 0; position < newSize; position++) {
+            if (!matched[position]) {
+                diff.add(INSERTED, position, 1);
+                current.add(position, newNotes.get(position));
+                System.arraycopy(currentTargets, position, currentTargets, position + 1, currentSize - position);
+                currentTargets[position] = position;
+                currentSize++;
+                continue;
+            }
+            int from = position;
+            while (currentTargets[from] != position) {
+                from++;
+            }
+            if (from != position) {
+                diff.add(MOVED, from, position);
+                current.add(position, current.remove(from));
+                System.arraycopy(currentTargets, position, currentTargets, position + 1, from - position);
+                currentTargets[position] = position;
+            }
+            if (!sameContents(current.get(position), newNotes.get(position))) {
+                diff.add(CHANGED, position, 1);
+            }
+        }
+        return diff;
+    }
+
+    public void dispatchUpdatesTo(Callback callback) {
+        for (int i = 0; i < opCount; i++) {
+            int a = ops[i * 3 + 1];
+            int b = ops[i * 3 + 2];
+            switch (ops[i * 3]) {
+                case INSERTED:
+                    callback.onInserted(a, b);
+                    break;
+                case REMOVED:
+                    callback.onRemoved(a, b);
+                    break;
+                case MOVED:
+                    callback.onMoved(a, b);
+                    break;
+                default:
+                    callback.onChanged(a, b);
+                    break;
+            }
+        }
+    }
+
+    // Whether a note that kept its id needs its row rebound
+    public static boolean sameContents(PhotoNote oldNote, PhotoNote newNote) {
+        return Objects.equals(oldNote.getText(), newNote.getText())
+            && oldNote.getX() == newNote.getX()
+            && oldNote.getY() == newNote.getY();
+    }
+
+    // Extends the previous operation when the new one continues its range
+    private void add(int type, int a, int b) {
+        if (opCount > 0 && ops[(opCount - 1) * 3] == type && type != MOVED) {
+            int last = (opCount - 1) * 3;
+            int position = ops[last + 1];
+            int count = ops[last + 2];
+            if (type == REMOVED && a + 1 == position) {
+                ops[last + 1] = a;
+                ops[last + 2] = count + 1;
+                return;
+            }
+            if (type != REMOVED && a == position + count) {
+                ops[last + 2] = count + 1;
+                return;
+            }
+        }
+        if ((opCount + 1) * 3 > ops.length) {
+            ops = Arrays.copyOf(ops, ops.length * 2);
+        }
+        ops[opCount * 3] = type;
+        ops[opCount * 3 + 1] = a;
+        ops[opCount * 3 + 2] = b;
+        opCount++;
+    }
+}
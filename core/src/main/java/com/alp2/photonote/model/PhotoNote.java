@@ -0,0 +1,65 @@
+package com.alp2.photonote.model;
+
+import java.util.List;
+import java.util.UUID;
+
+public class PhotoNote {
+    // Survives edits to text and position, so lists can tell a changed note from a new one
+    private String id;
+    private String text;
+    private float x;
+    private float y;
+
+    public PhotoNote(String text, float x, float y) {
+        this(UUID.randomUUID().toString(), text, x, y);
+    }
+
+    public PhotoNote(String id, String text, float x, float y) {
+        this.id = id;
+        this.text = text;
+        this.x = x;
+        this.y = y;
+    }
+
+    public synchronized String getId() {
+        // Notes saved before ids existed get one the first time they are asked
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+        }
+        return id;
+    }
+
+    // Positions as packed x, y pairs, for NoteMarkerView.setMarkers()
+    public static float[] packPositions(List<PhotoNote> notes) {
+        float[] xy = new float[notes.size() * 2];
+        for (int i = 0; i < notes.size(); i++) {
+            xy[i * 2] = notes.get(i).getX();
+            xy[i * 2 + 1] = notes.get(i).getY();
+        }
+        return xy;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public void setX(float x) {
+        this.x = x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    public void setY(float y) {
+        this.y = y;
+    }
+} 
\ No newline at end of file
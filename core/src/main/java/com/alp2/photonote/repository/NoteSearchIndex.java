@@ -0,0 +1,285 @@
+package com.alp2.photonote.repository;
+
+import com.alp2.photonote.model.CatalogEntry;
+import com.alp2.photonote.model.PhotoNote;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Inverted index over note text. Every note gets an int handle in the order it was indexed, and
+// each folded term (see fold()) maps to the sorted handles of the notes containing it. A query
+// matches the notes that contain, for every query term, some term starting with it. Removed notes
+// leave holes in the handle range; when the arrays would grow with at least half of them holes,
+// the live handles are renumbered in order instead.
+//
+// Updates come from the repository's writer thread and searches from its search thread, so every
+// public method is synchronized.
+public final class NoteSearchIndex {
+    public static final class Hit {
+        public final String photoId;
+        // Positions in the photo's note list, ascending
+        public final int[] notePositions;
+        // Text of the first matching note
+        public final String snippet;
+
+        Hit(String photoId, int[] notePositions, String snippet) {
+            this.photoId = photoId;
+            this.notePositions = notePositions;
+            this.snippet = snippet;
+        }
+    }
+
+    private final TreeMap<String, IntList> postings = new TreeMap<>();
+    // Photo id -> note handles in the photo's list order
+    private final Map<String, IntList> photoNotes = new HashMap<>();
+    // Per handle; entries of removed notes are nulled until the next compact()
+    private String[] noteTexts = new String[1024];
+    private String[] noteIds = new String[1024];
+    private String[] notePhotoIds = new String[1024];
+    private int handleCount;
+    private int removedCount;
+
+    public synchronized void addPhoto(CatalogEntry photo) {
+        for (PhotoNote note : photo.getNotes()) {
+            addNote(photo.getId(), note);
+        }
+    }
+
+    public synchronized void removePhoto(String photoId) {
+        IntList handles = photoNotes.remove(photoId);
+        if (handles == null) {
+            return;
+        }
+        for (int i = 0; i < handles.size; i++) {
+            unindex(handles.values[i]);
+        }
+    }
+
+    public synchronized void setNotes(String photoId, List<PhotoNote> notes) {
+        removePhoto(photoId);
+        for (PhotoNote note : notes) {
+            addNote(photoId, note);
+        }
+    }
+
+    public synchronized void addNote(String photoId, PhotoNote note) {
+        if (handleCount == noteTexts.length && removedCount >= handleCount / 2) {
+            compact();
+        }
+        if (handleCount == noteTexts.length) {
+            int capacity = handleCount * 2;
+            noteTexts = Arrays.copyOf(noteTexts, capacity);
+            noteIds = Arrays.copyOf(noteIds, capacity);
+            notePhotoIds = Arrays.copyOf(notePhotoIds, capacity);
+        }
+        int handle = handleCount++;
+        String text = note.getText() != null ? note.getText() : "";
+        noteTexts[handle] = text;
+        noteIds[handle] = note.getId();
+        notePhotoIds[handle] = photoId;
+        photoNotes.computeIfAbsent(photoId, id -> new IntList()).add(handle);
+        // New handles are past every live one, so appending keeps every postings list sorted
+        for (String term : tokenize(text)) {
+            postings.computeIfAbsent(term, t -> new IntList()).add(handle);
+        }
+    }
+
+    public synchronized void removeNote(String photoId, String noteId) {
+        IntList handles = photoNotes.get(photoId);
+        if (handles == null) {
+            return;
+        }
+        for (int i = 0; i < handles.size; i++) {
+            int handle = handles.values[i];
+            if (noteId.equals(noteIds[handle])) {
+                handles.removeAt(i);
+                unindex(handle);
+                return;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        postings.clear();
+        photoNotes.clear();
+        Arrays.fill(noteTexts, 0, handleCount, null);
+        Arrays.fill(noteIds, 0, handleCount, null);
+        Arrays.fill(notePhotoIds, 0, handleCount, null);
+        handleCount = 0;
+        removedCount = 0;
+    }
+
+    // Photos with notes matching every term of query, most matching notes first, at most maxPhotos
+    public synchronized List<Hit> search(String query, int maxPhotos) {
+        Set<String> queryTerms = tokenize(query);
+        if (queryTerms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        BitSet matches = null;
+        for (String prefix : queryTerms) {
+            BitSet termMatches = new BitSet(handleCount);
+            for (IntList handles : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                for (int i = 0; i < handles.size; i++) {
+                    termMatches.set(handles.values[i]);
+                }
+            }
+            if (matches == null) {
+                matches = termMatches;
+            } else {
+                matches.and(termMatches);
+            }
+            if (matches.isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+
+        // Photos in the order their first match was indexed, which follows the catalog
+        Set<String> photoIds = new LinkedHashSet<>();
+        for (int handle = matches.nextSetBit(0); handle >= 0; handle = matches.nextSetBit(handle + 1)) {
+            photoIds.add(notePhotoIds[handle]);
+        }
+        List<Hit> hits = new ArrayList<>(photoIds.size());
+        for (String photoId : photoIds) {
+            IntList handles = photoNotes.get(photoId);
+            int[] positions = new int[handles.size];
+            int count = 0;
+            for (int i = 0; i < handles.size; i++) {
+                if (matches.get(handles.values[i])) {
+                    positions[count++] = i;
+                }
+            }
+            String snippet = noteTexts[handles.values[positions[0]]];
+            hits.add(new Hit(photoId, Arrays.copyOf(positions, count), snippet));
+        }
+        // Stable, so photos with as many matches keep catalog order
+        hits.sort((a, b) -> Integer.compare(b.notePositions.length, a.notePositions.length));
+        return hits.size() > maxPhotos ? new ArrayList<>(hits.subList(0, maxPhotos)) : hits;
+    }
+
+    private void unindex(int handle) {
+        for (String term : tokenize(noteTexts[handle])) {
+            IntList handles = postings.get(term);
+            if (handles != null) {
+                handles.removeSorted(handle);
+                if (handles.size == 0) {
+                    postings.remove(term);
+                }
+            }
+        }
+        noteTexts[handle] = null;
+        noteIds[handle] = null;
+        notePhotoIds[handle] = null;
+        removedCount++;
+    }
+
+    // Renumbers the live handles 0..n-1 in their current order. The mapping is increasing, so
+    // postings and photo lists stay sorted, and search keeps returning photos in indexing order.
+    private void compact() {
+        int[] renumbered = new int[handleCount];
+        int live = 0;
+        for (int handle = 0; handle < handleCount; handle++) {
+            if (noteIds[handle] == null) {
+                continue;
+            }
+            renumbered[handle] = live;
+            noteTexts[live] = noteTexts[handle];
+            noteIds[live] = noteIds[handle];
+            notePhotoIds[live] = notePhotoIds[handle];
+            live++;
+        }
+        Arrays.fill(noteTexts, live, handleCount, null);
+        Arrays.fill(noteIds, live, handleCount, null);
+        Arrays.fill(notePhotoIds, live, handleCount, null);
+        for (IntList handles : postings.values()) {
+            handles.renumber(renumbered);
+        }
+        for (IntList handles : photoNotes.values()) {
+            handles.renumber(renumbered);
+        }
+        handleCount = live;
+        removedCount = 0;
+    }
+
+    // Distinct folded terms: runs of letters and digits
+    static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                term.append(fold(c));
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        return terms;
+    }
+
+    // Notes mix Turkish and English, so neither locale's lower-casing is right for both: Turkish
+    // rules turn "INFO" into "ınfo", English ones leave "ı" apart from "i". All four i's fold to
+    // "i", and the Turkish letters fold to their ASCII bases, since notes are often typed on
+    // keyboards without them ("sehir" finds "Şehir").
+    static char fold(char c) {
+        switch (c) {
+            case 'I':
+            case 'İ':
+            case 'ı':
+                return 'i';
+            case 'Ş':
+            case 'ş':
+                return 's';
+            case 'Ğ':
+            case 'ğ':
+                return 'g';
+            case 'Ü':
+            case 'ü':
+                return 'u';
+            case 'Ö':
+            case 'ö':
+                return 'o';
+            case 'Ç':
+            case 'ç':
+                return 'c';
+            default:
+                return Character.toLowerCase(c);
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[2];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void removeAt(int index) {
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+        }
+
+        void renumber(int[] mapping) {
+            for (int i = 0; i < size; i++) {
+                values[i] = mapping[values[i]];
+            }
+        }
+
+        void removeSorted(int value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                removeAt(index);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.alp2.photonote.repository;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// Normalized photo URI (see UriKeys) -> photo id. Lookups and claims are O(1) from any thread.
+public class UriKeyIndex {
+    private final ConcurrentHashMap<String, String> photoIds = new ConcurrentHashMap<>();
+
+    // Returns false if another photo already holds this key
+    public boolean claim(String key, String photoId) {
+        String existing = photoIds.putIfAbsent(key, photoId);
+        return existing == null || existing.equals(photoId);
+    }
+
+    public void release(String key, String photoId) {
+        photoIds.remove(key, photoId);
+    }
+
+    // For callers that no longer have the URI; scans the index
+    public void releaseId(String photoId) {
+        photoIds.values().remove(photoId);
+    }
+
+    public String find(String key) {
+        return photoIds.get(key);
+    }
+}
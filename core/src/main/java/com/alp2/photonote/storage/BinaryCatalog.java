@@ -0,0 +1,202 @@
+package com.alp2.photonote.storage;
+
+import com.alp2.photonote.model.CatalogEntry;
+import com.alp2.photonote.model.PhotoNote;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Versioned binary catalog format. CatalogCodec reads it next to the older Gson JSON format.
+//
+//   magic "PNC" + version byte
+//   varint sequence
+//   varint prefixCount, prefixCount x string          URI prefixes up to the last '/'
+//   varint photoCount, per photo:
+//     string id, varint prefixIndex + 1 (0 = none), string uriSuffix (absent when no URI)
+//     varint noteCount, per note: string noteId, string text, float x, float y   (raw IEEE 754)
+//
+// Version 1 had no note ids and is still read.
+// Strings are varint byte length + 1 (0 = null) followed by UTF-8 bytes.
+public final class BinaryCatalog {
+    private static final byte[] MAGIC = {'P', 'N', 'C'};
+    private static final int VERSION = 2;
+
+    public interface EntryFactory<T> {
+        // id is null for photos written before ids existed
+        T create(String id, String uri, List<PhotoNote> notes);
+    }
+
+    private BinaryCatalog() {
+    }
+
+    // Number of leading bytes isBinary() looks at
+    public static int headerLength() {
+        return MAGIC.length;
+    }
+
+    public static boolean isBinary(byte[] head, int length) {
+        return length >= MAGIC.length && head[0] == MAGIC[0] && head[1] == MAGIC[1] && head[2] == MAGIC[2];
+    }
+
+    public static void write(OutputStream stream, long sequence, Collection<? extends CatalogEntry> photos)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        writeVarLong(out, sequence);
+
+        Map<String, Integer> prefixIndex = new HashMap<>();
+        List<String> prefixes = new ArrayList<>();
+        for (CatalogEntry photo : photos) {
+            String uri = photo.getUriString();
+            if (uri != null) {
+                String prefix = uriPrefix(uri);
+                if (!prefixIndex.containsKey(prefix)) {
+                    prefixIndex.put(prefix, prefixes.size());
+                    prefixes.add(prefix);
+                }
+            }
+        }
+        writeVarInt(out, prefixes.size());
+        for (String prefix : prefixes) {
+            writeString(out, prefix);
+        }
+
+        writeVarInt(out, photos.size());
+        for (CatalogEntry photo : photos) {
+            writeString(out, photo.getId());
+            String uri = photo.getUriString();
+            if (uri == null) {
+                writeVarInt(out, 0);
+            } else {
+                String prefix = uriPrefix(uri);
+                writeVarInt(out, prefixIndex.get(prefix) + 1);
+                writeString(out, uri.substring(prefix.length()));
+            }
+
+            List<PhotoNote> notes = photo.getNotes();
+            writeVarInt(out, notes.size());
+            for (PhotoNote note : notes) {
+                writeString(out, note.getId());
+                writeString(out, note.getText());
+                out.writeFloat(note.getX());
+                out.writeFloat(note.getY());
+            }
+        }
+        out.flush();
+    }
+
+    // Appends the photos to out and returns the catalog's sequence number
+    public static <T> long read(InputStream stream, EntryFactory<T> factory, List<T> out) throws IOException {
+        DataInputStream in = new DataInputStream(stream instanceof BufferedInputStream
+            ? stream
+            : new BufferedInputStream(stream));
+        byte[] head = new byte[MAGIC.length];
+        in.readFully(head);
+        if (!isBinary(head, head.length)) {
+            throw new IOException("Not a binary catalog");
+        }
+        int version = in.readUnsignedByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported catalog version " + version);
+        }
+        boolean noteIds = version >= 2;
+        long sequence = readVarLong(in);
+
+        int prefixCount = readVarInt(in);
+        String[] prefixes = new String[prefixCount];
+        for (int i = 0; i < prefixCount; i++) {
+            prefixes[i] = readString(in);
+        }
+
+        int photoCount = readVarInt(in);
+        for (int i = 0; i < photoCount; i++) {
+            String id = readString(in);
+            int prefix = readVarInt(in);
+            String uri = null;
+            if (prefix > 0) {
+                if (prefix > prefixCount) {
+                    throw new IOException("Bad URI prefix index " + prefix);
+                }
+                uri = prefixes[prefix - 1] + readString(in);
+            }
+
+            int noteCount = readVarInt(in);
+            List<PhotoNote> notes = new ArrayList<>(Math.min(noteCount, 1024));
+            for (int n = 0; n < noteCount; n++) {
+                String noteId = noteIds ? readString(in) : null;
+                String text = readString(in);
+                float x = in.readFloat();
+                float y = in.readFloat();
+                notes.add(new PhotoNote(noteId, text, x, y));
+            }
+            out.add(factory.create(id, uri, notes));
+        }
+        return sequence;
+    }
+
+    private static String uriPrefix(String uri) {
+        return uri.substring(0, uri.lastIndexOf('/') + 1);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Varint out of range " + value);
+        }
+        return (int) value;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,32 @@
+package com.alp2.photonote.storage;
+
+import java.util.List;
+
+// Key under which two URIs for the same image compare equal. The picker can hand out the same
+// MediaStore image as a documents-provider URI (.../document/image%3A42) or as a media URI on
+// some volume (content://media/<volume>/images/media/42).
+//
+// Works on the parts android.net.Uri already parsed, so it runs on a plain JVM; PhotoUris passes them in.
+public final class UriKeys {
+    private static final String MEDIA_DOCUMENTS_AUTHORITY = "com.android.providers.media.documents";
+    private static final String MEDIA_IMAGES_PREFIX = "content://media/external/images/media/";
+
+    private UriKeys() {
+    }
+
+    // authority and decoded pathSegments of a URI whose scheme is already lower case, and that
+    // URI as a string
+    public static String normalize(String authority, List<String> pathSegments, String uri) {
+        if (MEDIA_DOCUMENTS_AUTHORITY.equals(authority)) {
+            String documentId = pathSegments.isEmpty() ? null : pathSegments.get(pathSegments.size() - 1);
+            if (documentId != null && documentId.startsWith("image:")) {
+                return MEDIA_IMAGES_PREFIX + documentId.substring("image:".length());
+            }
+        } else if ("media".equals(authority)) {
+            if (pathSegments.size() == 4 && pathSegments.get(1).equals("images") && pathSegments.get(2).equals("media")) {
+                return MEDIA_IMAGES_PREFIX + pathSegments.get(3);
+            }
+        }
+        return uri;
+    }
+}
@@ -0,0 +1,39 @@
+package com.alp2.photonote.view;
+
+// Geometry of an image drawn with ScaleType.FIT_CENTER: scaled uniformly to fit inside the view
+// and centered, leaving bars on two opposite sides.
+public final class FitCenter {
+    private FitCenter() {
+    }
+
+    // Where the image lands in the view, in view pixels: left, top, right, bottom
+    public static void imageBounds(int viewWidth, int viewHeight, int imageWidth, int imageHeight, float[] out) {
+        float scale = Math.min((float) viewWidth / imageWidth, (float) viewHeight / imageHeight);
+        float width = imageWidth * scale;
+        float height = imageHeight * scale;
+        out[0] = (viewWidth - width) / 2;
+        out[1] = (viewHeight - height) / 2;
+        out[2] = out[0] + width;
+        out[3] = out[1] + height;
+    }
+
+    // Maps a point given as a fraction of the view to a fraction of the image, written to out[0]
+    // and out[1]. Returns false, leaving out alone, if the point falls on the bars.
+    public static boolean viewToImage(float viewX, float viewY, int viewWidth, int viewHeight,
+                                      int imageWidth, int imageHeight, float[] out) {
+        if (viewWidth <= 0 || viewHeight <= 0 || imageWidth <= 0 || imageHeight <= 0) {
+            return false;
+        }
+        float scale = Math.min((float) viewWidth / imageWidth, (float) viewHeight / imageHeight);
+        float width = imageWidth * scale;
+        float height = imageHeight * scale;
+        float imageX = (viewX * viewWidth - (viewWidth - width) / 2) / width;
+        float imageY = (viewY * viewHeight - (viewHeight - height) / 2) / height;
+        if (imageX < 0 || imageX > 1 || imageY < 0 || imageY > 1) {
+            return false;
+        }
+        out[0] = imageX;
+        out[1] = imageY;
+        return true;
+    }
+}
@@ -0,0 +1,137 @@
+package com.alp2.photonote.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class NoteListDiffTest {
+    @Test
+    public void insertsAreReportedAsRanges() {
+        List<PhotoNote> before = notes("a", "b");
+        List<PhotoNote> after = Arrays.asList(before.get(0), note("x"), note("y"), before.get(1), note("z"));
+
+        assertEquals(Arrays.asList("inserted 1 2", "inserted 4 1"), script(before, after));
+        assertReplays(before, after);
+    }
+
+    @Test
+    public void removalsRunBackToFront() {
+        List<PhotoNote> before = notes("a", "b", "c", "d", "e");
+        List<PhotoNote> after = Arrays.asList(before.get(0), before.get(3));
+
+        assertEquals(Arrays.asList("removed 4 1", "removed 1 2"), script(before, after));
+        assertReplays(before, after);
+    }
+
+    @Test
+    public void editedNotesAreChangedInPlace() {
+        List<PhotoNote> before = notes("a", "b", "c");
+        PhotoNote moved = before.get(1);
+        List<PhotoNote> after = Arrays.asList(before.get(0),
+                new PhotoNote(moved.getId(), moved.getText(), 0.9f, moved.getY()),
+                new PhotoNote(before.get(2).getId(), "edited", 0f, 0f));
+
+        assertEquals(Arrays.asList("changed 1 2"), script(before, after));
+        assertReplays(before, after);
+    }
+
+    @Test
+    public void unchangedListsProduceNoOperations() {
+        List<PhotoNote> before = notes("a", "b");
+        assertEquals(new ArrayList<String>(), script(before, new ArrayList<>(before)));
+    }
+
+    @Test
+    public void reorderedNotesAreMovedIntoPlace() {
+        List<PhotoNote> before = notes("a", "b", "c", "d");
+        List<PhotoNote> after = Arrays.asList(before.get(3), before.get(1), note("new"), before.get(0));
+
+        assertReplays(before, after);
+    }
+
+    private static List<String> script(List<PhotoNote> before, List<PhotoNote> after) {
+        List<String> ops = new ArrayList<>();
+        NoteListDiff.calculate(before, after).dispatchUpdatesTo(new NoteListDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                ops.add("inserted " + position + " " + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                ops.add("removed " + position + " " + count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                ops.add("moved " + fromPosition + " " + toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                ops.add("changed " + position + " " + count);
+            }
+        });
+        return ops;
+    }
+
+    // Plays the script on a copy of before the way RecyclerView would and checks it ends at after
+    private static void assertReplays(List<PhotoNote> before, List<PhotoNote> after) {
+        List<PhotoNote> list = new ArrayList<>(before);
+        NoteListDiff.calculate(before, after).dispatchUpdatesTo(new NoteListDiff.Callback() {
+            @Override
+            public void onInserted(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    list.add(position + i, after.get(position + i));
+                }
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    list.remove(position);
+                }
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                list.add(toPosition, list.remove(fromPosition));
+            }
+
+            @Override
+            public void onChanged(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    list.set(position + i, after.get(position + i));
+                }
+            }
+        });
+
+        assertEquals(ids(after), ids(list));
+        for (int i = 0; i < after.size(); i++) {
+            assertEquals(true, NoteListDiff.sameContents(list.get(i), after.get(i)));
+        }
+    }
+
+    private static List<String> ids(List<PhotoNote> notes) {
+        List<String> ids = new ArrayList<>();
+        for (PhotoNote note : notes) {
+            ids.add(note.getId());
+        }
+        return ids;
+    }
+
+    private static List<PhotoNote> notes(String... texts) {
+        List<PhotoNote> notes = new ArrayList<>();
+        for (String text : texts) {
+            notes.add(note(text));
+        }
+        return notes;
+    }
+
+    private static PhotoNote note(String text) {
+        return new PhotoNote(text, 0.5f, 0.5f);
+    }
+}
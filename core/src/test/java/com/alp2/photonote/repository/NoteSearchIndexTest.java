@@ -0,0 +1,162 @@
+package com.alp2.photonote.repository;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.alp2.photonote.model.PhotoNote;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class NoteSearchIndexTest {
+    // The handle arrays start at this size; filling them is what triggers a compaction
+    private static final int INITIAL_HANDLES = 1024;
+
+    @Test
+    public void everyQueryTermMatchesAsAPrefix() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.setNotes("trip", notes("Istanbul trip"));
+        index.setNotes("food", notes("istanbul food"));
+        index.setNotes("other", notes("Ankara"));
+
+        assertEquals(Arrays.asList("trip", "food"), photoIds(index.search("ist", 10)));
+        assertEquals(Arrays.asList("food"), photoIds(index.search("ist fo", 10)));
+        // Prefixes only, not substrings
+        assertTrue(index.search("stan", 10).isEmpty());
+        assertTrue(index.search("  ", 10).isEmpty());
+    }
+
+    @Test
+    public void prefixRangeStopsAtTheNextTerm() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.setNotes("a", notes("car"));
+        index.setNotes("b", notes("card"));
+        index.setNotes("c", notes("cart"));
+        index.setNotes("d", notes("cb"));
+        index.setNotes("e", notes("cars"));
+
+        assertEquals(Arrays.asList("a", "b", "c", "e"), photoIds(index.search("car", 10)));
+        assertEquals(Arrays.asList("b"), photoIds(index.search("card", 10)));
+        assertEquals(Arrays.asList("d"), photoIds(index.search("cb", 10)));
+        assertEquals(Arrays.asList("a", "b"), photoIds(index.search("car", 2)));
+    }
+
+    @Test
+    public void turkishLettersFoldToTheirAsciiBases() {
+        assertEquals('i', NoteSearchIndex.fold('I'));
+        assertEquals('i', NoteSearchIndex.fold('İ'));
+        assertEquals('i', NoteSearchIndex.fold('ı'));
+        assertEquals('i', NoteSearchIndex.fold('i'));
+        assertEquals('s', NoteSearchIndex.fold('Ş'));
+        assertEquals('s', NoteSearchIndex.fold('ş'));
+        assertEquals('g', NoteSearchIndex.fold('Ğ'));
+        assertEquals('c', NoteSearchIndex.fold('Ç'));
+
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.setNotes("izmir", notes("İZMİR Şehir ılık"));
+        index.setNotes("info", notes("INFO desk"));
+
+        assertEquals(Arrays.asList("izmir"), photoIds(index.search("izmir", 10)));
+        assertEquals(Arrays.asList("izmir"), photoIds(index.search("sehir", 10)));
+        assertEquals(Arrays.asList("izmir"), photoIds(index.search("ilik", 10)));
+        assertEquals(Arrays.asList("info"), photoIds(index.search("ınfo", 10)));
+        assertEquals(Arrays.asList("info"), photoIds(index.search("Info", 10)));
+    }
+
+    @Test
+    public void removingANoteShiftsThePositionsAfterIt() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        List<PhotoNote> photoNotes = notes("apple", "banana", "apple pie");
+        index.setNotes("photo", photoNotes);
+
+        NoteSearchIndex.Hit hit = index.search("apple", 10).get(0);
+        assertArrayEquals(new int[] {0, 2}, hit.notePositions);
+        assertEquals("apple", hit.snippet);
+
+        index.removeNote("photo", photoNotes.get(1).getId());
+        assertArrayEquals(new int[] {0, 1}, index.search("apple", 10).get(0).notePositions);
+
+        index.removeNote("photo", photoNotes.get(0).getId());
+        hit = index.search("apple", 10).get(0);
+        assertArrayEquals(new int[] {0}, hit.notePositions);
+        assertEquals("apple pie", hit.snippet);
+        assertTrue(index.search("banana", 10).isEmpty());
+    }
+
+    @Test
+    public void photosWithMoreMatchesComeFirst() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.setNotes("one", notes("tree"));
+        index.setNotes("two", notes("tree", "trees"));
+        index.setNotes("also one", notes("treehouse"));
+
+        assertEquals(Arrays.asList("two", "one", "also one"), photoIds(index.search("tree", 10)));
+    }
+
+    @Test
+    public void compactionRenumbersHandlesWithoutLosingNotes() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        List<List<PhotoNote>> photoNotes = new ArrayList<>();
+        for (int photo = 0; photo < INITIAL_HANDLES; photo++) {
+            photoNotes.add(notes("note " + photo, "extra " + photo));
+            index.setNotes("photo-" + photo, photoNotes.get(photo));
+        }
+        // Empties more than half of the handle range, so the next note compacts instead of growing
+        List<String> expected = new ArrayList<>();
+        for (int photo = 0; photo < INITIAL_HANDLES / 2; photo++) {
+            if (photo % 4 == 0) {
+                index.removeNote("photo-" + photo, photoNotes.get(photo).get(0).getId());
+                index.removeNote("photo-" + photo, photoNotes.get(photo).get(1).getId());
+            } else {
+                index.removePhoto("photo-" + photo);
+            }
+        }
+        for (int photo = INITIAL_HANDLES / 2; photo < INITIAL_HANDLES; photo++) {
+            expected.add("photo-" + photo);
+        }
+        index.addNote("late", new PhotoNote("late note", 0f, 0f));
+        expected.add("late");
+
+        assertEquals(expected, photoIds(index.search("note", Integer.MAX_VALUE)));
+        assertEquals(Arrays.asList("photo-600"), photoIds(index.search("extra 600", 10)));
+
+        // Ids and positions still line up after the renumbering
+        String photo = "photo-" + (INITIAL_HANDLES - 1);
+        index.removeNote(photo, photoNotes.get(INITIAL_HANDLES - 1).get(0).getId());
+        NoteSearchIndex.Hit hit = index.search("extra " + (INITIAL_HANDLES - 1), 10).get(0);
+        assertEquals(photo, hit.photoId);
+        assertArrayEquals(new int[] {0}, hit.notePositions);
+        assertTrue(index.search("note " + (INITIAL_HANDLES - 1), 10).isEmpty());
+    }
+
+    @Test
+    public void setNotesReplacesThePhotosNotes() {
+        NoteSearchIndex index = new NoteSearchIndex();
+        index.setNotes("photo", notes("old text"));
+        index.setNotes("photo", notes("new text"));
+
+        assertTrue(index.search("old", 10).isEmpty());
+        assertEquals(Arrays.asList("photo"), photoIds(index.search("text", 10)));
+
+        index.clear();
+        assertTrue(index.search("text", 10).isEmpty());
+    }
+
+    private static List<PhotoNote> notes(String... texts) {
+        List<PhotoNote> notes = new ArrayList<>();
+        for (String text : texts) {
+            notes.add(new PhotoNote(text, 0.5f, 0.5f));
+        }
+        return notes;
+    }
+
+    private static List<String> photoIds(List<NoteSearchIndex.Hit> hits) {
+        List<String> ids = new ArrayList<>();
+        for (NoteSearchIndex.Hit hit : hits) {
+            ids.add(hit.photoId);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,169 @@
+package com.alp2.photonote.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.alp2.photonote.model.CatalogEntry;
+import com.alp2.photonote.model.PhotoNote;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class BinaryCatalogTest {
+    @Test
+    public void roundTripsTheCurrentVersion() throws IOException {
+        List<Entry> photos = Arrays.asList(
+                new Entry("p1", "content://media/external/images/media/1",
+                        Arrays.asList(new PhotoNote("n1", "Şehir merkezi", 0.25f, 0.75f), new PhotoNote("n2", null, 0f, 1f))),
+                new Entry("p2", "content://media/external/images/media/2", Collections.emptyList()),
+                new Entry("p3", null, Collections.singletonList(new PhotoNote("n3", "no uri", 0.5f, 0.5f))));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryCatalog.write(bytes, 42, photos);
+        assertTrue(BinaryCatalog.isBinary(bytes.toByteArray(), BinaryCatalog.headerLength()));
+
+        List<Entry> read = new ArrayList<>();
+        long sequence = BinaryCatalog.read(new ByteArrayInputStream(bytes.toByteArray()), Entry::new, read);
+
+        assertEquals(42, sequence);
+        assertEquals(photos.size(), read.size());
+        for (int i = 0; i < photos.size(); i++) {
+            assertSameEntry(photos.get(i), read.get(i));
+        }
+    }
+
+    @Test
+    public void readsVersionOneWithoutNoteIds() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[] {'P', 'N', 'C', 1});
+        out.writeByte(7);              // sequence
+        out.writeByte(1);              // one prefix
+        writeString(out, "content://media/external/images/media/");
+        out.writeByte(1);              // one photo
+        writeString(out, "p1");
+        out.writeByte(1);              // prefix 0, stored + 1
+        writeString(out, "99");
+        out.writeByte(1);              // one note, no id
+        writeString(out, "old note");
+        out.writeFloat(0.1f);
+        out.writeFloat(0.2f);
+
+        List<Entry> read = new ArrayList<>();
+        long sequence = BinaryCatalog.read(new ByteArrayInputStream(bytes.toByteArray()), Entry::new, read);
+
+        assertEquals(7, sequence);
+        assertEquals(1, read.size());
+        assertEquals("content://media/external/images/media/99", read.get(0).getUriString());
+        PhotoNote note = read.get(0).getNotes().get(0);
+        assertEquals("old note", note.getText());
+        assertEquals(0.1f, note.getX(), 0f);
+        assertEquals(0.2f, note.getY(), 0f);
+    }
+
+    @Test
+    public void rejectsInputThatIsNotACatalog() {
+        assertCorrupt("[{\"id\":\"p1\"}]".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void rejectsUnknownVersions() {
+        assertCorrupt(new byte[] {'P', 'N', 'C', 3, 0, 0, 0});
+    }
+
+    @Test
+    public void rejectsTruncatedInput() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryCatalog.write(bytes, 1, Collections.singletonList(new Entry("p1", "content://media/external/images/media/1",
+                Collections.singletonList(new PhotoNote("n1", "text", 0f, 0f)))));
+        byte[] whole = bytes.toByteArray();
+
+        assertCorrupt(Arrays.copyOf(whole, whole.length - 3));
+    }
+
+    @Test
+    public void rejectsAPrefixIndexOutOfRange() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[] {'P', 'N', 'C', 2});
+        out.writeByte(0);              // sequence
+        out.writeByte(0);              // no prefixes
+        out.writeByte(1);              // one photo
+        writeString(out, "p1");
+        out.writeByte(5);              // prefix that does not exist
+        writeString(out, "1");
+        out.writeByte(0);
+
+        assertCorrupt(bytes.toByteArray());
+    }
+
+    private static void assertCorrupt(byte[] bytes) {
+        try {
+            BinaryCatalog.read(new ByteArrayInputStream(bytes), Entry::new, new ArrayList<>());
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            // The caller falls back to the JSON reader or the previous file
+        }
+    }
+
+    private static void assertSameEntry(Entry expected, Entry actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getUriString(), actual.getUriString());
+        assertEquals(expected.getNotes().size(), actual.getNotes().size());
+        for (int i = 0; i < expected.getNotes().size(); i++) {
+            PhotoNote want = expected.getNotes().get(i);
+            PhotoNote got = actual.getNotes().get(i);
+            assertEquals(want.getId(), got.getId());
+            if (want.getText() == null) {
+                assertNull(got.getText());
+            } else {
+                assertEquals(want.getText(), got.getText());
+            }
+            assertEquals(want.getX(), got.getX(), 0f);
+            assertEquals(want.getY(), got.getY(), 0f);
+        }
+    }
+
+    // Short strings only: the length varint must fit in one byte
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(utf8.length + 1);
+        out.write(utf8);
+    }
+
+    private static final class Entry implements CatalogEntry {
+        private final String id;
+        private final String uri;
+        private final List<PhotoNote> notes;
+
+        Entry(String id, String uri, List<PhotoNote> notes) {
+            this.id = id;
+            this.uri = uri;
+            this.notes = notes;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getUriString() {
+            return uri;
+        }
+
+        @Override
+        public List<PhotoNote> getNotes() {
+            return notes;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.alp2.photonote.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class UriKeysTest {
+    private static final String MEDIA_42 = "content://media/external/images/media/42";
+
+    @Test
+    public void documentsUriMapsToTheMediaUri() {
+        assertEquals(MEDIA_42, UriKeys.normalize("com.android.providers.media.documents",
+                Arrays.asList("document", "image:42"),
+                "content://com.android.providers.media.documents/document/image%3A42"));
+    }
+
+    @Test
+    public void mediaUriOnAnotherVolumeMapsToTheExternalOne() {
+        assertEquals(MEDIA_42, UriKeys.normalize("media",
+                Arrays.asList("external_primary", "images", "media", "42"),
+                "content://media/external_primary/images/media/42"));
+    }
+
+    @Test
+    public void externalMediaUriIsItsOwnKey() {
+        assertEquals(MEDIA_42, UriKeys.normalize("media",
+                Arrays.asList("external", "images", "media", "42"), MEDIA_42));
+    }
+
+    @Test
+    public void otherUrisAreLeftAlone() {
+        String video = "content://com.android.providers.media.documents/document/video%3A7";
+        assertEquals(video, UriKeys.normalize("com.android.providers.media.documents",
+                Arrays.asList("document", "video:7"), video));
+
+        String file = "file:///sdcard/DCIM/photo.jpg";
+        assertEquals(file, UriKeys.normalize(null, Arrays.asList("sdcard", "DCIM", "photo.jpg"), file));
+
+        String bare = "content://com.android.providers.media.documents";
+        assertEquals(bare, UriKeys.normalize("com.android.providers.media.documents", Collections.emptyList(), bare));
+    }
+}
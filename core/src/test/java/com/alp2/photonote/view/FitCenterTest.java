@@ -0,0 +1,56 @@
+package com.alp2.photonote.view;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FitCenterTest {
+    private static final float DELTA = 1e-4f;
+
+    @Test
+    public void wideImageGetsBarsAboveAndBelow() {
+        float[] bounds = new float[4];
+        FitCenter.imageBounds(1000, 1000, 2000, 1000, bounds);
+        assertArrayEquals(new float[] {0f, 250f, 1000f, 750f}, bounds, DELTA);
+    }
+
+    @Test
+    public void tallImageGetsBarsLeftAndRight() {
+        float[] bounds = new float[4];
+        FitCenter.imageBounds(1000, 500, 500, 1000, bounds);
+        assertArrayEquals(new float[] {375f, 0f, 625f, 500f}, bounds, DELTA);
+    }
+
+    @Test
+    public void viewCentreIsImageCentre() {
+        float[] out = new float[2];
+        assertTrue(FitCenter.viewToImage(0.5f, 0.5f, 1000, 1000, 2000, 1000, out));
+        assertArrayEquals(new float[] {0.5f, 0.5f}, out, DELTA);
+    }
+
+    @Test
+    public void pointsInsideTheImageMapAcrossTheBars() {
+        float[] out = new float[2];
+        // Image spans y 250..750 of a 1000 px view
+        assertTrue(FitCenter.viewToImage(0.25f, 0.375f, 1000, 1000, 2000, 1000, out));
+        assertEquals(0.25f, out[0], DELTA);
+        assertEquals(0.25f, out[1], DELTA);
+    }
+
+    @Test
+    public void pointsOnTheBarsAreRejected() {
+        float[] out = {-1f, -1f};
+        assertFalse(FitCenter.viewToImage(0.5f, 0.1f, 1000, 1000, 2000, 1000, out));
+        assertArrayEquals(new float[] {-1f, -1f}, out, 0f);
+    }
+
+    @Test
+    public void emptySizesAreRejected() {
+        float[] out = new float[2];
+        assertFalse(FitCenter.viewToImage(0.5f, 0.5f, 0, 1000, 2000, 1000, out));
+        assertFalse(FitCenter.viewToImage(0.5f, 0.5f, 1000, 1000, 0, 0, out));
+    }
+}
@@ -16,4 +16,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "PhotoNote"
 include(":app")
+include(":core")
+include(":benchmark")
  
\ No newline at end of file